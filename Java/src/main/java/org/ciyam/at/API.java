@@ -40,7 +40,11 @@ public abstract class API {
 	/** Returns maximum number of permitted steps per execution round */
 	public abstract int getMaxStepsPerRound();
 
-	/** Returns fee for executing opcode in terms of execution "steps" */
+	/**
+	 * Returns fee for executing opcode in terms of execution "steps"
+	 * <p>
+	 * Called for every OpCode at the start of each execution round, with results cached for the rest of that round.
+	 */
 	public abstract int getOpCodeSteps(OpCode opcode);
 
 	/** Returns fee per execution "step" */
@@ -132,6 +136,26 @@ public abstract class API {
 	 */
 	public abstract void platformSpecificPostCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException;
 
+	/**
+	 * Platform-specific function execution after checking correct calling OpCode, using primitive, reusable function data
+	 * <p>
+	 * Called by <tt>EXT_FUN*</tt> OpCodes. Default implementation passes a boxed copy to
+	 * <tt>platformSpecificPostCheckExecute(FunctionData, MachineState, short)</tt>.
+	 * Override to avoid allocating for each platform-specific function call.
+	 * <p>
+	 * Return value, if any, should be set using <tt>functionData.setReturnValue()</tt>.
+	 * 
+	 * @throws ExecutionException
+	 */
+	public void platformSpecificPostCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		FunctionData boxedFunctionData = functionData.toFunctionData();
+
+		platformSpecificPostCheckExecute(boxedFunctionData, state, rawFunctionCode);
+
+		if (boxedFunctionData.returnValue != null)
+			functionData.setReturnValue(boxedFunctionData.returnValue);
+	}
+
 	/** Convenience method to allow subclasses to access package-scoped MachineState.setIsSleeping */
 	protected void setIsSleeping(MachineState state, boolean isSleeping) {
 		state.setIsSleeping(isSleeping);
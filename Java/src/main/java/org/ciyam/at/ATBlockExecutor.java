@@ -0,0 +1,319 @@
+package org.ciyam.at;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Executes one round of many ATs, e.g. all runnable ATs in a block, in parallel, with results identical to executing them sequentially.
+ * <p>
+ * Each AT's <tt>MachineState.execute()</tt> runs on a <tt>ForkJoinPool</tt>. While executing, each AT's API side effects,
+ * i.e. <tt>payAmountToB</tt>, <tt>messageAToB</tt>, <tt>onFinished</tt> and <tt>onFatalError</tt>, are captured,
+ * along with A and B register values and current balance at the time, instead of being passed to the platform's API.
+ * Once all ATs have executed, captured side effects are passed to each AT's own API, in the same order as they would have been
+ * if the ATs were executed sequentially, in list order, with A and B registers and current balance temporarily restored to their captured values.
+ * <p>
+ * For results to be identical to sequential execution, platform APIs must satisfy:
+ * <ul>
+ * <li>side effect calls must only use the passed machine state's A and B registers and current balance - anything else,
+ * e.g. data segment, program counter, steps, or flags such as <tt>getIsFinished()</tt>, is as at the end of the AT's round, not as when the call was made</li>
+ * <li>other API calls, e.g. <tt>getCurrentBalance</tt> or <tt>putTransactionAfterTimestampInA</tt>,
+ * must not depend on side effects of other ATs executed in the same block, and must be safe to call from multiple threads</li>
+ * <li>platform-specific functions must be safe to call from multiple threads - these are not captured</li>
+ * <li>API code must use the <tt>API</tt> it was called on, not <tt>MachineState.getAPI()</tt>, which returns the capturing API during execution</li>
+ * <li>loggers must be safe to use from multiple threads</li>
+ * </ul>
+ */
+public class ATBlockExecutor {
+
+	private final ForkJoinPool pool;
+
+	/** Creates executor using common fork-join pool */
+	public ATBlockExecutor() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public ATBlockExecutor(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Executes one round of each machine state in parallel, then passes their API side effects to their APIs in list order.
+	 * <p>
+	 * Side effects are all-or-nothing: if executing any AT throws, then all ATs will still have been executed,
+	 * but no side effects are passed to APIs, so caller should discard all machine states.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the same machine state is listed more than once
+	 * @throws IllegalStateException
+	 *             if executing any AT threw, with first such exception, in list order, as cause, and any others added to it as suppressed exceptions
+	 */
+	public void execute(List<MachineState> states) {
+		Set<MachineState> distinctStates = Collections.newSetFromMap(new IdentityHashMap<>(states.size()));
+		for (MachineState state : states)
+			if (!distinctStates.add(state))
+				throw new IllegalArgumentException("Machine state listed more than once");
+
+		List<CapturingAPI> capturingAPIs = new ArrayList<>(states.size());
+		List<Callable<Void>> tasks = new ArrayList<>(states.size());
+
+		for (MachineState state : states) {
+			CapturingAPI capturingAPI = new CapturingAPI(state.getAPI());
+			capturingAPIs.add(capturingAPI);
+
+			tasks.add(() -> {
+				state.setAPI(capturingAPI);
+
+				try {
+					state.execute();
+				} finally {
+					state.setAPI(capturingAPI.api);
+				}
+
+				return null;
+			});
+		}
+
+		List<Future<Void>> results = this.pool.invokeAll(tasks);
+
+		// Collect all failures before committing anything
+		Throwable firstFailure = null;
+		int firstFailedIndex = -1;
+		int failureCount = 0;
+
+		for (int i = 0; i < states.size(); ++i) {
+			try {
+				results.get(i).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while executing ATs - no side effects committed", e);
+			} catch (java.util.concurrent.ExecutionException e) {
+				++failureCount;
+
+				if (firstFailure == null) {
+					firstFailure = e.getCause();
+					firstFailedIndex = i;
+				} else {
+					firstFailure.addSuppressed(e.getCause());
+				}
+			}
+		}
+
+		if (firstFailure != null)
+			throw new IllegalStateException(String.format("Executing %d AT(s) failed, first at list index %d - all ATs executed, but no side effects committed",
+					failureCount, firstFailedIndex), firstFailure);
+
+		// Commit side effects in list order, as if executed sequentially
+		for (int i = 0; i < states.size(); ++i)
+			capturingAPIs.get(i).commit(states.get(i));
+	}
+
+	/** Side effect captured during execution, with A and B registers and current balance as they were when captured */
+	private static class CapturedCall {
+		private final long a1, a2, a3, a4;
+		private final long b1, b2, b3, b4;
+		private final long currentBalance;
+		private final Consumer<MachineState> call;
+
+		public CapturedCall(MachineState state, Consumer<MachineState> call) {
+			this.a1 = state.a1;
+			this.a2 = state.a2;
+			this.a3 = state.a3;
+			this.a4 = state.a4;
+
+			this.b1 = state.b1;
+			this.b2 = state.b2;
+			this.b3 = state.b3;
+			this.b4 = state.b4;
+
+			this.currentBalance = state.getCurrentBalance();
+
+			this.call = call;
+		}
+
+		/** Makes call with A and B registers and current balance temporarily restored to captured values */
+		public void call(MachineState state) {
+			long a1 = state.a1, a2 = state.a2, a3 = state.a3, a4 = state.a4;
+			long b1 = state.b1, b2 = state.b2, b3 = state.b3, b4 = state.b4;
+			long currentBalance = state.getCurrentBalance();
+
+			state.a1 = this.a1;
+			state.a2 = this.a2;
+			state.a3 = this.a3;
+			state.a4 = this.a4;
+
+			state.b1 = this.b1;
+			state.b2 = this.b2;
+			state.b3 = this.b3;
+			state.b4 = this.b4;
+
+			state.setCurrentBalance(this.currentBalance);
+
+			try {
+				this.call.accept(state);
+			} finally {
+				state.a1 = a1;
+				state.a2 = a2;
+				state.a3 = a3;
+				state.a4 = a4;
+
+				state.b1 = b1;
+				state.b2 = b2;
+				state.b3 = b3;
+				state.b4 = b4;
+
+				state.setCurrentBalance(currentBalance);
+			}
+		}
+	}
+
+	/** Passes calls through to platform's API, except for side effects, which are captured until committed */
+	private static class CapturingAPI extends API {
+		private final API api;
+		private final List<CapturedCall> capturedCalls = new ArrayList<>();
+
+		public CapturingAPI(API api) {
+			this.api = api;
+		}
+
+		/** Passes captured side effects to platform's API, in the order they were made */
+		public void commit(MachineState state) {
+			for (CapturedCall capturedCall : this.capturedCalls)
+				capturedCall.call(state);
+
+			this.capturedCalls.clear();
+		}
+
+		// Captured side effects
+
+		@Override
+		public void payAmountToB(long amount, MachineState state) {
+			this.capturedCalls.add(new CapturedCall(state, s -> this.api.payAmountToB(amount, s)));
+		}
+
+		@Override
+		public void messageAToB(MachineState state) {
+			this.capturedCalls.add(new CapturedCall(state, s -> this.api.messageAToB(s)));
+		}
+
+		@Override
+		public void onFinished(long amount, MachineState state) {
+			this.capturedCalls.add(new CapturedCall(state, s -> this.api.onFinished(amount, s)));
+		}
+
+		@Override
+		public void onFatalError(MachineState state, ExecutionException e) {
+			this.capturedCalls.add(new CapturedCall(state, s -> this.api.onFatalError(s, e)));
+		}
+
+		// Passed through
+
+		@Override
+		public int getMaxStepsPerRound() {
+			return this.api.getMaxStepsPerRound();
+		}
+
+		@Override
+		public int getOpCodeSteps(OpCode opcode) {
+			return this.api.getOpCodeSteps(opcode);
+		}
+
+		@Override
+		public long getFeePerStep() {
+			return this.api.getFeePerStep();
+		}
+
+		@Override
+		public int getCurrentBlockHeight() {
+			return this.api.getCurrentBlockHeight();
+		}
+
+		@Override
+		public int getATCreationBlockHeight(MachineState state) {
+			return this.api.getATCreationBlockHeight(state);
+		}
+
+		@Override
+		public int getPreviousBlockHeight() {
+			return this.api.getPreviousBlockHeight();
+		}
+
+		@Override
+		public void putPreviousBlockHashInA(MachineState state) {
+			this.api.putPreviousBlockHashInA(state);
+		}
+
+		@Override
+		public void putTransactionAfterTimestampInA(Timestamp timestamp, MachineState state) {
+			this.api.putTransactionAfterTimestampInA(timestamp, state);
+		}
+
+		@Override
+		public long getTypeFromTransactionInA(MachineState state) {
+			return this.api.getTypeFromTransactionInA(state);
+		}
+
+		@Override
+		public long getAmountFromTransactionInA(MachineState state) {
+			return this.api.getAmountFromTransactionInA(state);
+		}
+
+		@Override
+		public long getTimestampFromTransactionInA(MachineState state) {
+			return this.api.getTimestampFromTransactionInA(state);
+		}
+
+		@Override
+		public long generateRandomUsingTransactionInA(MachineState state) {
+			return this.api.generateRandomUsingTransactionInA(state);
+		}
+
+		@Override
+		public void putMessageFromTransactionInAIntoB(MachineState state) {
+			this.api.putMessageFromTransactionInAIntoB(state);
+		}
+
+		@Override
+		public void putAddressFromTransactionInAIntoB(MachineState state) {
+			this.api.putAddressFromTransactionInAIntoB(state);
+		}
+
+		@Override
+		public void putCreatorAddressIntoB(MachineState state) {
+			this.api.putCreatorAddressIntoB(state);
+		}
+
+		@Override
+		public long getCurrentBalance(MachineState state) {
+			return this.api.getCurrentBalance(state);
+		}
+
+		@Override
+		public long addMinutesToTimestamp(Timestamp timestamp, long minutes, MachineState state) {
+			return this.api.addMinutesToTimestamp(timestamp, minutes, state);
+		}
+
+		@Override
+		public void platformSpecificPreExecuteCheck(int paramCount, boolean returnValueExpected, MachineState state, short rawFunctionCode)
+				throws IllegalFunctionCodeException {
+			this.api.platformSpecificPreExecuteCheck(paramCount, returnValueExpected, state, rawFunctionCode);
+		}
+
+		@Override
+		public void platformSpecificPostCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			this.api.platformSpecificPostCheckExecute(functionData, state, rawFunctionCode);
+		}
+
+		@Override
+		public void platformSpecificPostCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			this.api.platformSpecificPostCheckExecute(functionData, state, rawFunctionCode);
+		}
+	}
+
+}
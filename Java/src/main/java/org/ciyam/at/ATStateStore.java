@@ -0,0 +1,406 @@
+package org.ciyam.at;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Reference store of serialized machine states in a memory-mapped file, so ATs' states are loaded and saved in place
+ * instead of being copied to and from separate blobs.
+ * <p>
+ * Each AT has a fixed-size slot, sized from its header using <tt>MachineState.maxSerializedSize()</tt>, so any later state fits.
+ * Slots are identified by their offset in the file, returned by {@link #allocate(MachineState)}, which platforms record alongside the AT.
+ * <p>
+ * Each slot holds two copies of the AT's state, and loading uses the newest copy whose checksum is valid.
+ * The first save into a slot after {@link #flush()} overwrites the older copy, and any further saves before the next flush
+ * overwrite that same copy again, so the copy forced to disk by the last flush is never overwritten until another flush.
+ * So if the process or OS crashes mid-save, or before modified pages reach disk, the state as of the last flush, or later,
+ * is loaded instead of a torn one. Call {@link #flush()}, e.g. after each block, to force saved states to disk.
+ * <p>
+ * Sequence numbers are store-wide, so saving picks which copy to overwrite from sequence numbers alone, without checksumming.
+ * Opening a store checks every slot once, invalidating any copy torn by a crash, so the newest copy is always a valid one.
+ * <p>
+ * Allocating a slot forces the store header and new slot to disk, so slots are never handed out twice, even after a crash.
+ * Only those pages are forced if running on Java 13+, otherwise the whole store.
+ * <p>
+ * File layout, all little-endian:
+ * <ul>
+ * <li>store header: magic, layout version, offset of next free slot</li>
+ * <li>slots, each: copy capacity, then two copies, each: CRC32C of rest of copy, sequence number, state length, state bytes</li>
+ * </ul>
+ * File size, and so total capacity, is fixed when opened, up to 2GB.
+ * <p>
+ * Loading and saving different slots is thread-safe, e.g. from <tt>ATBlockExecutor</tt> callers, but each slot must only be used by one thread at a time.
+ * Flushing waits for any saves in progress.
+ */
+public class ATStateStore implements AutoCloseable {
+
+	private static final int MAGIC = 0x53535441; // "ATSS" little-endian
+	private static final int LAYOUT_VERSION = 1;
+
+	private static final int MAGIC_OFFSET = 0;
+	private static final int LAYOUT_VERSION_OFFSET = 4;
+	private static final int NEXT_FREE_OFFSET = 8;
+	private static final int STORE_HEADER_LENGTH = 16;
+
+	/** Copy capacity, padded to keep copies aligned */
+	private static final int SLOT_HEADER_LENGTH = 8;
+
+	// Copy header: CRC32C, then sequence number and state length, which are covered by CRC
+	private static final int COPY_CRC_OFFSET = 0;
+	private static final int COPY_SEQUENCE_OFFSET = 4;
+	private static final int COPY_LENGTH_OFFSET = 12;
+	private static final int COPY_HEADER_LENGTH = 16;
+
+	/** <tt>MappedByteBuffer.force(int, int)</tt>, if available (Java 13+) */
+	private static final Method FORCE_RANGE;
+
+	static {
+		Method forceRange = null;
+
+		try {
+			forceRange = MappedByteBuffer.class.getMethod("force", int.class, int.class);
+		} catch (NoSuchMethodException e) {
+			// Older Java - force whole buffer instead
+		}
+
+		FORCE_RANGE = forceRange;
+	}
+
+	private final FileChannel channel;
+	private final MappedByteBuffer mappedBuffer;
+
+	/** Sequence number of most recently saved copy, in any slot */
+	private final AtomicLong lastSequence = new AtomicLong();
+
+	/** Copies with higher sequence numbers were saved since last flush, so might not be on disk yet */
+	private volatile long flushedSequence;
+
+	/** Saves share read lock, flushing takes write lock, so saves made during a flush aren't mistaken for flushed ones */
+	private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+
+	private ATStateStore(FileChannel channel, MappedByteBuffer mappedBuffer) {
+		this.channel = channel;
+		this.mappedBuffer = mappedBuffer;
+	}
+
+	/**
+	 * Opens store at <tt>path</tt>, creating it if necessary.
+	 *
+	 * @param capacity
+	 *            file size in bytes - existing files are extended if smaller
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             if existing file is not a store, or is larger than <tt>capacity</tt>
+	 */
+	public static ATStateStore open(Path path, int capacity) throws IOException {
+		if (capacity < STORE_HEADER_LENGTH)
+			throw new IllegalArgumentException("Capacity too small for store header");
+
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+
+		try {
+			long existingSize = channel.size();
+			if (existingSize > capacity)
+				throw new IllegalArgumentException("Existing store larger than capacity");
+
+			MappedByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			mappedBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			if (existingSize == 0) {
+				mappedBuffer.putInt(LAYOUT_VERSION_OFFSET, LAYOUT_VERSION);
+				mappedBuffer.putInt(NEXT_FREE_OFFSET, STORE_HEADER_LENGTH);
+				// Magic last, so partially created stores aren't mistaken for valid ones
+				mappedBuffer.putInt(MAGIC_OFFSET, MAGIC);
+				mappedBuffer.force();
+			} else if (mappedBuffer.getInt(MAGIC_OFFSET) != MAGIC) {
+				throw new IllegalArgumentException("Not an AT state store");
+			} else if (mappedBuffer.getInt(LAYOUT_VERSION_OFFSET) != LAYOUT_VERSION) {
+				throw new IllegalArgumentException("Unsupported AT state store layout version " + mappedBuffer.getInt(LAYOUT_VERSION_OFFSET));
+			}
+
+			ATStateStore store = new ATStateStore(channel, mappedBuffer);
+			store.recover();
+			return store;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Allocates slot big enough for any state with <tt>state</tt>'s header, saves <tt>state</tt> into it,
+	 * then forces store header and slot to disk.
+	 *
+	 * @return slot, for passing to {@link #save(int, MachineState)} and {@link #load(int, API, LoggerInterface, CodeSegment)}
+	 * @throws IllegalStateException
+	 *             if store is full
+	 */
+	public int allocate(MachineState state) {
+		int copyCapacity = align(state.maxSerializedSize());
+		int slotLength = SLOT_HEADER_LENGTH + 2 * (COPY_HEADER_LENGTH + copyCapacity);
+
+		int slot;
+		synchronized (this) {
+			slot = this.mappedBuffer.getInt(NEXT_FREE_OFFSET);
+			if (slotLength > this.mappedBuffer.capacity() - slot)
+				throw new IllegalStateException("AT state store full");
+
+			ByteBuffer slotBuffer = this.mappedBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			slotBuffer.putInt(slot, copyCapacity);
+
+			// Both copies start invalid, in case of leftovers from an allocation interrupted by a crash
+			slotBuffer.putLong(copyOffset(slot, copyCapacity, 0) + COPY_SEQUENCE_OFFSET, 0L);
+			slotBuffer.putLong(copyOffset(slot, copyCapacity, 1) + COPY_SEQUENCE_OFFSET, 0L);
+
+			this.mappedBuffer.putInt(NEXT_FREE_OFFSET, slot + slotLength);
+		}
+
+		this.save(slot, state);
+
+		// Slot is only recorded by caller once allocation, and initial state, have reached disk
+		// Slot first, so a forced next free offset always follows a complete slot
+		this.force(slot, slotLength);
+		this.force(0, STORE_HEADER_LENGTH);
+
+		return slot;
+	}
+
+	/**
+	 * Saves <tt>state</tt> into <tt>slot</tt>, overwriting copy already saved since last flush, otherwise older of slot's two copies.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <tt>slot</tt> is invalid, or <tt>state</tt> doesn't fit
+	 */
+	public void save(int slot, MachineState state) {
+		ByteBuffer byteBuffer = this.newBuffer();
+		int copyCapacity = this.getCopyCapacity(byteBuffer, slot);
+
+		int stateLength = state.serializedSize();
+		if (stateLength > copyCapacity)
+			throw new IllegalArgumentException("Machine state too large for slot");
+
+		this.flushLock.readLock().lock();
+		try {
+			// Newest copy is always valid, as torn copies are invalidated when opening, so no need to checksum either copy here
+			long sequence0 = byteBuffer.getLong(copyOffset(slot, copyCapacity, 0) + COPY_SEQUENCE_OFFSET);
+			long sequence1 = byteBuffer.getLong(copyOffset(slot, copyCapacity, 1) + COPY_SEQUENCE_OFFSET);
+			int newestCopy = sequence1 > sequence0 ? 1 : 0;
+			long newestSequence = Math.max(sequence0, sequence1);
+			long otherSequence = Math.min(sequence0, sequence1);
+
+			// Overwrite newest copy again if not yet flushed, and other copy holds a state that might be, otherwise overwrite other copy
+			int copy = newestSequence > this.flushedSequence && otherSequence != 0 ? newestCopy : 1 - newestCopy;
+			int copyOffset = copyOffset(slot, copyCapacity, copy);
+
+			byteBuffer.position(copyOffset + COPY_HEADER_LENGTH);
+			state.writeTo(byteBuffer);
+
+			byteBuffer.putInt(copyOffset + COPY_LENGTH_OFFSET, stateLength);
+			byteBuffer.putLong(copyOffset + COPY_SEQUENCE_OFFSET, this.lastSequence.incrementAndGet());
+			// CRC last, so copy is only valid once everything else is written
+			byteBuffer.putInt(copyOffset + COPY_CRC_OFFSET, copyChecksum(byteBuffer, copyOffset, stateLength));
+		} finally {
+			this.flushLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns read-only view of newest valid state saved in <tt>slot</tt>, positioned at start of serialized state and limited to its end.
+	 * <p>
+	 * Returned buffer can be passed to <tt>MachineState.peekStatus()</tt>, <tt>MachineState.fromBytes()</tt>, or <tt>MachineStatePool</tt>,
+	 * but is only valid until <tt>slot</tt> is next saved.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <tt>slot</tt> is invalid
+	 * @throws IllegalStateException
+	 *             if neither copy in slot is valid
+	 */
+	public ByteBuffer read(int slot) {
+		ByteBuffer byteBuffer = this.newBuffer();
+		int copyCapacity = this.getCopyCapacity(byteBuffer, slot);
+
+		int newestCopy = findNewestCopy(byteBuffer, slot, copyCapacity);
+		if (newestCopy == -1)
+			throw new IllegalStateException("No valid machine state in slot");
+
+		int copyOffset = copyOffset(slot, copyCapacity, newestCopy);
+		int stateLength = byteBuffer.getInt(copyOffset + COPY_LENGTH_OFFSET);
+
+		byteBuffer.limit(copyOffset + COPY_HEADER_LENGTH + stateLength);
+		byteBuffer.position(copyOffset + COPY_HEADER_LENGTH);
+
+		return byteBuffer.slice().asReadOnlyBuffer();
+	}
+
+	/** Restores newest valid machine state saved in <tt>slot</tt>, using shared code segment */
+	public MachineState load(int slot, API api, LoggerInterface logger, CodeSegment codeSegment) {
+		return MachineState.fromBytes(api, logger, this.read(slot), codeSegment);
+	}
+
+	/** Forces saved states to disk, so their slots' other copies can be overwritten by later saves */
+	public void flush() {
+		this.flushLock.writeLock().lock();
+		try {
+			// No saves in progress, so all copies up to this sequence number have been written
+			long sequence = this.lastSequence.get();
+
+			this.mappedBuffer.force();
+			this.flushedSequence = sequence;
+		} finally {
+			this.flushLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.flush();
+		this.channel.close();
+	}
+
+	/** Invalidates copies torn by a crash, so newest copy in each slot is valid, and continues sequence numbers from newest copy */
+	private void recover() {
+		ByteBuffer byteBuffer = this.newBuffer();
+		int nextFree = byteBuffer.getInt(NEXT_FREE_OFFSET);
+		long maxSequence = 0;
+		boolean isRepaired = false;
+
+		int slot = STORE_HEADER_LENGTH;
+		while (slot < nextFree) {
+			int copyCapacity = byteBuffer.getInt(slot);
+			if (!isValidCopyCapacity(slot, copyCapacity, nextFree))
+				throw new IllegalArgumentException("Corrupt AT state store slot at " + slot);
+
+			for (int copy = 0; copy < 2; ++copy) {
+				int copyOffset = copyOffset(slot, copyCapacity, copy);
+				long sequence = byteBuffer.getLong(copyOffset + COPY_SEQUENCE_OFFSET);
+
+				if (sequence == 0)
+					continue;
+
+				if (isValidCopy(byteBuffer, copyOffset, copyCapacity)) {
+					maxSequence = Math.max(maxSequence, sequence);
+				} else {
+					byteBuffer.putLong(copyOffset + COPY_SEQUENCE_OFFSET, 0L);
+					isRepaired = true;
+				}
+			}
+
+			slot += slotLength(copyCapacity);
+		}
+
+		if (isRepaired)
+			this.mappedBuffer.force();
+
+		// Everything read back from file is as good as flushed
+		this.lastSequence.set(maxSequence);
+		this.flushedSequence = maxSequence;
+	}
+
+	/** Forces range of file to disk, or whole file if not supported */
+	private void force(int index, int length) {
+		if (FORCE_RANGE == null) {
+			this.mappedBuffer.force();
+			return;
+		}
+
+		try {
+			FORCE_RANGE.invoke(this.mappedBuffer, index, length);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+
+			throw new IllegalStateException(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Returns new little-endian view of whole file, with its own position */
+	private ByteBuffer newBuffer() {
+		return this.mappedBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private int getCopyCapacity(ByteBuffer byteBuffer, int slot) {
+		int nextFree = byteBuffer.getInt(NEXT_FREE_OFFSET);
+		if (slot < STORE_HEADER_LENGTH || slot >= nextFree || slot % 8 != 0)
+			throw new IllegalArgumentException("Invalid slot");
+
+		int copyCapacity = byteBuffer.getInt(slot);
+		if (!isValidCopyCapacity(slot, copyCapacity, nextFree))
+			throw new IllegalArgumentException("Invalid slot");
+
+		return copyCapacity;
+	}
+
+	/** Returns whether <tt>copyCapacity</tt>, read from <tt>slot</tt>, is plausible, so slot fits before <tt>nextFree</tt> */
+	private static boolean isValidCopyCapacity(int slot, int copyCapacity, int nextFree) {
+		return copyCapacity > 0 && copyCapacity % 8 == 0 && slot + slotLength(copyCapacity) <= nextFree;
+	}
+
+	private static long slotLength(int copyCapacity) {
+		return SLOT_HEADER_LENGTH + 2L * (COPY_HEADER_LENGTH + copyCapacity);
+	}
+
+	/** Returns index of newest valid copy in slot, or -1 if neither copy is valid */
+	private static int findNewestCopy(ByteBuffer byteBuffer, int slot, int copyCapacity) {
+		int newestCopy = -1;
+		long newestSequence = 0;
+
+		for (int copy = 0; copy < 2; ++copy) {
+			int copyOffset = copyOffset(slot, copyCapacity, copy);
+
+			long sequence = byteBuffer.getLong(copyOffset + COPY_SEQUENCE_OFFSET);
+
+			if (sequence <= newestSequence || !isValidCopy(byteBuffer, copyOffset, copyCapacity))
+				continue;
+
+			newestCopy = copy;
+			newestSequence = sequence;
+		}
+
+		return newestCopy;
+	}
+
+	/** Returns whether copy's state length is plausible and its checksum matches */
+	private static boolean isValidCopy(ByteBuffer byteBuffer, int copyOffset, int copyCapacity) {
+		int stateLength = byteBuffer.getInt(copyOffset + COPY_LENGTH_OFFSET);
+		if (stateLength < MachineState.HEADER_LENGTH || stateLength > copyCapacity)
+			return false;
+
+		return byteBuffer.getInt(copyOffset + COPY_CRC_OFFSET) == copyChecksum(byteBuffer, copyOffset, stateLength);
+	}
+
+	private static int copyOffset(int slot, int copyCapacity, int copy) {
+		return slot + SLOT_HEADER_LENGTH + copy * (COPY_HEADER_LENGTH + copyCapacity);
+	}
+
+	/** Returns CRC32C of copy's sequence number, state length and state bytes */
+	private static int copyChecksum(ByteBuffer byteBuffer, int copyOffset, int stateLength) {
+		ByteBuffer checkedBuffer = byteBuffer.duplicate();
+		checkedBuffer.limit(copyOffset + COPY_HEADER_LENGTH + stateLength);
+		checkedBuffer.position(copyOffset + COPY_SEQUENCE_OFFSET);
+
+		CRC32C crc = new CRC32C();
+		crc.update(checkedBuffer);
+		return (int) crc.getValue();
+	}
+
+	private static int align(int length) {
+		return (length + 7) & ~7;
+	}
+
+}
@@ -0,0 +1,1052 @@
+package org.ciyam.at;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles AT code segments into JVM bytecode, for use by <tt>ExecutionEngine.COMPILED</tt>.
+ * <p>
+ * Each code segment becomes one <tt>CompiledCode.execute()</tt> method, in a hidden class defined at runtime,
+ * which can be unloaded once no longer used. Hidden classes need Java 15+. On older Java, classes defined at runtime
+ * could never be unloaded, so code is left to the interpreter instead of leaking a class each time code is compiled.
+ * Data segment accesses become array accesses with constant indexes, and AT jumps and branches become JVM jumps.
+ * <p>
+ * Compiled code behaves exactly like the interpreter:
+ * <ul>
+ * <li>execution can start at any decoded program counter, via a <tt>lookupswitch</tt></li>
+ * <li>step limit and balance are checked per basic block, as with the interpreter, leaving the interpreter to handle any block that might not be affordable</li>
+ * <li>sleeping, stopping, finishing and function calls (which might use <tt>API_PASSTHROUGH</tt>) are left to the interpreter</li>
+ * <li>errors are thrown with program counter set, so <tt>onErrorAddress</tt> handling is unchanged</li>
+ * </ul>
+ * Compiled code is kept by <tt>CodeSegment</tt>, per data segment size, so many ATs with identical code share one class,
+ * and it is discarded along with its code segment.
+ */
+/* package */ class CodeCompiler {
+
+	/** Code segments that would compile to larger methods than this are left to the interpreter, as HotSpot won't JIT-compile them */
+	private static final int MAX_METHOD_SIZE = 8000;
+
+	private static final long MAX_SHIFT = MachineState.VALUE_SIZE * 8L;
+
+	private static final String COMPILED_CODE_CLASS = "org/ciyam/at/CompiledCode";
+	private static final String EXECUTION_ERRORS_CLASS = "org/ciyam/at/ExecutionErrors";
+	private static final String MACHINE_STATE_CLASS = "org/ciyam/at/MachineState";
+	private static final String OPCODE_CLASS = "org/ciyam/at/OpCode";
+
+	private static final String OPCODE_DESCRIPTOR = "L" + OPCODE_CLASS + ";";
+
+	// Local variable slots in generated execute() method, after 'this' and 'state'
+	private static final int LOCAL_DATA = 2;
+	private static final int LOCAL_PC = 3;
+	private static final int LOCAL_TEMP = 4; // long, so also uses slot 5
+	private static final int MAX_LOCALS = 6;
+	private static final int MAX_STACK = 8;
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	/** <tt>MethodHandles.Lookup.defineHiddenClass</tt>, if available (Java 15+) */
+	private static final Method DEFINE_HIDDEN_CLASS;
+	private static final Object NO_CLASS_OPTIONS;
+
+	static {
+		Method defineHiddenClass = null;
+		Object noClassOptions = null;
+
+		try {
+			Class<?> classOptionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+			noClassOptions = Array.newInstance(classOptionClass, 0);
+			defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, noClassOptions.getClass());
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			// Older Java - can't define unloadable classes, so nothing is compiled
+		}
+
+		DEFINE_HIDDEN_CLASS = defineHiddenClass;
+		NO_CLASS_OPTIONS = noClassOptions;
+	}
+
+	/** Whether compiled code can be defined as unloadable hidden classes - only changed by tests, to exercise older Java behaviour */
+	/* package */ static volatile boolean isHiddenClassSupported = DEFINE_HIDDEN_CLASS != null;
+
+	/** For unique class names, also counts classes defined */
+	/* package */ static final AtomicInteger classCount = new AtomicInteger();
+
+	private CodeCompiler() {
+	}
+
+	/**
+	 * Compiles decoded code into a new <tt>CompiledCode</tt> subclass and returns an instance.
+	 *
+	 * @return compiled code, or null if hidden classes aren't supported, there is nothing worth compiling, or resulting method would be too large
+	 */
+	/* package */ static CompiledCode compile(DecodedCode decodedCode, int dataLength) {
+		if (!isHiddenClassSupported)
+			return null;
+
+		int codeLength = decodedCode.opCodes.length;
+
+		boolean[] entryPoints = new boolean[codeLength];
+		boolean hasEntryPoints = false;
+
+		for (int programCounter = 0; programCounter < codeLength; ++programCounter) {
+			OpCode opCode = decodedCode.opCodes[programCounter];
+
+			if (opCode != null && !isLeftToInterpreter(opCode)) {
+				entryPoints[programCounter] = true;
+				hasEntryPoints = true;
+			}
+		}
+
+		if (!hasEntryPoints)
+			return null;
+
+		String className = "org/ciyam/at/CompiledCode$" + classCount.incrementAndGet();
+
+		ConstantPool constantPool = new ConstantPool();
+		byte[] executeCode = new MethodCompiler(decodedCode, dataLength, entryPoints, constantPool).compile();
+		if (executeCode == null)
+			return null;
+
+		byte[] classBytes = buildClass(className, constantPool, executeCode);
+
+		try {
+			Class<?> compiledClass = defineClass(classBytes);
+
+			return (CompiledCode) compiledClass.getDeclaredConstructor(boolean[].class).newInstance((Object) entryPoints);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Unable to load compiled code", e);
+		}
+	}
+
+	/** Returns whether OpCode might change AT status or call API, so is always executed by interpreter */
+	private static boolean isLeftToInterpreter(OpCode opCode) {
+		switch (opCode) {
+			case FIZ_DAT:
+			case STZ_DAT:
+			case FIN_IMD:
+			case STP_IMD:
+			case SLP_DAT:
+			case SLP_IMD:
+			case EXT_FUN:
+			case EXT_FUN_DAT:
+			case EXT_FUN_DAT_2:
+			case EXT_FUN_RET:
+			case EXT_FUN_RET_DAT:
+			case EXT_FUN_RET_DAT_2:
+				return true;
+
+			default:
+				return false;
+		}
+	}
+
+	private static Class<?> defineClass(byte[] classBytes) throws ReflectiveOperationException {
+		try {
+			MethodHandles.Lookup hiddenClassLookup = (MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invoke(LOOKUP, classBytes, true, NO_CLASS_OPTIONS);
+			return hiddenClassLookup.lookupClass();
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+
+			throw e;
+		}
+	}
+
+	/** Builds class file with constructor and <tt>execute(MachineState)</tt> method */
+	private static byte[] buildClass(String className, ConstantPool constantPool, byte[] executeCode) {
+		int thisClass = constantPool.classRef(className);
+		int superClass = constantPool.classRef(COMPILED_CODE_CLASS);
+
+		// Constructor simply passes entry points to superclass
+		CodeBuilder constructorCode = new CodeBuilder(constantPool);
+		constructorCode.op(Bytecode.ALOAD_0);
+		constructorCode.op(Bytecode.ALOAD_1);
+		constructorCode.invoke(Bytecode.INVOKESPECIAL, COMPILED_CODE_CLASS, "<init>", "([Z)V");
+		constructorCode.op(Bytecode.RETURN);
+
+		int codeAttribute = constantPool.utf8("Code");
+		int constructorName = constantPool.utf8("<init>");
+		int constructorDescriptor = constantPool.utf8("([Z)V");
+		int executeName = constantPool.utf8("execute");
+		int executeDescriptor = constantPool.utf8("(L" + MACHINE_STATE_CLASS + ";)V");
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+
+			out.writeInt(0xcafebabe);
+			out.writeShort(0); // minor version
+			out.writeShort(49); // major version: Java 5, so no stack map frames needed
+
+			constantPool.writeTo(out);
+
+			out.writeShort(Bytecode.ACC_FINAL | Bytecode.ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+
+			out.writeShort(2); // methods
+			writeMethod(out, Bytecode.ACC_PUBLIC, constructorName, constructorDescriptor, codeAttribute, 2, 2, constructorCode.toBytes());
+			writeMethod(out, Bytecode.ACC_PUBLIC | Bytecode.ACC_FINAL, executeName, executeDescriptor, codeAttribute, MAX_STACK, MAX_LOCALS, executeCode);
+
+			out.writeShort(0); // attributes
+
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to build compiled class", e);
+		}
+	}
+
+	private static void writeMethod(DataOutputStream out, int accessFlags, int name, int descriptor, int codeAttribute, int maxStack, int maxLocals,
+			byte[] code) throws IOException {
+		out.writeShort(accessFlags);
+		out.writeShort(name);
+		out.writeShort(descriptor);
+
+		out.writeShort(1); // attributes
+		out.writeShort(codeAttribute);
+		out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+	}
+
+	/**
+	 * Generates body of <tt>execute(MachineState)</tt>.
+	 * <p>
+	 * Layout is:
+	 * <ul>
+	 * <li>prologue, which loads data segment and program counter into locals</li>
+	 * <li>dispatch, which checks basic block at program counter is affordable, then uses <tt>lookupswitch</tt> to jump to compiled OpCode</li>
+	 * <li>exit, which hands program counter back to interpreter</li>
+	 * <li>compiled OpCodes, in program counter order, so execution within a basic block simply falls through</li>
+	 * <li>entry stubs, used by jumps and branches, which check the target's basic block is affordable</li>
+	 * <li>exit stubs, for jumps and branches to OpCodes that aren't compiled</li>
+	 * <li>exception throwing stubs</li>
+	 * </ul>
+	 */
+	private static class MethodCompiler {
+		private final DecodedCode decodedCode;
+		private final int dataLength;
+		private final boolean[] entryPoints;
+		private final CodeBuilder code;
+
+		private final Label exit = new Label();
+		private final Label dispatch = new Label();
+		private final Label throwDataAddressOutOfBounds = new Label();
+		private final Label throwBranchTargetOutOfBounds = new Label();
+		private final Label throwDivideByZero = new Label();
+
+		private final Label[] opCodeLabels;
+		private final Map<Integer, Label> entryStubs = new TreeMap<>();
+		private final Map<Integer, Label> exitStubs = new TreeMap<>();
+
+		public MethodCompiler(DecodedCode decodedCode, int dataLength, boolean[] entryPoints, ConstantPool constantPool) {
+			this.decodedCode = decodedCode;
+			this.dataLength = dataLength;
+			this.entryPoints = entryPoints;
+			this.code = new CodeBuilder(constantPool);
+
+			this.opCodeLabels = new Label[entryPoints.length];
+			for (int programCounter = 0; programCounter < entryPoints.length; ++programCounter)
+				if (decodedCode.opCodes[programCounter] != null)
+					this.opCodeLabels[programCounter] = new Label();
+		}
+
+		/** Returns method's bytecode, or null if too large */
+		public byte[] compile() {
+			// Prologue
+			code.op(Bytecode.ALOAD_1);
+			code.field(Bytecode.GETFIELD, MACHINE_STATE_CLASS, "data", "[J");
+			code.local(Bytecode.ASTORE, LOCAL_DATA);
+			code.op(Bytecode.ALOAD_1);
+			code.invoke(Bytecode.INVOKEVIRTUAL, MACHINE_STATE_CLASS, "getProgramCounter", "()I");
+			code.local(Bytecode.ISTORE, LOCAL_PC);
+
+			// Dispatch
+			code.mark(dispatch);
+			emitBlockCheck();
+
+			List<Integer> keys = new ArrayList<>();
+			List<Label> targets = new ArrayList<>();
+			for (int programCounter = 0; programCounter < entryPoints.length; ++programCounter)
+				if (entryPoints[programCounter]) {
+					keys.add(programCounter);
+					targets.add(opCodeLabels[programCounter]);
+				}
+
+			code.local(Bytecode.ILOAD, LOCAL_PC);
+			code.lookupSwitch(exit, keys, targets);
+
+			// Exit
+			code.mark(exit);
+			code.op(Bytecode.ALOAD_1);
+			code.local(Bytecode.ILOAD, LOCAL_PC);
+			code.invoke(Bytecode.INVOKEVIRTUAL, MACHINE_STATE_CLASS, "leaveCompiledCode", "(I)V");
+			code.op(Bytecode.RETURN);
+
+			for (int programCounter = 0; programCounter < entryPoints.length; ++programCounter)
+				if (opCodeLabels[programCounter] != null) {
+					code.mark(opCodeLabels[programCounter]);
+					compileOpCode(programCounter, decodedCode.opCodes[programCounter]);
+				}
+
+			// Entry stubs check target's basic block is affordable, then jump directly to target
+			for (Map.Entry<Integer, Label> entryStub : entryStubs.entrySet()) {
+				code.mark(entryStub.getValue());
+				emitSetProgramCounter(entryStub.getKey());
+				emitBlockCheck();
+				code.jump(Bytecode.GOTO, opCodeLabels[entryStub.getKey()]);
+			}
+
+			// Exit stubs hand target back to interpreter
+			for (Map.Entry<Integer, Label> exitStub : exitStubs.entrySet()) {
+				code.mark(exitStub.getValue());
+				emitSetProgramCounter(exitStub.getKey());
+				code.jump(Bytecode.GOTO, exit);
+			}
+
+			emitThrow(throwDataAddressOutOfBounds, "DATA_ADDRESS_OUT_OF_BOUNDS", "Lorg/ciyam/at/InvalidAddressException;");
+			emitThrow(throwBranchTargetOutOfBounds, "BRANCH_TARGET_OUT_OF_BOUNDS", "Lorg/ciyam/at/InvalidAddressException;");
+			emitThrow(throwDivideByZero, "DIVIDE_BY_ZERO", "Lorg/ciyam/at/IllegalOperationException;");
+
+			if (code.size() > MAX_METHOD_SIZE)
+				return null;
+
+			return code.toBytes();
+		}
+
+		private void compileOpCode(int programCounter, OpCode opCode) {
+			if (isLeftToInterpreter(opCode)) {
+				emitSetProgramCounter(programCounter);
+				code.jump(Bytecode.GOTO, exit);
+				return;
+			}
+
+			int[] args = decodedCode.args;
+			int argIndex = programCounter * OpCode.MAX_ARGS;
+			int nextProgramCounter = decodedCode.nextProgramCounters[programCounter];
+
+			// state.chargeOpCode(programCounter, OpCode.X)
+			code.op(Bytecode.ALOAD_1);
+			code.pushInt(programCounter);
+			code.field(Bytecode.GETSTATIC, OPCODE_CLASS, opCode.name(), OPCODE_DESCRIPTOR);
+			code.invoke(Bytecode.INVOKEVIRTUAL, MACHINE_STATE_CLASS, "chargeOpCode", "(I" + OPCODE_DESCRIPTOR + ")V");
+
+			int branchTarget;
+
+			switch (opCode) {
+				case NOP:
+					break;
+
+				case SET_VAL:
+					emitPutStart(args[argIndex]);
+					code.pushLong(decodedCode.values[programCounter]);
+					emitPutEnd();
+					break;
+
+				case SET_DAT:
+					emitPutStart(args[argIndex]);
+					emitGetLong(args[argIndex + 1]);
+					emitPutEnd();
+					break;
+
+				case CLR_DAT:
+					emitPutStart(args[argIndex]);
+					code.pushLong(0L);
+					emitPutEnd();
+					break;
+
+				case INC_DAT:
+					emitUnaryOperation(args[argIndex], Bytecode.LCONST_1, Bytecode.LADD);
+					break;
+
+				case DEC_DAT:
+					emitUnaryOperation(args[argIndex], Bytecode.LCONST_1, Bytecode.LSUB);
+					break;
+
+				case NOT_DAT:
+					emitPutStart(args[argIndex]);
+					emitGetLong(args[argIndex]);
+					code.pushLong(-1L);
+					code.op(Bytecode.LXOR);
+					emitPutEnd();
+					break;
+
+				case ADD_DAT:
+					emitBinaryOperation(args[argIndex], args[argIndex + 1], Bytecode.LADD);
+					break;
+
+				case SUB_DAT:
+					emitBinaryOperation(args[argIndex], args[argIndex + 1], Bytecode.LSUB);
+					break;
+
+				case MUL_DAT:
+					emitBinaryOperation(args[argIndex], args[argIndex + 1], Bytecode.LMUL);
+					break;
+
+				case BOR_DAT:
+					emitBinaryOperation(args[argIndex], args[argIndex + 1], Bytecode.LOR);
+					break;
+
+				case AND_DAT:
+					emitBinaryOperation(args[argIndex], args[argIndex + 1], Bytecode.LAND);
+					break;
+
+				case XOR_DAT:
+					emitBinaryOperation(args[argIndex], args[argIndex + 1], Bytecode.LXOR);
+					break;
+
+				case DIV_DAT:
+					emitDivision(args[argIndex], args[argIndex + 1], Bytecode.LDIV);
+					break;
+
+				case MOD_DAT:
+					emitDivision(args[argIndex], args[argIndex + 1], Bytecode.LREM);
+					break;
+
+				case SHL_DAT:
+					emitShift(args[argIndex], args[argIndex + 1], Bytecode.LSHL);
+					break;
+
+				case SHR_DAT:
+					emitShift(args[argIndex], args[argIndex + 1], Bytecode.LUSHR);
+					break;
+
+				case SET_IND:
+					emitIndirectAddress(args[argIndex + 1], -1);
+					emitPutStart(args[argIndex]);
+					emitGetLongAtTemp();
+					emitPutEnd();
+					break;
+
+				case SET_IDX:
+					emitIndirectAddress(args[argIndex + 1], args[argIndex + 2]);
+					emitPutStart(args[argIndex]);
+					emitGetLongAtTemp();
+					emitPutEnd();
+					break;
+
+				case IND_DAT:
+					emitIndirectAddress(args[argIndex], -1);
+					emitPutAtTempStart();
+					emitGetLong(args[argIndex + 1]);
+					emitPutEnd();
+					break;
+
+				case IDX_DAT:
+					emitIndirectAddress(args[argIndex], args[argIndex + 1]);
+					emitPutAtTempStart();
+					emitGetLong(args[argIndex + 2]);
+					emitPutEnd();
+					break;
+
+				case JMP_ADR:
+					code.jump(Bytecode.GOTO, enter(args[argIndex]));
+					return;
+
+				case BZR_DAT:
+				case BNZ_DAT:
+					branchTarget = programCounter + (byte) args[argIndex + 1];
+
+					// Unverified means branch target is out of bounds
+					if (!decodedCode.isVerified[programCounter]) {
+						code.jump(Bytecode.GOTO, throwBranchTargetOutOfBounds);
+						return;
+					}
+
+					emitGetLong(args[argIndex]);
+					code.pushLong(0L);
+					code.op(Bytecode.LCMP);
+					code.jump(opCode == OpCode.BZR_DAT ? Bytecode.IFEQ : Bytecode.IFNE, enter(branchTarget));
+					code.jump(Bytecode.GOTO, enter(nextProgramCounter));
+					return;
+
+				case BGT_DAT:
+				case BLT_DAT:
+				case BGE_DAT:
+				case BLE_DAT:
+				case BEQ_DAT:
+				case BNE_DAT:
+					// Unlike BZR/BNZ, branch target isn't checked, so an invalid target is rejected by interpreter's codeByteBuffer.position()
+					branchTarget = programCounter + (byte) args[argIndex + 2];
+
+					emitGetLong(args[argIndex]);
+					emitGetLong(args[argIndex + 1]);
+					code.op(Bytecode.LCMP);
+					code.jump(comparisonBranch(opCode), enter(branchTarget));
+					code.jump(Bytecode.GOTO, enter(nextProgramCounter));
+					return;
+
+				case ERR_ADR:
+					code.op(Bytecode.ALOAD_1);
+					code.pushInt(args[argIndex]);
+					code.invoke(Bytecode.INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;");
+					code.invoke(Bytecode.INVOKEVIRTUAL, MACHINE_STATE_CLASS, "setOnErrorAddress", "(Ljava/lang/Integer;)V");
+					break;
+
+				case SET_PCS:
+					code.op(Bytecode.ALOAD_1);
+					code.pushInt(nextProgramCounter);
+					code.invoke(Bytecode.INVOKEVIRTUAL, MACHINE_STATE_CLASS, "setOnStopAddress", "(I)V");
+					break;
+
+				case JMP_SUB:
+					emitExecuteDecodedOpCode(opCode);
+					code.op(Bytecode.POP);
+					code.jump(Bytecode.GOTO, enter(args[argIndex]));
+					return;
+
+				case RET_SUB:
+					// Return address is only known at runtime
+					emitExecuteDecodedOpCode(opCode);
+					code.local(Bytecode.ISTORE, LOCAL_PC);
+					code.jump(Bytecode.GOTO, dispatch);
+					return;
+
+				default:
+					// Stack operations, etc. use OpCode's own implementation
+					emitExecuteDecodedOpCode(opCode);
+					code.op(Bytecode.POP);
+					break;
+			}
+
+			// Continue with next OpCode in same basic block, which immediately follows if compiled
+			if (nextProgramCounter >= entryPoints.length || opCodeLabels[nextProgramCounter] == null)
+				code.jump(Bytecode.GOTO, exitTo(nextProgramCounter));
+		}
+
+		/** Returns label for starting a new basic block at <tt>programCounter</tt>, whether compiled or not */
+		private Label enter(int programCounter) {
+			if (programCounter < 0 || programCounter >= entryPoints.length || !entryPoints[programCounter])
+				return exitTo(programCounter);
+
+			return entryStubs.computeIfAbsent(programCounter, pc -> new Label());
+		}
+
+		private Label exitTo(int programCounter) {
+			return exitStubs.computeIfAbsent(programCounter, pc -> new Label());
+		}
+
+		private static int comparisonBranch(OpCode opCode) {
+			switch (opCode) {
+				case BGT_DAT:
+					return Bytecode.IFGT;
+				case BLT_DAT:
+					return Bytecode.IFLT;
+				case BGE_DAT:
+					return Bytecode.IFGE;
+				case BLE_DAT:
+					return Bytecode.IFLE;
+				case BEQ_DAT:
+					return Bytecode.IFEQ;
+				default:
+					return Bytecode.IFNE;
+			}
+		}
+
+		private void emitSetProgramCounter(int programCounter) {
+			code.pushInt(programCounter);
+			code.local(Bytecode.ISTORE, LOCAL_PC);
+		}
+
+		/** if (!state.isBlockAffordable(pc)) goto exit */
+		private void emitBlockCheck() {
+			code.op(Bytecode.ALOAD_1);
+			code.local(Bytecode.ILOAD, LOCAL_PC);
+			code.invoke(Bytecode.INVOKEVIRTUAL, MACHINE_STATE_CLASS, "isBlockAffordable", "(I)Z");
+			code.jump(Bytecode.IFEQ, exit);
+		}
+
+		private void emitExecuteDecodedOpCode(OpCode opCode) {
+			code.op(Bytecode.ALOAD_1);
+			code.field(Bytecode.GETSTATIC, OPCODE_CLASS, opCode.name(), OPCODE_DESCRIPTOR);
+			code.invoke(Bytecode.INVOKEVIRTUAL, MACHINE_STATE_CLASS, "executeDecodedOpCode", "(" + OPCODE_DESCRIPTOR + ")I");
+		}
+
+		private void emitThrow(Label label, String errorField, String descriptor) {
+			code.mark(label);
+			code.field(Bytecode.GETSTATIC, EXECUTION_ERRORS_CLASS, errorField, descriptor);
+			code.op(Bytecode.ATHROW);
+		}
+
+		/** data[address / VALUE_SIZE] */
+		private void emitGetLong(int address) {
+			code.local(Bytecode.ALOAD, LOCAL_DATA);
+			code.pushInt(address / MachineState.VALUE_SIZE);
+			code.op(Bytecode.LALOAD);
+		}
+
+		/** data[(int) temp / VALUE_SIZE] */
+		private void emitGetLongAtTemp() {
+			emitPutAtTempStart();
+			code.op(Bytecode.LALOAD);
+		}
+
+		/** Start of data[address / VALUE_SIZE] = ... */
+		private void emitPutStart(int address) {
+			code.local(Bytecode.ALOAD, LOCAL_DATA);
+			code.pushInt(address / MachineState.VALUE_SIZE);
+		}
+
+		/** Start of data[(int) temp / VALUE_SIZE] = ... */
+		private void emitPutAtTempStart() {
+			code.local(Bytecode.ALOAD, LOCAL_DATA);
+			code.local(Bytecode.LLOAD, LOCAL_TEMP);
+			code.op(Bytecode.L2I);
+			code.pushInt(MachineState.VALUE_SIZE);
+			code.op(Bytecode.IDIV);
+		}
+
+		/** End of data[...] = value */
+		private void emitPutEnd() {
+			code.op(Bytecode.LASTORE);
+		}
+
+		/** data[address] = data[address] OP 1 */
+		private void emitUnaryOperation(int address, int constantOpcode, int operationOpcode) {
+			emitPutStart(address);
+			emitGetLong(address);
+			code.op(constantOpcode);
+			code.op(operationOpcode);
+			emitPutEnd();
+		}
+
+		/** data[address1] = data[address1] OP data[address2] */
+		private void emitBinaryOperation(int address1, int address2, int operationOpcode) {
+			emitPutStart(address1);
+			emitGetLong(address1);
+			emitGetLong(address2);
+			code.op(operationOpcode);
+			emitPutEnd();
+		}
+
+		private void emitDivision(int address1, int address2, int operationOpcode) {
+			emitGetLong(address2);
+			code.local(Bytecode.LSTORE, LOCAL_TEMP);
+
+			code.local(Bytecode.LLOAD, LOCAL_TEMP);
+			code.pushLong(0L);
+			code.op(Bytecode.LCMP);
+			code.jump(Bytecode.IFEQ, throwDivideByZero);
+
+			emitPutStart(address1);
+			emitGetLong(address1);
+			code.local(Bytecode.LLOAD, LOCAL_TEMP);
+			code.op(operationOpcode);
+			emitPutEnd();
+		}
+
+		/** data[address1] = data[address2] >= MAX_SHIFT ? 0 : data[address1] SHIFT data[address2] */
+		private void emitShift(int address1, int address2, int shiftOpcode) {
+			Label doShift = new Label();
+			Label done = new Label();
+
+			emitGetLong(address2);
+			code.local(Bytecode.LSTORE, LOCAL_TEMP);
+
+			code.local(Bytecode.LLOAD, LOCAL_TEMP);
+			code.pushLong(MAX_SHIFT);
+			code.op(Bytecode.LCMP);
+			code.jump(Bytecode.IFLT, doShift);
+
+			emitPutStart(address1);
+			code.pushLong(0L);
+			emitPutEnd();
+			code.jump(Bytecode.GOTO, done);
+
+			code.mark(doShift);
+			emitPutStart(address1);
+			emitGetLong(address1);
+			code.local(Bytecode.LLOAD, LOCAL_TEMP);
+			code.op(Bytecode.L2I);
+			code.op(shiftOpcode);
+			emitPutEnd();
+
+			code.mark(done);
+		}
+
+		/**
+		 * Calculates indirect address, <tt>data[baseAddress] * 8 + data[indexAddress] * 8</tt>, into temp local,
+		 * then checks it's in bounds, exactly as the interpreter does.
+		 *
+		 * @param baseAddress
+		 * @param indexAddress
+		 *            or -1 if not indexed
+		 */
+		private void emitIndirectAddress(int baseAddress, int indexAddress) {
+			emitGetLong(baseAddress);
+			code.pushLong(MachineState.VALUE_SIZE);
+			code.op(Bytecode.LMUL);
+
+			if (indexAddress >= 0) {
+				emitGetLong(indexAddress);
+				code.pushLong(MachineState.VALUE_SIZE);
+				code.op(Bytecode.LMUL);
+				code.op(Bytecode.LADD);
+			}
+
+			code.local(Bytecode.LSTORE, LOCAL_TEMP);
+
+			// if (address < 0 || address + VALUE_SIZE >= limit) throw ...
+			code.local(Bytecode.LLOAD, LOCAL_TEMP);
+			code.pushLong(0L);
+			code.op(Bytecode.LCMP);
+			code.jump(Bytecode.IFLT, throwDataAddressOutOfBounds);
+
+			code.local(Bytecode.LLOAD, LOCAL_TEMP);
+			code.pushLong(MachineState.VALUE_SIZE);
+			code.op(Bytecode.LADD);
+			code.pushLong(dataLength);
+			code.op(Bytecode.LCMP);
+			code.jump(Bytecode.IFGE, throwDataAddressOutOfBounds);
+		}
+	}
+
+	/** JVM class file constants */
+	private static class Bytecode {
+		static final int ACC_PUBLIC = 0x0001;
+		static final int ACC_FINAL = 0x0010;
+		static final int ACC_SUPER = 0x0020;
+
+		static final int LCONST_0 = 0x09;
+		static final int LCONST_1 = 0x0a;
+		static final int BIPUSH = 0x10;
+		static final int SIPUSH = 0x11;
+		static final int LDC = 0x12;
+		static final int LDC_W = 0x13;
+		static final int LDC2_W = 0x14;
+		static final int ILOAD = 0x15;
+		static final int LLOAD = 0x16;
+		static final int ALOAD = 0x19;
+		static final int ALOAD_0 = 0x2a;
+		static final int ALOAD_1 = 0x2b;
+		static final int LALOAD = 0x2f;
+		static final int ISTORE = 0x36;
+		static final int LSTORE = 0x37;
+		static final int ASTORE = 0x3a;
+		static final int LASTORE = 0x50;
+		static final int POP = 0x57;
+		static final int LADD = 0x61;
+		static final int LSUB = 0x65;
+		static final int LMUL = 0x69;
+		static final int IDIV = 0x6c;
+		static final int LDIV = 0x6d;
+		static final int LREM = 0x71;
+		static final int LSHL = 0x79;
+		static final int LUSHR = 0x7d;
+		static final int LAND = 0x7f;
+		static final int LOR = 0x81;
+		static final int LXOR = 0x83;
+		static final int L2I = 0x88;
+		static final int LCMP = 0x94;
+		static final int IFEQ = 0x99;
+		static final int IFNE = 0x9a;
+		static final int IFLT = 0x9b;
+		static final int IFGE = 0x9c;
+		static final int IFGT = 0x9d;
+		static final int IFLE = 0x9e;
+		static final int GOTO = 0xa7;
+		static final int LOOKUPSWITCH = 0xab;
+		static final int RETURN = 0xb1;
+		static final int GETSTATIC = 0xb2;
+		static final int GETFIELD = 0xb4;
+		static final int INVOKEVIRTUAL = 0xb6;
+		static final int INVOKESPECIAL = 0xb7;
+		static final int INVOKESTATIC = 0xb8;
+		static final int ATHROW = 0xbf;
+
+		static final int ICONST_M1 = 0x02;
+
+		private Bytecode() {
+		}
+	}
+
+	/** Class file constant pool, with duplicate entries merged */
+	private static class ConstantPool {
+		private static final int CONSTANT_UTF8 = 1;
+		private static final int CONSTANT_INTEGER = 3;
+		private static final int CONSTANT_LONG = 5;
+		private static final int CONSTANT_CLASS = 7;
+		private static final int CONSTANT_FIELDREF = 9;
+		private static final int CONSTANT_METHODREF = 10;
+		private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final Map<String, Integer> indexes = new HashMap<>();
+		private int count = 1;
+
+		public int utf8(String value) {
+			Integer index = indexes.get("U" + value);
+			if (index != null)
+				return index;
+
+			try {
+				out.writeByte(CONSTANT_UTF8);
+				out.writeUTF(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+
+			return add("U" + value, 1);
+		}
+
+		public int integer(int value) {
+			Integer index = indexes.get("I" + value);
+			if (index != null)
+				return index;
+
+			write(CONSTANT_INTEGER, value);
+			return add("I" + value, 1);
+		}
+
+		public int longValue(long value) {
+			Integer index = indexes.get("J" + value);
+			if (index != null)
+				return index;
+
+			try {
+				out.writeByte(CONSTANT_LONG);
+				out.writeLong(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+
+			// Longs take two entries
+			return add("J" + value, 2);
+		}
+
+		public int classRef(String internalName) {
+			Integer index = indexes.get("C" + internalName);
+			if (index != null)
+				return index;
+
+			int nameIndex = utf8(internalName);
+			writeShorts(CONSTANT_CLASS, nameIndex);
+			return add("C" + internalName, 1);
+		}
+
+		public int memberRef(boolean isField, String owner, String name, String descriptor) {
+			String key = (isField ? "F" : "M") + owner + "." + name + ":" + descriptor;
+			Integer index = indexes.get(key);
+			if (index != null)
+				return index;
+
+			int classIndex = classRef(owner);
+			int nameAndTypeIndex = nameAndType(name, descriptor);
+			writeShorts(isField ? CONSTANT_FIELDREF : CONSTANT_METHODREF, classIndex, nameAndTypeIndex);
+			return add(key, 1);
+		}
+
+		private int nameAndType(String name, String descriptor) {
+			String key = "N" + name + ":" + descriptor;
+			Integer index = indexes.get(key);
+			if (index != null)
+				return index;
+
+			int nameIndex = utf8(name);
+			int descriptorIndex = utf8(descriptor);
+			writeShorts(CONSTANT_NAME_AND_TYPE, nameIndex, descriptorIndex);
+			return add(key, 1);
+		}
+
+		private void write(int tag, int value) {
+			try {
+				out.writeByte(tag);
+				out.writeInt(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private void writeShorts(int tag, int... values) {
+			try {
+				out.writeByte(tag);
+				for (int value : values)
+					out.writeShort(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private int add(String key, int size) {
+			int index = count;
+			indexes.put(key, index);
+			count += size;
+			return index;
+		}
+
+		public void writeTo(DataOutputStream classOut) throws IOException {
+			if (count > 0xffff)
+				throw new IllegalStateException("Too many constants");
+
+			classOut.writeShort(count);
+			bytes.writeTo(classOut);
+		}
+	}
+
+	/** Position in generated code, possibly not yet known, with any jumps that need patching once it is */
+	private static class Label {
+		private int position = -1;
+		private final List<int[]> fixups = new ArrayList<>(); // { instruction position, offset position, offset size }
+	}
+
+	/** Growable buffer of bytecode */
+	private static class CodeBuilder {
+		private final ConstantPool constantPool;
+		private final List<Label> labels = new ArrayList<>();
+		private byte[] bytes = new byte[1024];
+		private int length = 0;
+
+		public CodeBuilder(ConstantPool constantPool) {
+			this.constantPool = constantPool;
+		}
+
+		private void u1(int value) {
+			if (length == bytes.length)
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+
+			bytes[length++] = (byte) value;
+		}
+
+		private void u2(int value) {
+			u1(value >>> 8);
+			u1(value);
+		}
+
+		private void u4(int value) {
+			u2(value >>> 16);
+			u2(value);
+		}
+
+		public void op(int opcode) {
+			u1(opcode);
+		}
+
+		public void local(int opcode, int slot) {
+			u1(opcode);
+			u1(slot);
+		}
+
+		public void pushInt(int value) {
+			if (value >= -1 && value <= 5) {
+				u1(Bytecode.ICONST_M1 + 1 + value);
+			} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				u1(Bytecode.BIPUSH);
+				u1(value);
+			} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				u1(Bytecode.SIPUSH);
+				u2(value);
+			} else {
+				int index = constantPool.integer(value);
+
+				if (index <= 0xff) {
+					u1(Bytecode.LDC);
+					u1(index);
+				} else {
+					u1(Bytecode.LDC_W);
+					u2(index);
+				}
+			}
+		}
+
+		public void pushLong(long value) {
+			if (value == 0L) {
+				u1(Bytecode.LCONST_0);
+			} else if (value == 1L) {
+				u1(Bytecode.LCONST_1);
+			} else {
+				u1(Bytecode.LDC2_W);
+				u2(constantPool.longValue(value));
+			}
+		}
+
+		public void field(int opcode, String owner, String name, String descriptor) {
+			u1(opcode);
+			u2(constantPool.memberRef(true, owner, name, descriptor));
+		}
+
+		public void invoke(int opcode, String owner, String name, String descriptor) {
+			u1(opcode);
+			u2(constantPool.memberRef(false, owner, name, descriptor));
+		}
+
+		public void mark(Label label) {
+			label.position = length;
+			labels.add(label);
+		}
+
+		public void jump(int opcode, Label label) {
+			int instructionPosition = length;
+			u1(opcode);
+			addFixup(label, instructionPosition, 2);
+		}
+
+		public void lookupSwitch(Label defaultLabel, List<Integer> keys, List<Label> targets) {
+			int instructionPosition = length;
+			u1(Bytecode.LOOKUPSWITCH);
+
+			// Pad so default offset is 4-byte aligned
+			while (length % 4 != 0)
+				u1(0);
+
+			addFixup(defaultLabel, instructionPosition, 4);
+			u4(keys.size());
+
+			for (int i = 0; i < keys.size(); ++i) {
+				u4(keys.get(i));
+				addFixup(targets.get(i), instructionPosition, 4);
+			}
+		}
+
+		private void addFixup(Label label, int instructionPosition, int offsetSize) {
+			label.fixups.add(new int[] { instructionPosition, length, offsetSize });
+
+			for (int i = 0; i < offsetSize; ++i)
+				u1(0);
+		}
+
+		public int size() {
+			return length;
+		}
+
+		public byte[] toBytes() {
+			for (Label label : labels)
+				for (int[] fixup : label.fixups) {
+					int offset = label.position - fixup[0];
+
+					if (fixup[2] == 2) {
+						if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+							throw new IllegalStateException("Jump too far");
+
+						bytes[fixup[1]] = (byte) (offset >>> 8);
+						bytes[fixup[1] + 1] = (byte) offset;
+					} else {
+						bytes[fixup[1]] = (byte) (offset >>> 24);
+						bytes[fixup[1] + 1] = (byte) (offset >>> 16);
+						bytes[fixup[1] + 2] = (byte) (offset >>> 8);
+						bytes[fixup[1] + 3] = (byte) offset;
+					}
+				}
+
+			return Arrays.copyOf(bytes, length);
+		}
+	}
+
+}
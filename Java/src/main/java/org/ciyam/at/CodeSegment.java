@@ -0,0 +1,95 @@
+package org.ciyam.at;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read-only AT code segment, shared by all machine states running identical code.
+ * <p>
+ * Many ATs are deployed from the same template, e.g. ACCT trade contracts, so code segments are kept in a {@link CodeSegmentRegistry} keyed by content.
+ * Machine states created, or restored, using a <tt>CodeSegment</tt> share its code bytes, each with their own position only,
+ * along with its pre-decoded form, per-round block step totals and, if using <tt>ExecutionEngine.COMPILED</tt>, compiled code.
+ * <p>
+ * Code bytes are never modified by execution. Callers must not modify the array returned by <tt>MachineState.getCodeBytes()</tt>
+ * as it is shared with all other machine states using the same code segment.
+ * <p>
+ * Code segments are safe to share between threads.
+ *
+ * @see MachineState#fromBytes(API, LoggerInterface, ByteBuffer, CodeSegment)
+ */
+public final class CodeSegment {
+
+	private final byte[] codeBytes;
+	private final int contentHashCode;
+
+	/** Decoded code, keyed by data segment length, as decoding bounds-checks data addresses */
+	private final Map<Integer, DecodedCode> decodedCodes = new ConcurrentHashMap<>();
+
+	/** Compiled code, or empty if code can't be compiled, keyed by data segment length */
+	private final Map<Integer, Optional<CompiledCode>> compiledCodes = new ConcurrentHashMap<>();
+
+	/** For use by <tt>CodeSegmentRegistry</tt>, which copies code bytes as necessary */
+	/* package */ CodeSegment(byte[] codeBytes) {
+		this.codeBytes = codeBytes;
+		this.contentHashCode = Arrays.hashCode(codeBytes);
+	}
+
+	/**
+	 * Returns shared code segment with same content as <tt>codeBytes</tt>, from default registry, registering a copy of <tt>codeBytes</tt> if new.
+	 * <p>
+	 * <tt>codeBytes</tt> must be the whole code segment, i.e. number of code pages multiplied by code page size.
+	 *
+	 * @see CodeSegmentRegistry#getCodeSegment(byte[])
+	 */
+	public static CodeSegment of(byte[] codeBytes) {
+		return CodeSegmentRegistry.getDefault().getCodeSegment(codeBytes);
+	}
+
+	/** Returns number of code bytes */
+	public int length() {
+		return this.codeBytes.length;
+	}
+
+	/** Returns shared code bytes, which must not be modified */
+	/* package */ byte[] getCodeBytes() {
+		return this.codeBytes;
+	}
+
+	/** Returns new view of code bytes, with its own position */
+	/* package */ ByteBuffer newCodeByteBuffer() {
+		return ByteBuffer.wrap(this.codeBytes);
+	}
+
+	/** Returns decoded code, decoding on first use with this data segment length */
+	/* package */ DecodedCode getDecodedCode(int dataLength) {
+		return this.decodedCodes.computeIfAbsent(dataLength, length -> new DecodedCode(this.newCodeByteBuffer(), length));
+	}
+
+	/** Returns compiled code, or null if code can't be compiled, compiling on first use with this data segment length */
+	/* package */ CompiledCode getCompiledCode(int dataLength) {
+		return this.compiledCodes
+				.computeIfAbsent(dataLength, length -> Optional.ofNullable(CodeCompiler.compile(this.getDecodedCode(length), length)))
+				.orElse(null);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other == this)
+			return true;
+
+		if (!(other instanceof CodeSegment))
+			return false;
+
+		CodeSegment otherCodeSegment = (CodeSegment) other;
+		return this.contentHashCode == otherCodeSegment.contentHashCode && Arrays.equals(this.codeBytes, otherCodeSegment.codeBytes);
+	}
+
+	@Override
+	public int hashCode() {
+		return this.contentHashCode;
+	}
+
+}
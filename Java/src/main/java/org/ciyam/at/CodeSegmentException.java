@@ -18,4 +18,8 @@ public class CodeSegmentException extends ExecutionException {
 		super(message, cause);
 	}
 
+	protected CodeSegmentException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+		super(message, cause, enableSuppression, writableStackTrace);
+	}
+
 }
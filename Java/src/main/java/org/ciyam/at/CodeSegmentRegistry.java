@@ -0,0 +1,142 @@
+package org.ciyam.at;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of shared code segments, keyed by content, so machine states with identical code share one code segment.
+ * <p>
+ * Each code segment holds its decoded form, roughly 40 bytes per code byte, for each data segment length it has been used with,
+ * and possibly compiled code. So registries are bounded by total code bytes, evicting approximately least recently used code segments beyond that.
+ * Evicted code segments stay usable by machine states already using them, but are no longer returned by lookups,
+ * so can be garbage collected once those machine states are gone.
+ * <p>
+ * {@link CodeSegment#of(byte[])} uses the default registry. Platforms can create their own registries instead,
+ * e.g. sized for their own AT templates, and discard them, or {@link #clear()} them, when no longer needed.
+ * <p>
+ * Safe to share between threads. Looking up already registered code is lock-free, e.g. for many ATs restored in parallel,
+ * but still hashes and compares the whole code, so callers that already know an AT's code segment should pass it instead.
+ */
+public class CodeSegmentRegistry {
+
+	/** Default limit on total code bytes in a registry, enough for hundreds of typical ATs' code */
+	public static final long DEFAULT_MAX_CODE_BYTES = 1024 * 1024;
+
+	private static final CodeSegmentRegistry DEFAULT_REGISTRY = new CodeSegmentRegistry(DEFAULT_MAX_CODE_BYTES);
+
+	private final long maxCodeBytes;
+
+	/** Registered code segment, with when it was last used */
+	private static class Entry {
+		private final CodeSegment codeSegment;
+		/**
+		 * When registered, or last looked up, in terms of <tt>registrationCount</tt>. Lookups count as after latest registration.
+		 * Only accurate to within one registration, but avoids lookups contending on a shared clock.
+		 */
+		private volatile long lastUsed;
+
+		public Entry(CodeSegment codeSegment, long lastUsed) {
+			this.codeSegment = codeSegment;
+			this.lastUsed = lastUsed;
+		}
+	}
+
+	/** Registered code segments, keyed by code segment, i.e. by code bytes content */
+	private final Map<CodeSegment, Entry> codeSegments = new ConcurrentHashMap<>();
+
+	/** Number of registrations so far, used as clock for least recently used eviction */
+	private final AtomicLong registrationCount = new AtomicLong();
+
+	/** Total length of registered code segments, only changed while synchronized */
+	private volatile long totalCodeBytes;
+
+	/**
+	 * @param maxCodeBytes
+	 *            limit on total length of registered code segments
+	 */
+	public CodeSegmentRegistry(long maxCodeBytes) {
+		if (maxCodeBytes < 0)
+			throw new IllegalArgumentException("maxCodeBytes must be >= 0");
+
+		this.maxCodeBytes = maxCodeBytes;
+	}
+
+	/** Returns default registry, as used by {@link CodeSegment#of(byte[])} */
+	public static CodeSegmentRegistry getDefault() {
+		return DEFAULT_REGISTRY;
+	}
+
+	/**
+	 * Returns registered code segment with same content as <tt>codeBytes</tt>, registering a copy of <tt>codeBytes</tt> if new.
+	 * <p>
+	 * <tt>codeBytes</tt> must be the whole code segment, i.e. number of code pages multiplied by code page size.
+	 * Code bytes longer than this registry's limit are never registered, so returned code segment isn't shared.
+	 */
+	public CodeSegment getCodeSegment(byte[] codeBytes) {
+		if (codeBytes.length == 0)
+			throw new IllegalArgumentException("Empty code bytes");
+
+		// Caller's array is only used for lookup
+		Entry entry = this.codeSegments.get(new CodeSegment(codeBytes));
+		if (entry != null) {
+			// Avoid writing to shared entry if nothing would change
+			long lastUsed = this.registrationCount.get() + 1;
+			if (entry.lastUsed != lastUsed)
+				entry.lastUsed = lastUsed;
+
+			return entry.codeSegment;
+		}
+
+		CodeSegment codeSegment = new CodeSegment(codeBytes.clone());
+
+		if (codeSegment.length() > this.maxCodeBytes)
+			return codeSegment;
+
+		// Only registering, which is rare, needs to lock
+		synchronized (this) {
+			Entry newEntry = new Entry(codeSegment, this.registrationCount.incrementAndGet());
+
+			Entry existingEntry = this.codeSegments.putIfAbsent(codeSegment, newEntry);
+			if (existingEntry != null)
+				return existingEntry.codeSegment;
+
+			// Evict least recently used, other than the one just added, which is within limit by itself, until there's room
+			while (this.totalCodeBytes + codeSegment.length() > this.maxCodeBytes)
+				this.evictLeastRecentlyUsed(newEntry);
+
+			this.totalCodeBytes += codeSegment.length();
+		}
+
+		return codeSegment;
+	}
+
+	/** Removes least recently used code segment, other than <tt>newEntry</tt>'s */
+	private void evictLeastRecentlyUsed(Entry newEntry) {
+		Entry leastRecentlyUsed = null;
+
+		for (Entry entry : this.codeSegments.values())
+			if (entry != newEntry && (leastRecentlyUsed == null || entry.lastUsed < leastRecentlyUsed.lastUsed))
+				leastRecentlyUsed = entry;
+
+		this.codeSegments.remove(leastRecentlyUsed.codeSegment);
+		this.totalCodeBytes -= leastRecentlyUsed.codeSegment.length();
+	}
+
+	/** Returns number of registered code segments */
+	public int size() {
+		return this.codeSegments.size();
+	}
+
+	/** Returns total length of registered code segments */
+	public long getTotalCodeBytes() {
+		return this.totalCodeBytes;
+	}
+
+	/** Unregisters all code segments */
+	public synchronized void clear() {
+		this.codeSegments.clear();
+		this.totalCodeBytes = 0;
+	}
+
+}
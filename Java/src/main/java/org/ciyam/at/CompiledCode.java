@@ -0,0 +1,36 @@
+package org.ciyam.at;
+
+/**
+ * AT code segment compiled to JVM bytecode by <tt>CodeCompiler</tt>.
+ * <p>
+ * Subclasses are generated at runtime, one per distinct code segment (and data segment size).
+ */
+/* package */ abstract class CompiledCode {
+
+	/** Program counters where compiled code can start execution */
+	private final boolean[] entryPoints;
+
+	protected CompiledCode(boolean[] entryPoints) {
+		this.entryPoints = entryPoints;
+	}
+
+	/** Returns whether compiled code can start execution at program counter */
+	public boolean isEntryPoint(int programCounter) {
+		return programCounter >= 0 && programCounter < this.entryPoints.length && this.entryPoints[programCounter];
+	}
+
+	/**
+	 * Executes compiled code, starting from <tt>state</tt>'s current program counter.
+	 * <p>
+	 * Returns, with program counter and codeByteBuffer position updated, on reaching an OpCode that isn't compiled,
+	 * or a basic block that might exceed step limit or balance. Caller should then execute the OpCode at that program counter
+	 * using the interpreter, which will enforce sleep, freeze, etc. as usual.
+	 * <p>
+	 * Throws <tt>ExecutionException</tt> on error, with program counter set to erroneous OpCode, as with interpreter.
+	 *
+	 * @param state
+	 * @throws ExecutionException
+	 */
+	public abstract void execute(MachineState state) throws ExecutionException;
+
+}
@@ -0,0 +1,216 @@
+package org.ciyam.at;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+/**
+ * Pre-decoded form of an AT's code segment, indexed by program counter.
+ * <p>
+ * Code bytes are decoded once, by a linear sweep from address 0, into arrays of OpCodes and their already-fetched, already-bounds-checked args.
+ * This saves <tt>MachineState.execute()</tt> from looking up each OpCode and re-reading/re-checking each arg on every step.
+ * <p>
+ * Args are fetched using the same <tt>OpCodeParam.fetch</tt> calls as the byte-level path so decoded values are identical.
+ * <p>
+ * Program counters that do not start a cleanly decoded instruction are left undecoded, e.g.:
+ * <ul>
+ * <li>addresses in the middle of another instruction, such as jumping into immediate values</li>
+ * <li>unrecognised opcodes, like zero-padding at the end of code</li>
+ * <li>instructions with out-of-bounds or truncated args</li>
+ * </ul>
+ * For these, <tt>MachineState</tt> falls back to the byte-level path which produces exactly the same result, or exception, as before.
+ * <p>
+ * Decoding depends on the data segment size, as data addresses are bounds-checked against it.
+ * <p>
+ * Decoding also verifies each OpCode's direct operands: data addresses and jump targets are already checked by <tt>OpCodeParam.fetch</tt>,
+ * which leaves branch offsets. OpCodes whose operands are all statically in range are marked as verified,
+ * so can use an unchecked fast path, e.g. <tt>SwitchEngine</tt>. Indirect data accesses always need runtime checks.
+ */
+public class DecodedCode {
+
+	/** OpCodes that can change control flow, AT status or balance, so end a basic block */
+	private static final EnumSet<OpCode> BLOCK_END_OPCODES = EnumSet.of(OpCode.JMP_SUB, OpCode.RET_SUB, OpCode.JMP_ADR,
+			OpCode.BZR_DAT, OpCode.BNZ_DAT, OpCode.BGT_DAT, OpCode.BLT_DAT, OpCode.BGE_DAT, OpCode.BLE_DAT, OpCode.BEQ_DAT, OpCode.BNE_DAT,
+			OpCode.SLP_DAT, OpCode.FIZ_DAT, OpCode.STZ_DAT, OpCode.FIN_IMD, OpCode.STP_IMD, OpCode.SLP_IMD,
+			OpCode.EXT_FUN, OpCode.EXT_FUN_DAT, OpCode.EXT_FUN_DAT_2, OpCode.EXT_FUN_RET, OpCode.EXT_FUN_RET_DAT, OpCode.EXT_FUN_RET_DAT_2);
+
+	/** Decoded OpCode for each program counter, or null if undecoded */
+	/* package */ final OpCode[] opCodes;
+
+	/** Program counter immediately after each decoded OpCode and its args */
+	/* package */ final int[] nextProgramCounters;
+
+	/** int-sized args (addresses, offsets, function codes), <tt>OpCode.MAX_ARGS</tt> per program counter, as passed to <tt>OpCode.executeWithParams</tt> */
+	/* package */ final int[] args;
+
+	/** Immediate long value (<tt>OpCodeParam.VALUE</tt>), if any, for each program counter */
+	/* package */ final long[] values;
+
+	/** Whether each decoded OpCode's direct operands, including any branch target, are known to be in range, so need no runtime checks */
+	/* package */ final boolean[] isVerified;
+
+	/** Block steps for most recently used step costs, shared by all machine states using this decoded code */
+	private volatile BlockSteps blockSteps;
+
+	/** Step costs and resulting block steps - neither are modified once published */
+	private static class BlockSteps {
+		private final int[] opCodeSteps;
+		private final long[] blockSteps;
+
+		public BlockSteps(int[] opCodeSteps, long[] blockSteps) {
+			this.opCodeSteps = opCodeSteps;
+			this.blockSteps = blockSteps;
+		}
+	}
+
+	public DecodedCode(ByteBuffer codeByteBuffer, int dataLength) {
+		// Use our own view so we don't disturb caller's position
+		ByteBuffer code = codeByteBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int codeLength = code.limit();
+
+		this.opCodes = new OpCode[codeLength];
+		this.nextProgramCounters = new int[codeLength];
+		this.args = new int[codeLength * OpCode.MAX_ARGS];
+		this.values = new long[codeLength];
+		this.isVerified = new boolean[codeLength];
+
+		int programCounter = 0;
+		while (programCounter < codeLength) {
+			OpCode opCode = OpCode.valueOf(code.get(programCounter));
+
+			if (opCode == null || !decode(opCode, code, dataLength, programCounter)) {
+				// Skip a byte and try again - this program counter will use the byte-level path
+				++programCounter;
+				continue;
+			}
+
+			programCounter = this.nextProgramCounters[programCounter];
+		}
+	}
+
+	private boolean decode(OpCode opCode, ByteBuffer code, int dataLength, int programCounter) {
+		code.position(programCounter + MachineState.OPCODE_SIZE);
+
+		int argIndex = programCounter * OpCode.MAX_ARGS;
+
+		try {
+			for (OpCodeParam param : opCode.params) {
+				long arg = param.fetch(code, dataLength);
+
+				if (param == OpCodeParam.VALUE)
+					this.values[programCounter] = arg;
+				else
+					this.args[argIndex++] = (int) arg;
+			}
+		} catch (ExecutionException | BufferUnderflowException e) {
+			// Leave undecoded so byte-level path throws the same exception at runtime
+			return false;
+		}
+
+		this.opCodes[programCounter] = opCode;
+		this.nextProgramCounters[programCounter] = code.position();
+		this.isVerified[programCounter] = verify(opCode, programCounter, code.limit());
+		return true;
+	}
+
+	/** Returns whether decoded OpCode's branch target, if any, is within code */
+	private boolean verify(OpCode opCode, int programCounter, int codeLength) {
+		int argIndex = programCounter * OpCode.MAX_ARGS;
+		int branchTarget;
+
+		switch (opCode) {
+			case BZR_DAT:
+			case BNZ_DAT:
+				branchTarget = programCounter + (byte) this.args[argIndex + 1];
+				break;
+
+			case BGT_DAT:
+			case BLT_DAT:
+			case BGE_DAT:
+			case BLE_DAT:
+			case BEQ_DAT:
+			case BNE_DAT:
+				branchTarget = programCounter + (byte) this.args[argIndex + 2];
+				break;
+
+			default:
+				// Any data addresses or code addresses were bounds-checked while decoding
+				return true;
+		}
+
+		return branchTarget >= 0 && branchTarget < codeLength;
+	}
+
+	/** Returns whether OpCode ends a basic block, i.e. following OpCode might not be next in sequence or AT might stop */
+	/* package */ static boolean isBlockEnd(OpCode opCode) {
+		return BLOCK_END_OPCODES.contains(opCode);
+	}
+
+	/**
+	 * Fills <tt>blockSteps</tt> with total steps from each decoded program counter up to the end of its basic block.
+	 * <p>
+	 * A basic block runs through consecutive decoded OpCodes, ending with any block-end OpCode,
+	 * or before any undecoded program counter.
+	 * <p>
+	 * Entries are -1 for undecoded program counters, or where a negative step cost makes a block total meaningless.
+	 *
+	 * @param opCodeSteps
+	 *            step cost for each OpCode, indexed by unsigned opcode byte
+	 * @param blockSteps
+	 *            output, at least as long as code
+	 */
+	/* package */ void calculateBlockSteps(int[] opCodeSteps, long[] blockSteps) {
+		// Work backwards as each block total includes the following OpCode's total
+		for (int programCounter = this.opCodes.length - 1; programCounter >= 0; --programCounter) {
+			OpCode opCode = this.opCodes[programCounter];
+
+			if (opCode == null) {
+				blockSteps[programCounter] = -1;
+				continue;
+			}
+
+			long steps = opCodeSteps[opCode.value & 0xff];
+
+			if (steps >= 0 && !isBlockEnd(opCode)) {
+				int nextProgramCounter = this.nextProgramCounters[programCounter];
+
+				if (nextProgramCounter < this.opCodes.length && this.opCodes[nextProgramCounter] != null)
+					steps = blockSteps[nextProgramCounter] < 0 ? -1 : steps + blockSteps[nextProgramCounter];
+			}
+
+			blockSteps[programCounter] = steps < 0 ? -1 : steps;
+		}
+	}
+
+	/**
+	 * Returns total steps from each decoded program counter up to the end of its basic block, as per {@link #calculateBlockSteps(int[], long[])}.
+	 * <p>
+	 * Step costs rarely change, so block steps are only recalculated when they do.
+	 * Returned array can be shared by many machine states, possibly on other threads, so must not be modified.
+	 *
+	 * @param opCodeSteps
+	 *            step cost for each OpCode, indexed by unsigned opcode byte
+	 */
+	/* package */ long[] getBlockSteps(int[] opCodeSteps) {
+		BlockSteps cachedBlockSteps = this.blockSteps;
+		if (cachedBlockSteps != null && Arrays.equals(cachedBlockSteps.opCodeSteps, opCodeSteps))
+			return cachedBlockSteps.blockSteps;
+
+		long[] blockSteps = new long[this.opCodes.length];
+		this.calculateBlockSteps(opCodeSteps, blockSteps);
+
+		this.blockSteps = new BlockSteps(opCodeSteps.clone(), blockSteps);
+		return blockSteps;
+	}
+
+	/** Returns decoded OpCode at program counter, or null if program counter needs byte-level path */
+	public OpCode getOpCode(int programCounter) {
+		if (programCounter < 0 || programCounter >= this.opCodes.length)
+			return null;
+
+		return this.opCodes[programCounter];
+	}
+
+}
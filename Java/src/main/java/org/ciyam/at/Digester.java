@@ -0,0 +1,405 @@
+package org.ciyam.at;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.Arrays;
+
+/**
+ * Built-in MD5, RIPEMD160 and SHA-256, specialised for hashing 2, 3 or 4 long values, as used by <tt>MD5_A_TO_B</tt>, <tt>CHECK_SHA256_A_WITH_B</tt>, etc.
+ * <p>
+ * Messages (16, 24 or 32 bytes) always fit, with padding, into a single 64-byte block.
+ * Message words are taken directly from long values and digests are returned as little-endian longs, as stored in B register.
+ * This avoids depending on a JCA provider (e.g. BouncyCastle for RIPEMD160), buffer allocation and byte-level copying.
+ * <p>
+ * Hash functions use a per-thread <tt>Digester</tt>. HotSpot has intrinsics for the JDK's own MD5 and SHA-256,
+ * which are faster than any pure-Java implementation, so those are used when available, with built-in versions as fallback.
+ * RIPEMD160 is always built-in.
+ * <p>
+ * Instances have reusable working space so are not thread-safe. Returned digest arrays are only valid until next call on same instance.
+ */
+public final class Digester {
+
+	private static final ThreadLocal<Digester> digesters = ThreadLocal.withInitial(() -> new Digester(true));
+
+	/** Provider of JDK's own, intrinsified, message digests */
+	private static final String JDK_PROVIDER = "SUN";
+
+	// MD5 (RFC 1321)
+
+	private static final int[] MD5_K = {
+			0xd76aa478, 0xe8c7b756, 0x242070db, 0xc1bdceee, 0xf57c0faf, 0x4787c62a, 0xa8304613, 0xfd469501,
+			0x698098d8, 0x8b44f7af, 0xffff5bb1, 0x895cd7be, 0x6b901122, 0xfd987193, 0xa679438e, 0x49b40821,
+			0xf61e2562, 0xc040b340, 0x265e5a51, 0xe9b6c7aa, 0xd62f105d, 0x02441453, 0xd8a1e681, 0xe7d3fbc8,
+			0x21e1cde6, 0xc33707d6, 0xf4d50d87, 0x455a14ed, 0xa9e3e905, 0xfcefa3f8, 0x676f02d9, 0x8d2a4c8a,
+			0xfffa3942, 0x8771f681, 0x6d9d6122, 0xfde5380c, 0xa4beea44, 0x4bdecfa9, 0xf6bb4b60, 0xbebfbc70,
+			0x289b7ec6, 0xeaa127fa, 0xd4ef3085, 0x04881d05, 0xd9d4d039, 0xe6db99e5, 0x1fa27cf8, 0xc4ac5665,
+			0xf4292244, 0x432aff97, 0xab9423a7, 0xfc93a039, 0x655b59c3, 0x8f0ccc92, 0xffeff47d, 0x85845dd1,
+			0x6fa87e4f, 0xfe2ce6e0, 0xa3014314, 0x4e0811a1, 0xf7537e82, 0xbd3af235, 0x2ad7d2bb, 0xeb86d391
+	};
+
+	private static final int[] MD5_S = {
+			7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22,
+			5, 9, 14, 20, 5, 9, 14, 20, 5, 9, 14, 20, 5, 9, 14, 20,
+			4, 11, 16, 23, 4, 11, 16, 23, 4, 11, 16, 23, 4, 11, 16, 23,
+			6, 10, 15, 21, 6, 10, 15, 21, 6, 10, 15, 21, 6, 10, 15, 21
+	};
+
+	// RIPEMD160
+
+	private static final int[] RIPEMD160_R = {
+			0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15,
+			7, 4, 13, 1, 10, 6, 15, 3, 12, 0, 9, 5, 2, 14, 11, 8,
+			3, 10, 14, 4, 9, 15, 8, 1, 2, 7, 0, 6, 13, 11, 5, 12,
+			1, 9, 11, 10, 0, 8, 12, 4, 13, 3, 7, 15, 14, 5, 6, 2,
+			4, 0, 5, 9, 7, 12, 2, 10, 14, 1, 3, 8, 11, 6, 15, 13
+	};
+
+	private static final int[] RIPEMD160_R_PRIME = {
+			5, 14, 7, 0, 9, 2, 11, 4, 13, 6, 15, 8, 1, 10, 3, 12,
+			6, 11, 3, 7, 0, 13, 5, 10, 14, 15, 8, 12, 4, 9, 1, 2,
+			15, 5, 1, 3, 7, 14, 6, 9, 11, 8, 12, 2, 10, 0, 4, 13,
+			8, 6, 4, 1, 3, 11, 15, 0, 5, 12, 2, 13, 9, 7, 10, 14,
+			12, 15, 10, 4, 1, 5, 8, 7, 6, 2, 13, 14, 0, 3, 9, 11
+	};
+
+	private static final int[] RIPEMD160_S = {
+			11, 14, 15, 12, 5, 8, 7, 9, 11, 13, 14, 15, 6, 7, 9, 8,
+			7, 6, 8, 13, 11, 9, 7, 15, 7, 12, 15, 9, 11, 7, 13, 12,
+			11, 13, 6, 7, 14, 9, 13, 15, 14, 8, 13, 6, 5, 12, 7, 5,
+			11, 12, 14, 15, 14, 15, 9, 8, 9, 14, 5, 6, 8, 6, 5, 12,
+			9, 15, 5, 11, 6, 8, 13, 12, 5, 12, 13, 14, 11, 8, 5, 6
+	};
+
+	private static final int[] RIPEMD160_S_PRIME = {
+			8, 9, 9, 11, 13, 15, 15, 5, 7, 7, 8, 11, 14, 14, 12, 6,
+			9, 13, 15, 7, 12, 8, 9, 11, 7, 7, 12, 7, 6, 15, 13, 11,
+			9, 7, 15, 11, 8, 6, 6, 14, 12, 13, 5, 14, 13, 13, 7, 5,
+			15, 5, 8, 11, 14, 14, 6, 14, 6, 9, 12, 9, 12, 5, 15, 8,
+			8, 5, 12, 9, 12, 5, 14, 6, 8, 13, 6, 5, 15, 13, 11, 11
+	};
+
+	private static final int[] RIPEMD160_K = { 0x00000000, 0x5a827999, 0x6ed9eba1, 0x8f1bbcdc, 0xa953fd4e };
+	private static final int[] RIPEMD160_K_PRIME = { 0x50a28be6, 0x5c4dd124, 0x6d703ef3, 0x7a6d76e9, 0x00000000 };
+
+	// SHA-256 (FIPS 180-4)
+
+	private static final int[] SHA256_K = {
+			0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+			0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+			0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+			0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+			0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+			0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+			0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+			0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+	};
+
+	/** Message block as 32-bit words, extended to 64 words for SHA-256's message schedule */
+	private final int[] words = new int[64];
+
+	/** Digest as little-endian longs, i.e. as stored in B register, with unused trailing bytes zeroed */
+	private final long[] digest = new long[4];
+
+	/** JDK's MD5 and SHA-256, or null if not available, with reusable message and digest buffers */
+	private final MessageDigest jdkMd5;
+	private final MessageDigest jdkSha256;
+	private final ByteBuffer jdkMessage = ByteBuffer.allocate(4 * MachineState.VALUE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private final ByteBuffer jdkDigest = ByteBuffer.allocate(4 * MachineState.VALUE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+	/** Creates digester using only built-in implementations */
+	public Digester() {
+		this(false);
+	}
+
+	private Digester(boolean useJdkDigests) {
+		this.jdkMd5 = useJdkDigests ? getJdkMessageDigest("MD5") : null;
+		this.jdkSha256 = useJdkDigests ? getJdkMessageDigest("SHA-256") : null;
+	}
+
+	private static MessageDigest getJdkMessageDigest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm, JDK_PROVIDER);
+		} catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+			// Fall back to built-in
+			return null;
+		}
+	}
+
+	// Hash functions' A register to B register digests, using this thread's digester
+
+	/** Returns MD5 of A1 and A2, as B1 and B2, with B3 and B4 zero. Returned array is only valid until next call on this thread. */
+	/* package */ static long[] md5A(MachineState state) {
+		Digester digester = digesters.get();
+
+		if (digester.jdkMd5 != null)
+			return digester.jdkDigest(digester.jdkMd5, 2, state);
+
+		return digester.md5(state.a1, state.a2);
+	}
+
+	/** Returns RIPEMD160 of A1 to A3, as B1, B2 and lower 32 bits of B3, with B4 zero. Returned array is only valid until next call on this thread. */
+	/* package */ static long[] ripemd160A(MachineState state) {
+		return digesters.get().ripemd160(state.a1, state.a2, state.a3);
+	}
+
+	/** Returns SHA-256 of A1 to A4, as B1 to B4. Returned array is only valid until next call on this thread. */
+	/* package */ static long[] sha256A(MachineState state) {
+		Digester digester = digesters.get();
+
+		if (digester.jdkSha256 != null)
+			return digester.jdkDigest(digester.jdkSha256, 4, state);
+
+		return digester.sha256(state.a1, state.a2, state.a3, state.a4);
+	}
+
+	private long[] jdkDigest(MessageDigest messageDigest, int messageValueCount, MachineState state) {
+		this.jdkMessage.putLong(0 * MachineState.VALUE_SIZE, state.a1);
+		this.jdkMessage.putLong(1 * MachineState.VALUE_SIZE, state.a2);
+		this.jdkMessage.putLong(2 * MachineState.VALUE_SIZE, state.a3);
+		this.jdkMessage.putLong(3 * MachineState.VALUE_SIZE, state.a4);
+
+		messageDigest.update(this.jdkMessage.array(), 0, messageValueCount * MachineState.VALUE_SIZE);
+
+		int digestLength = messageDigest.getDigestLength();
+		try {
+			messageDigest.digest(this.jdkDigest.array(), 0, digestLength);
+		} catch (DigestException e) {
+			// Can't happen as buffer is big enough
+			throw new IllegalStateException(e);
+		}
+
+		// Buffers are shared by all digests on this thread, so explicitly zero any trailing values beyond this digest,
+		// e.g. MD5 after SHA-256
+		int digestValueCount = digestLength / MachineState.VALUE_SIZE;
+		for (int i = 0; i < digestValueCount; ++i)
+			this.digest[i] = this.jdkDigest.getLong(i * MachineState.VALUE_SIZE);
+
+		Arrays.fill(this.digest, digestValueCount, this.digest.length, 0L);
+
+		return this.digest;
+	}
+
+	// Built-in implementations
+
+	/**
+	 * Returns MD5 of <tt>value1</tt> and <tt>value2</tt>, as little-endian longs, with trailing two longs zero.
+	 * <p>
+	 * Returned array is reused, so only valid until next call.
+	 */
+	public long[] md5(long value1, long value2) {
+		int[] x = this.words;
+
+		// Little-endian message words, then padding and message bit-length
+		setLittleEndianWords(value1, value2, 0L, 0L);
+		x[4] = 0x80;
+		x[14] = 2 * MachineState.VALUE_SIZE * 8;
+
+		int a = 0x67452301;
+		int b = 0xefcdab89;
+		int c = 0x98badcfe;
+		int d = 0x10325476;
+		int f;
+
+		// One loop per round, so round function and message word index don't need selecting each step
+		for (int i = 0; i < 16; ++i) {
+			f = a + ((b & c) | (~b & d)) + MD5_K[i] + x[i];
+			a = d;
+			d = c;
+			c = b;
+			b += Integer.rotateLeft(f, MD5_S[i]);
+		}
+
+		for (int i = 16; i < 32; ++i) {
+			f = a + ((d & b) | (~d & c)) + MD5_K[i] + x[(5 * i + 1) & 0x0f];
+			a = d;
+			d = c;
+			c = b;
+			b += Integer.rotateLeft(f, MD5_S[i]);
+		}
+
+		for (int i = 32; i < 48; ++i) {
+			f = a + (b ^ c ^ d) + MD5_K[i] + x[(3 * i + 5) & 0x0f];
+			a = d;
+			d = c;
+			c = b;
+			b += Integer.rotateLeft(f, MD5_S[i]);
+		}
+
+		for (int i = 48; i < 64; ++i) {
+			f = a + (c ^ (b | ~d)) + MD5_K[i] + x[(7 * i) & 0x0f];
+			a = d;
+			d = c;
+			c = b;
+			b += Integer.rotateLeft(f, MD5_S[i]);
+		}
+
+		this.digest[0] = toLong(0x67452301 + a, 0xefcdab89 + b);
+		this.digest[1] = toLong(0x98badcfe + c, 0x10325476 + d);
+		this.digest[2] = 0L;
+		this.digest[3] = 0L;
+
+		return this.digest;
+	}
+
+	/**
+	 * Returns RIPEMD160 of <tt>value1</tt> to <tt>value3</tt>, as little-endian longs, with top half of third long, and fourth long, zero.
+	 * <p>
+	 * Returned array is reused, so only valid until next call.
+	 */
+	public long[] ripemd160(long value1, long value2, long value3) {
+		int[] x = this.words;
+
+		// Little-endian message words, then padding and message bit-length
+		setLittleEndianWords(value1, value2, value3, 0L);
+		x[6] = 0x80;
+		x[14] = 3 * MachineState.VALUE_SIZE * 8;
+
+		final int h0 = 0x67452301;
+		final int h1 = 0xefcdab89;
+		final int h2 = 0x98badcfe;
+		final int h3 = 0x10325476;
+		final int h4 = 0xc3d2e1f0;
+
+		int al = h0, bl = h1, cl = h2, dl = h3, el = h4;
+		int ar = h0, br = h1, cr = h2, dr = h3, er = h4;
+
+		for (int j = 0; j < 80; ++j) {
+			int round = j >>> 4;
+
+			int t = Integer.rotateLeft(al + ripemd160F(round, bl, cl, dl) + x[RIPEMD160_R[j]] + RIPEMD160_K[round], RIPEMD160_S[j]) + el;
+			al = el;
+			el = dl;
+			dl = Integer.rotateLeft(cl, 10);
+			cl = bl;
+			bl = t;
+
+			t = Integer.rotateLeft(ar + ripemd160F(4 - round, br, cr, dr) + x[RIPEMD160_R_PRIME[j]] + RIPEMD160_K_PRIME[round], RIPEMD160_S_PRIME[j]) + er;
+			ar = er;
+			er = dr;
+			dr = Integer.rotateLeft(cr, 10);
+			cr = br;
+			br = t;
+		}
+
+		this.digest[0] = toLong(h1 + cl + dr, h2 + dl + er);
+		this.digest[1] = toLong(h3 + el + ar, h4 + al + br);
+		this.digest[2] = (h0 + bl + cr) & 0xffffffffL;
+		this.digest[3] = 0L;
+
+		return this.digest;
+	}
+
+	private static int ripemd160F(int round, int x, int y, int z) {
+		switch (round) {
+			case 0:
+				return x ^ y ^ z;
+
+			case 1:
+				return (x & y) | (~x & z);
+
+			case 2:
+				return (x | ~y) ^ z;
+
+			case 3:
+				return (x & z) | (y & ~z);
+
+			default:
+				return x ^ (y | ~z);
+		}
+	}
+
+	/**
+	 * Returns SHA-256 of <tt>value1</tt> to <tt>value4</tt>, as little-endian longs.
+	 * <p>
+	 * Returned array is reused, so only valid until next call.
+	 */
+	public long[] sha256(long value1, long value2, long value3, long value4) {
+		int[] w = this.words;
+
+		// Big-endian message words, then padding and message bit-length
+		setBigEndianWord(0, value1);
+		setBigEndianWord(2, value2);
+		setBigEndianWord(4, value3);
+		setBigEndianWord(6, value4);
+		w[8] = 0x80000000;
+		for (int i = 9; i < 15; ++i)
+			w[i] = 0;
+		w[15] = 4 * MachineState.VALUE_SIZE * 8;
+
+		for (int i = 16; i < 64; ++i) {
+			int s0 = Integer.rotateRight(w[i - 15], 7) ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+			int s1 = Integer.rotateRight(w[i - 2], 17) ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+			w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+		}
+
+		final int h0 = 0x6a09e667;
+		final int h1 = 0xbb67ae85;
+		final int h2 = 0x3c6ef372;
+		final int h3 = 0xa54ff53a;
+		final int h4 = 0x510e527f;
+		final int h5 = 0x9b05688c;
+		final int h6 = 0x1f83d9ab;
+		final int h7 = 0x5be0cd19;
+
+		int a = h0, b = h1, c = h2, d = h3, e = h4, f = h5, g = h6, h = h7;
+
+		for (int i = 0; i < 64; ++i) {
+			int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+			int ch = (e & f) ^ (~e & g);
+			int t1 = h + s1 + ch + SHA256_K[i] + w[i];
+			int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+			int maj = (a & b) ^ (a & c) ^ (b & c);
+			int t2 = s0 + maj;
+
+			h = g;
+			g = f;
+			f = e;
+			e = d + t1;
+			d = c;
+			c = b;
+			b = a;
+			a = t1 + t2;
+		}
+
+		// Digest bytes are big-endian words, but B register values are little-endian longs
+		this.digest[0] = toLong(Integer.reverseBytes(h0 + a), Integer.reverseBytes(h1 + b));
+		this.digest[1] = toLong(Integer.reverseBytes(h2 + c), Integer.reverseBytes(h3 + d));
+		this.digest[2] = toLong(Integer.reverseBytes(h4 + e), Integer.reverseBytes(h5 + f));
+		this.digest[3] = toLong(Integer.reverseBytes(h6 + g), Integer.reverseBytes(h7 + h));
+
+		return this.digest;
+	}
+
+	/** Sets first 8 words from little-endian values, clearing the rest of the 16-word block */
+	private void setLittleEndianWords(long value1, long value2, long value3, long value4) {
+		int[] x = this.words;
+
+		x[0] = (int) value1;
+		x[1] = (int) (value1 >>> 32);
+		x[2] = (int) value2;
+		x[3] = (int) (value2 >>> 32);
+		x[4] = (int) value3;
+		x[5] = (int) (value3 >>> 32);
+		x[6] = (int) value4;
+		x[7] = (int) (value4 >>> 32);
+
+		for (int i = 8; i < 16; ++i)
+			x[i] = 0;
+	}
+
+	/** Sets two big-endian words from little-endian value, as if value's bytes were read as big-endian words */
+	private void setBigEndianWord(int index, long value) {
+		this.words[index] = Integer.reverseBytes((int) value);
+		this.words[index + 1] = Integer.reverseBytes((int) (value >>> 32));
+	}
+
+	/** Returns little-endian long from two 32-bit words, low word first */
+	private static long toLong(int low, int high) {
+		return (low & 0xffffffffL) | ((long) high << 32);
+	}
+
+}
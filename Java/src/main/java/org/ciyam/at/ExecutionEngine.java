@@ -0,0 +1,33 @@
+package org.ciyam.at;
+
+/**
+ * Choice of interpreter used by <tt>MachineState.execute()</tt> for pre-decoded OpCodes.
+ * <p>
+ * All engines produce identical machine state. Step/fee accounting, error handling and the byte-level fallback path are shared.
+ *
+ * @see MachineState#setExecutionEngine(ExecutionEngine)
+ */
+public enum ExecutionEngine {
+
+	/** Each OpCode executes itself via its <tt>OpCode.executeWithParams</tt> implementation */
+	OPCODE,
+
+	/** One big switch on the raw opcode byte, with data operations and branches inlined */
+	SWITCH,
+
+	/**
+	 * Code compiled to JVM bytecode, shared by all ATs with the same code, falling back to <tt>OPCODE</tt> for anything not compiled.
+	 * <p>
+	 * Compilation happens on first execution, so best suited to long-lived ATs, or many ATs with the same code.
+	 * <p>
+	 * Compiled code is kept with the AT's code segment, so how many are kept is limited by the <tt>CodeSegmentRegistry</tt> in use.
+	 * Code is compiled again if its code segment has been evicted from the registry, and no machine state still uses it.
+	 * Code that would compile to an overly large method is left to <tt>OPCODE</tt>.
+	 * <p>
+	 * Compiled code is defined as hidden classes, so can be unloaded, which needs Java 15+. On older Java, this engine behaves as <tt>OPCODE</tt>.
+	 *
+	 * @see CodeCompiler
+	 */
+	COMPILED;
+
+}
@@ -0,0 +1,63 @@
+package org.ciyam.at;
+
+/**
+ * Preallocated, stackless exceptions for errors that AT code can trigger at will.
+ * <p>
+ * An AT with an <tt>ERR_ADR</tt> error handler can deliberately cause errors, e.g. divide-by-zero or stack underflow, as often as its steps allow.
+ * A Java stack trace says nothing about the AT's fault, so rather than filling one in for each error, these shared instances are thrown instead.
+ * <p>
+ * Each instance has no stack trace, no cause and suppression disabled, so is immutable and safe to share between threads.
+ * Messages match those previously thrown, so error handling and logging are unchanged.
+ */
+/* package */ final class ExecutionErrors {
+
+	// Data segment
+
+	public static final InvalidAddressException DATA_ADDRESS_OUT_OF_BOUNDS = new InvalidAddressException("Data address out of bounds", null, false, false);
+
+	public static final IllegalOperationException DIVIDE_BY_ZERO = new IllegalOperationException("Divide by zero", null, false, false);
+
+	// Code segment
+
+	public static final InvalidAddressException CODE_ADDRESS_OUT_OF_BOUNDS = new InvalidAddressException("Code address out of bounds", null, false, false);
+
+	public static final InvalidAddressException CODE_OFFSET_OUT_OF_BOUNDS = new InvalidAddressException("Code offset out of bounds", null, false, false);
+
+	public static final InvalidAddressException BRANCH_TARGET_OUT_OF_BOUNDS = new InvalidAddressException("branch target out of bounds", null, false, false);
+
+	public static final IllegalFunctionCodeException UNKNOWN_FUNCTION_CODE = new IllegalFunctionCodeException("Unknown function code", null, false, false);
+
+	public static final CodeSegmentException NO_FUNCTION_CODE = new CodeSegmentException("No code bytes left to get function code", null, false, false);
+
+	public static final CodeSegmentException NO_CODE_ADDRESS = new CodeSegmentException("No code bytes left to get code address", null, false, false);
+
+	public static final CodeSegmentException NO_DATA_ADDRESS = new CodeSegmentException("No code bytes left to get data address", null, false, false);
+
+	public static final CodeSegmentException NO_CODE_OFFSET = new CodeSegmentException("No code bytes left to get code offset", null, false, false);
+
+	public static final CodeSegmentException NO_IMMEDIATE_VALUE = new CodeSegmentException("No code bytes left to get immediate value", null, false, false);
+
+	// Stacks
+
+	public static final StackBoundsException USER_STACK_FULL = new StackBoundsException("No room on user stack to push data", null, false, false);
+
+	public static final StackBoundsException USER_STACK_EMPTY = new StackBoundsException("Empty user stack from which to pop data", null, false, false);
+
+	public static final StackBoundsException CALL_STACK_FULL = new StackBoundsException("No room on call stack to call subroutine", null, false, false);
+
+	public static final StackBoundsException CALL_STACK_EMPTY = new StackBoundsException("Empty call stack missing return address from subroutine", null, false, false);
+
+	private ExecutionErrors() {
+	}
+
+	/** Returns new stackless <tt>IllegalOperationException</tt>, for errors with variable messages */
+	public static IllegalOperationException illegalOperation(String message) {
+		return new IllegalOperationException(message, null, false, false);
+	}
+
+	/** Returns new stackless <tt>IllegalFunctionCodeException</tt>, for errors with variable messages */
+	public static IllegalFunctionCodeException illegalFunctionCode(String message) {
+		return new IllegalFunctionCodeException(message, null, false, false);
+	}
+
+}
@@ -18,4 +18,13 @@ public class ExecutionException extends Exception {
 		super(message, cause);
 	}
 
+	/**
+	 * Constructs exception with optional stack trace, as with <tt>Throwable</tt>.
+	 * <p>
+	 * Stackless instances are cheap to construct and, with suppression also disabled, are immutable so can be shared.
+	 */
+	protected ExecutionException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+		super(message, cause, enableSuppression, writableStackTrace);
+	}
+
 }
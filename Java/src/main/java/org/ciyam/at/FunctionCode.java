@@ -1,13 +1,5 @@
 package org.ciyam.at;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
-import java.util.Map;
-import java.util.stream.Collectors;
-
 /**
  * This enum contains function codes for the CIYAM AT machine.
  * <p>
@@ -29,7 +21,7 @@ public enum FunctionCode {
 	 */
 	ECHO(0x0001, 1, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			String message = String.valueOf(functionData.value1);
 			state.getLogger().echo(message);
 		}
@@ -40,8 +32,8 @@ public enum FunctionCode {
 	 */
 	GET_A1(0x0100, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = state.a1;
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(state.a1);
 		}
 	},
 	/**
@@ -50,8 +42,8 @@ public enum FunctionCode {
 	 */
 	GET_A2(0x0101, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = state.a2;
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(state.a2);
 		}
 	},
 	/**
@@ -60,8 +52,8 @@ public enum FunctionCode {
 	 */
 	GET_A3(0x0102, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = state.a3;
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(state.a3);
 		}
 	},
 	/**
@@ -70,8 +62,8 @@ public enum FunctionCode {
 	 */
 	GET_A4(0x0103, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = state.a4;
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(state.a4);
 		}
 	},
 	/**
@@ -80,8 +72,8 @@ public enum FunctionCode {
 	 */
 	GET_B1(0x0104, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = state.b1;
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(state.b1);
 		}
 	},
 	/**
@@ -90,8 +82,8 @@ public enum FunctionCode {
 	 */
 	GET_B2(0x0105, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = state.b2;
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(state.b2);
 		}
 	},
 	/**
@@ -100,8 +92,8 @@ public enum FunctionCode {
 	 */
 	GET_B3(0x0106, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = state.b3;
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(state.b3);
 		}
 	},
 	/**
@@ -110,8 +102,8 @@ public enum FunctionCode {
 	 */
 	GET_B4(0x0107, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = state.b4;
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(state.b4);
 		}
 	},
 	/**
@@ -120,7 +112,7 @@ public enum FunctionCode {
 	 */
 	SET_A1(0x0110, 1, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.a1 = functionData.value1;
 		}
 	},
@@ -130,7 +122,7 @@ public enum FunctionCode {
 	 */
 	SET_A2(0x0111, 1, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.a2 = functionData.value1;
 		}
 	},
@@ -140,7 +132,7 @@ public enum FunctionCode {
 	 */
 	SET_A3(0x0112, 1, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.a3 = functionData.value1;
 		}
 	},
@@ -150,7 +142,7 @@ public enum FunctionCode {
 	 */
 	SET_A4(0x0113, 1, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.a4 = functionData.value1;
 		}
 	},
@@ -160,7 +152,7 @@ public enum FunctionCode {
 	 */
 	SET_A1_A2(0x0114, 2, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.a1 = functionData.value1;
 			state.a2 = functionData.value2;
 		}
@@ -171,7 +163,7 @@ public enum FunctionCode {
 	 */
 	SET_A3_A4(0x0115, 2, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.a3 = functionData.value1;
 			state.a4 = functionData.value2;
 		}
@@ -182,7 +174,7 @@ public enum FunctionCode {
 	 */
 	SET_B1(0x0116, 1, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.b1 = functionData.value1;
 		}
 	},
@@ -192,7 +184,7 @@ public enum FunctionCode {
 	 */
 	SET_B2(0x0117, 1, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.b2 = functionData.value1;
 		}
 	},
@@ -202,7 +194,7 @@ public enum FunctionCode {
 	 */
 	SET_B3(0x0118, 1, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.b3 = functionData.value1;
 		}
 	},
@@ -212,7 +204,7 @@ public enum FunctionCode {
 	 */
 	SET_B4(0x0119, 1, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.b4 = functionData.value1;
 		}
 	},
@@ -222,7 +214,7 @@ public enum FunctionCode {
 	 */
 	SET_B1_B2(0x011a, 2, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.b1 = functionData.value1;
 			state.b2 = functionData.value2;
 		}
@@ -233,7 +225,7 @@ public enum FunctionCode {
 	 */
 	SET_B3_B4(0x011b, 2, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.b3 = functionData.value1;
 			state.b4 = functionData.value2;
 		}
@@ -244,7 +236,7 @@ public enum FunctionCode {
 	 */
 	CLEAR_A(0x0120, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.a1 = 0;
 			state.a2 = 0;
 			state.a3 = 0;
@@ -257,7 +249,7 @@ public enum FunctionCode {
 	 */
 	CLEAR_B(0x0121, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.b1 = 0;
 			state.b2 = 0;
 			state.b3 = 0;
@@ -270,7 +262,7 @@ public enum FunctionCode {
 	 */
 	CLEAR_A_AND_B(0x0122, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.a1 = 0;
 			state.a2 = 0;
 			state.a3 = 0;
@@ -287,7 +279,7 @@ public enum FunctionCode {
 	 */
 	COPY_A_FROM_B(0x0123, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.a1 = state.b1;
 			state.a2 = state.b2;
 			state.a3 = state.b3;
@@ -300,7 +292,7 @@ public enum FunctionCode {
 	 */
 	COPY_B_FROM_A(0x0124, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.b1 = state.a1;
 			state.b2 = state.a2;
 			state.b3 = state.a3;
@@ -314,11 +306,11 @@ public enum FunctionCode {
 	 */
 	CHECK_A_IS_ZERO(0x0125, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			if (state.a1 == 0 && state.a2 == 0 && state.a3 == 0 && state.a4 == 0)
-				functionData.returnValue = 1L; // true
+				functionData.setReturnValue(1L); // true
 			else
-				functionData.returnValue = 0L; // false
+				functionData.setReturnValue(0L); // false
 		}
 	},
 	/**
@@ -328,11 +320,11 @@ public enum FunctionCode {
 	 */
 	CHECK_B_IS_ZERO(0x0126, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			if (state.b1 == 0 && state.b2 == 0 && state.b3 == 0 && state.b4 == 0)
-				functionData.returnValue = 1L; // true
+				functionData.setReturnValue(1L); // true
 			else
-				functionData.returnValue = 0L; // false
+				functionData.setReturnValue(0L); // false
 		}
 	},
 	/**
@@ -342,11 +334,11 @@ public enum FunctionCode {
 	 */
 	CHECK_A_EQUALS_B(0x0127, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			if (state.a1 == state.b1 && state.a2 == state.b2 && state.a3 == state.b3 && state.a4 == state.b4)
-				functionData.returnValue = 1L; // true
+				functionData.setReturnValue(1L); // true
 			else
-				functionData.returnValue = 0L; // false
+				functionData.setReturnValue(0L); // false
 		}
 	},
 	/**
@@ -355,7 +347,7 @@ public enum FunctionCode {
 	 */
 	SWAP_A_AND_B(0x0128, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			long tmp1 = state.a1;
 			long tmp2 = state.a2;
 			long tmp3 = state.a3;
@@ -378,7 +370,7 @@ public enum FunctionCode {
 	 */
 	OR_A_WITH_B(0x0129, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.a1 = state.a1 | state.b1;
 			state.a2 = state.a2 | state.b2;
 			state.a3 = state.a3 | state.b3;
@@ -391,7 +383,7 @@ public enum FunctionCode {
 	 */
 	OR_B_WITH_A(0x012a, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.b1 = state.a1 | state.b1;
 			state.b2 = state.a2 | state.b2;
 			state.b3 = state.a3 | state.b3;
@@ -404,7 +396,7 @@ public enum FunctionCode {
 	 */
 	AND_A_WITH_B(0x012b, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.a1 = state.a1 & state.b1;
 			state.a2 = state.a2 & state.b2;
 			state.a3 = state.a3 & state.b3;
@@ -417,7 +409,7 @@ public enum FunctionCode {
 	 */
 	AND_B_WITH_A(0x012c, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.b1 = state.a1 & state.b1;
 			state.b2 = state.a2 & state.b2;
 			state.b3 = state.a3 & state.b3;
@@ -430,7 +422,7 @@ public enum FunctionCode {
 	 */
 	XOR_A_WITH_B(0x012d, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.a1 = state.a1 ^ state.b1;
 			state.a2 = state.a2 ^ state.b2;
 			state.a3 = state.a3 ^ state.b3;
@@ -443,7 +435,7 @@ public enum FunctionCode {
 	 */
 	XOR_B_WITH_A(0x012e, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.b1 = state.a1 ^ state.b1;
 			state.b2 = state.a2 ^ state.b2;
 			state.b3 = state.a3 ^ state.b3;
@@ -456,29 +448,13 @@ public enum FunctionCode {
 	 */
 	MD5_A_TO_B(0x0200, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			ByteBuffer messageByteBuffer = ByteBuffer.allocate(2 * MachineState.VALUE_SIZE);
-			messageByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-			messageByteBuffer.putLong(state.a1);
-			messageByteBuffer.putLong(state.a2);
-
-			byte[] message = messageByteBuffer.array();
-
-			try {
-				MessageDigest digester = MessageDigest.getInstance("MD5");
-				byte[] digest = digester.digest(message);
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			long[] digest = Digester.md5A(state);
 
-				ByteBuffer digestByteBuffer = ByteBuffer.wrap(digest);
-				digestByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-				state.b1 = digestByteBuffer.getLong();
-				state.b2 = digestByteBuffer.getLong();
-				state.b3 = 0L;
-				state.b4 = 0L;
-			} catch (NoSuchAlgorithmException e) {
-				throw new ExecutionException("No MD5 message digest service available", e);
-			}
+			state.b1 = digest[0];
+			state.b2 = digest[1];
+			state.b3 = 0L;
+			state.b4 = 0L;
 		}
 	},
 	/**
@@ -488,34 +464,13 @@ public enum FunctionCode {
 	 */
 	CHECK_MD5_A_WITH_B(0x0201, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			ByteBuffer messageByteBuffer = ByteBuffer.allocate(2 * MachineState.VALUE_SIZE);
-			messageByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-			messageByteBuffer.putLong(state.a1);
-			messageByteBuffer.putLong(state.a2);
-
-			byte[] message = messageByteBuffer.array();
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			long[] actualDigest = Digester.md5A(state);
 
-			try {
-				MessageDigest digester = MessageDigest.getInstance("MD5");
-				byte[] actualDigest = digester.digest(message);
-
-				ByteBuffer digestByteBuffer = ByteBuffer.allocate(2 * MachineState.VALUE_SIZE);
-				digestByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-				digestByteBuffer.putLong(state.b1);
-				digestByteBuffer.putLong(state.b2);
-
-				byte[] expectedDigest = digestByteBuffer.array();
-
-				if (Arrays.equals(actualDigest, expectedDigest))
-					functionData.returnValue = 1L; // true
-				else
-					functionData.returnValue = 0L; // false
-			} catch (NoSuchAlgorithmException e) {
-				throw new ExecutionException("No MD5 message digest service available", e);
-			}
+			if (actualDigest[0] == state.b1 && actualDigest[1] == state.b2)
+				functionData.setReturnValue(1L); // true
+			else
+				functionData.setReturnValue(0L); // false
 		}
 	},
 	/**
@@ -524,30 +479,13 @@ public enum FunctionCode {
 	 */
 	HASH160_A_TO_B(0x0202, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			ByteBuffer messageByteBuffer = ByteBuffer.allocate(3 * MachineState.VALUE_SIZE);
-			messageByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-			messageByteBuffer.putLong(state.a1);
-			messageByteBuffer.putLong(state.a2);
-			messageByteBuffer.putLong(state.a3);
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			long[] digest = Digester.ripemd160A(state);
 
-			byte[] message = messageByteBuffer.array();
-
-			try {
-				MessageDigest digester = MessageDigest.getInstance("RIPEMD160");
-				byte[] digest = digester.digest(message);
-
-				ByteBuffer digestByteBuffer = ByteBuffer.wrap(digest);
-				digestByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-				state.b1 = digestByteBuffer.getLong();
-				state.b2 = digestByteBuffer.getLong();
-				state.b3 = (long) digestByteBuffer.getInt() & 0xffffffffL;
-				state.b4 = 0L;
-			} catch (NoSuchAlgorithmException e) {
-				throw new ExecutionException("No RIPEMD160 message digest service available", e);
-			}
+			state.b1 = digest[0];
+			state.b2 = digest[1];
+			state.b3 = digest[2];
+			state.b4 = 0L;
 		}
 	},
 	/**
@@ -557,37 +495,14 @@ public enum FunctionCode {
 	 */
 	CHECK_HASH160_A_WITH_B(0x0203, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			ByteBuffer messageByteBuffer = ByteBuffer.allocate(3 * MachineState.VALUE_SIZE);
-			messageByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-			messageByteBuffer.putLong(state.a1);
-			messageByteBuffer.putLong(state.a2);
-			messageByteBuffer.putLong(state.a3);
-
-			byte[] message = messageByteBuffer.array();
-
-			try {
-				MessageDigest digester = MessageDigest.getInstance("RIPEMD160");
-				byte[] actualDigest = digester.digest(message);
-
-				ByteBuffer digestByteBuffer = ByteBuffer.allocate(digester.getDigestLength());
-				digestByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			long[] actualDigest = Digester.ripemd160A(state);
 
-				digestByteBuffer.putLong(state.b1);
-				digestByteBuffer.putLong(state.b2);
-				digestByteBuffer.putInt((int) (state.b3 & 0xffffffffL));
-				// NOTE: b4 ignored
-
-				byte[] expectedDigest = digestByteBuffer.array();
-
-				if (Arrays.equals(actualDigest, expectedDigest))
-					functionData.returnValue = 1L; // true
-				else
-					functionData.returnValue = 0L; // false
-			} catch (NoSuchAlgorithmException e) {
-				throw new ExecutionException("No RIPEMD160 message digest service available", e);
-			}
+			// NOTE: b4, and top half of b3, ignored
+			if (actualDigest[0] == state.b1 && actualDigest[1] == state.b2 && (int) actualDigest[2] == (int) state.b3)
+				functionData.setReturnValue(1L); // true
+			else
+				functionData.setReturnValue(0L); // false
 		}
 	},
 	/**
@@ -596,31 +511,13 @@ public enum FunctionCode {
 	 */
 	SHA256_A_TO_B(0x0204, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			ByteBuffer messageByteBuffer = ByteBuffer.allocate(4 * MachineState.VALUE_SIZE);
-			messageByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-			messageByteBuffer.putLong(state.a1);
-			messageByteBuffer.putLong(state.a2);
-			messageByteBuffer.putLong(state.a3);
-			messageByteBuffer.putLong(state.a4);
-
-			byte[] message = messageByteBuffer.array();
-
-			try {
-				MessageDigest digester = MessageDigest.getInstance("SHA-256");
-				byte[] digest = digester.digest(message);
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			long[] digest = Digester.sha256A(state);
 
-				ByteBuffer digestByteBuffer = ByteBuffer.wrap(digest);
-				digestByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-				state.b1 = digestByteBuffer.getLong();
-				state.b2 = digestByteBuffer.getLong();
-				state.b3 = digestByteBuffer.getLong();
-				state.b4 = digestByteBuffer.getLong();
-			} catch (NoSuchAlgorithmException e) {
-				throw new ExecutionException("No SHA-256 message digest service available", e);
-			}
+			state.b1 = digest[0];
+			state.b2 = digest[1];
+			state.b3 = digest[2];
+			state.b4 = digest[3];
 		}
 	},
 	/**
@@ -630,38 +527,13 @@ public enum FunctionCode {
 	 */
 	CHECK_SHA256_A_WITH_B(0x0205, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			ByteBuffer messageByteBuffer = ByteBuffer.allocate(4 * MachineState.VALUE_SIZE);
-			messageByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-			messageByteBuffer.putLong(state.a1);
-			messageByteBuffer.putLong(state.a2);
-			messageByteBuffer.putLong(state.a3);
-			messageByteBuffer.putLong(state.a4);
-
-			byte[] message = messageByteBuffer.array();
-
-			try {
-				MessageDigest digester = MessageDigest.getInstance("SHA-256");
-				byte[] actualDigest = digester.digest(message);
-
-				ByteBuffer digestByteBuffer = ByteBuffer.allocate(4 * MachineState.VALUE_SIZE);
-				digestByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-				digestByteBuffer.putLong(state.b1);
-				digestByteBuffer.putLong(state.b2);
-				digestByteBuffer.putLong(state.b3);
-				digestByteBuffer.putLong(state.b4);
-
-				byte[] expectedDigest = digestByteBuffer.array();
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			long[] actualDigest = Digester.sha256A(state);
 
-				if (Arrays.equals(actualDigest, expectedDigest))
-					functionData.returnValue = 1L; // true
-				else
-					functionData.returnValue = 0L; // false
-			} catch (NoSuchAlgorithmException e) {
-				throw new ExecutionException("No SHA256 message digest service available", e);
-			}
+			if (actualDigest[0] == state.b1 && actualDigest[1] == state.b2 && actualDigest[2] == state.b3 && actualDigest[3] == state.b4)
+				functionData.setReturnValue(1L); // true
+			else
+				functionData.setReturnValue(0L); // false
 		}
 	},
 	/**
@@ -670,8 +542,8 @@ public enum FunctionCode {
 	 */
 	GET_BLOCK_TIMESTAMP(0x0300, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = Timestamp.toLong(state.getAPI().getCurrentBlockHeight(), 0);
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(Timestamp.toLong(state.getAPI().getCurrentBlockHeight(), 0));
 		}
 	},
 	/**
@@ -680,8 +552,8 @@ public enum FunctionCode {
 	 */
 	GET_CREATION_TIMESTAMP(0x0301, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = Timestamp.toLong(state.getAPI().getATCreationBlockHeight(state), 0);
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(Timestamp.toLong(state.getAPI().getATCreationBlockHeight(state), 0));
 		}
 	},
 	/**
@@ -690,8 +562,8 @@ public enum FunctionCode {
 	 */
 	GET_PREVIOUS_BLOCK_TIMESTAMP(0x0302, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = Timestamp.toLong(state.getAPI().getPreviousBlockHeight(), 0);
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(Timestamp.toLong(state.getAPI().getPreviousBlockHeight(), 0));
 		}
 	},
 	/**
@@ -700,7 +572,7 @@ public enum FunctionCode {
 	 */
 	PUT_PREVIOUS_BLOCK_HASH_IN_A(0x0303, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.getAPI().putPreviousBlockHashInA(state);
 		}
 	},
@@ -711,7 +583,7 @@ public enum FunctionCode {
 	 */
 	PUT_TX_AFTER_TIMESTAMP_IN_A(0x0304, 1, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.getAPI().putTransactionAfterTimestampInA(new Timestamp(functionData.value1), state);
 		}
 	},
@@ -722,8 +594,8 @@ public enum FunctionCode {
 	 */
 	GET_TYPE_FROM_TX_IN_A(0x0305, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = state.getAPI().getTypeFromTransactionInA(state);
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(state.getAPI().getTypeFromTransactionInA(state));
 		}
 	},
 	/**
@@ -733,8 +605,8 @@ public enum FunctionCode {
 	 */
 	GET_AMOUNT_FROM_TX_IN_A(0x0306, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = state.getAPI().getAmountFromTransactionInA(state);
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(state.getAPI().getAmountFromTransactionInA(state));
 		}
 	},
 	/**
@@ -744,8 +616,8 @@ public enum FunctionCode {
 	 */
 	GET_TIMESTAMP_FROM_TX_IN_A(0x0307, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = state.getAPI().getTimestampFromTransactionInA(state);
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(state.getAPI().getTimestampFromTransactionInA(state));
 		}
 	},
 	/**
@@ -756,8 +628,8 @@ public enum FunctionCode {
 	 */
 	GENERATE_RANDOM_USING_TX_IN_A(0x0308, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = state.getAPI().generateRandomUsingTransactionInA(state);
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(state.getAPI().generateRandomUsingTransactionInA(state));
 
 			// If API set isSleeping then rewind program counter (actually codeByteBuffer) ready for being awoken
 			if (state.getIsSleeping()) {
@@ -778,7 +650,7 @@ public enum FunctionCode {
 	 */
 	PUT_MESSAGE_FROM_TX_IN_A_INTO_B(0x0309, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.getAPI().putMessageFromTransactionInAIntoB(state);
 		}
 	},
@@ -788,7 +660,7 @@ public enum FunctionCode {
 	 */
 	PUT_ADDRESS_FROM_TX_IN_A_INTO_B(0x030a, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.getAPI().putAddressFromTransactionInAIntoB(state);
 		}
 	},
@@ -798,7 +670,7 @@ public enum FunctionCode {
 	 */
 	PUT_CREATOR_INTO_B(0x030b, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.getAPI().putCreatorAddressIntoB(state);
 		}
 	},
@@ -808,8 +680,8 @@ public enum FunctionCode {
 	 */
 	GET_CURRENT_BALANCE(0x0400, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = state.getCurrentBalance();
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(state.getCurrentBalance());
 		}
 	},
 	/**
@@ -819,8 +691,8 @@ public enum FunctionCode {
 	 */
 	GET_PREVIOUS_BALANCE(0x0401, 0, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = state.getPreviousBalance();
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(state.getPreviousBalance());
 		}
 	},
 	/**
@@ -830,7 +702,7 @@ public enum FunctionCode {
 	 */
 	PAY_TO_ADDRESS_IN_B(0x0402, 1, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			// Reduce amount to current balance if insufficient funds to pay full amount in value1
 			long amount = Math.max(state.getCurrentBalance(), functionData.value1);
 
@@ -851,7 +723,7 @@ public enum FunctionCode {
 	 */
 	PAY_ALL_TO_ADDRESS_IN_B(0x0403, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.getAPI().payAmountToB(state.getCurrentBalance(), state);
 
 			// With no balance left, this AT is effectively finished?
@@ -866,7 +738,7 @@ public enum FunctionCode {
 	 */
 	PAY_PREVIOUS_TO_ADDRESS_IN_B(0x0404, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			// Reduce amount to previous balance if insufficient funds to pay previous balance amount
 			long amount = Math.max(state.getCurrentBalance(), state.getPreviousBalance());
 
@@ -887,7 +759,7 @@ public enum FunctionCode {
 	 */
 	MESSAGE_A_TO_ADDRESS_IN_B(0x0405, 0, false) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.getAPI().messageAToB(state);
 		}
 	},
@@ -897,8 +769,8 @@ public enum FunctionCode {
 	 */
 	ADD_MINUTES_TO_TIMESTAMP(0x0406, 2, true) {
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
-			functionData.returnValue = state.getAPI().addMinutesToTimestamp(new Timestamp(functionData.value1), functionData.value2, state);
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+			functionData.setReturnValue(state.getAPI().addMinutesToTimestamp(new Timestamp(functionData.value1), functionData.value2, state));
 		}
 	},
 	/**
@@ -913,7 +785,7 @@ public enum FunctionCode {
 		}
 
 		@Override
-		protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
 			state.getAPI().platformSpecificPostCheckExecute(functionData, state, rawFunctionCode);
 		}
 	};
@@ -922,8 +794,17 @@ public enum FunctionCode {
 	public final int paramCount;
 	public final boolean returnsValue;
 
-	private final static Map<Short, FunctionCode> map = Arrays.stream(FunctionCode.values())
-			.collect(Collectors.toMap(functionCode -> functionCode.value, functionCode -> functionCode));
+	// Dense table of FunctionCodes, indexed by unsigned function code value up to highest, with null for unused values
+	private final static FunctionCode[] table;
+	static {
+		int maxValue = 0;
+		for (FunctionCode functionCode : FunctionCode.values())
+			maxValue = Math.max(maxValue, functionCode.value & 0xffff);
+
+		table = new FunctionCode[maxValue + 1];
+		for (FunctionCode functionCode : FunctionCode.values())
+			table[functionCode.value & 0xffff] = functionCode;
+	}
 
 	private FunctionCode(int value, int paramCount, boolean returnsValue) {
 		this.value = (short) value;
@@ -936,16 +817,20 @@ public enum FunctionCode {
 		if (value >= 0x0500 && value <= 0x06ff)
 			return API_PASSTHROUGH;
 
-		return map.get((short) value);
+		int index = value & 0xffff;
+		if (index >= table.length)
+			return null;
+
+		return table[index];
 	}
 
 	public void preExecuteCheck(int paramCount, boolean returnValueExpected, MachineState state, short rawFunctionCode) throws ExecutionException {
 		if (paramCount != this.paramCount)
-			throw new IllegalFunctionCodeException(
+			throw ExecutionErrors.illegalFunctionCode(
 					"Passed paramCount (" + paramCount + ") does not match function's required paramCount (" + this.paramCount + ")");
 
 		if (returnValueExpected != this.returnsValue)
-			throw new IllegalFunctionCodeException(
+			throw ExecutionErrors.illegalFunctionCode(
 					"Passed returnValueExpected (" + returnValueExpected + ") does not match function's return signature (" + this.returnsValue + ")");
 	}
 
@@ -965,18 +850,47 @@ public enum FunctionCode {
 		preExecuteCheck(functionData.paramCount, functionData.returnValueExpected, state, rawFunctionCode);
 
 		if (functionData.paramCount >= 1 && functionData.value1 == null)
-			throw new IllegalFunctionCodeException("Passed value1 is null but function has paramCount of (" + this.paramCount + ")");
+			throw ExecutionErrors.illegalFunctionCode("Passed value1 is null but function has paramCount of (" + this.paramCount + ")");
 
 		if (functionData.paramCount == 2 && functionData.value2 == null)
-			throw new IllegalFunctionCodeException("Passed value2 is null but function has paramCount of (" + this.paramCount + ")");
+			throw ExecutionErrors.illegalFunctionCode("Passed value2 is null but function has paramCount of (" + this.paramCount + ")");
+
+		MutableFunctionData mutableFunctionData = new MutableFunctionData().reset(functionData.paramCount,
+				functionData.paramCount >= 1 ? functionData.value1 : 0L, functionData.paramCount == 2 ? functionData.value2 : 0L,
+				functionData.returnValueExpected);
+
+		logAndExecute(mutableFunctionData, state, rawFunctionCode);
+
+		if (mutableFunctionData.hasReturnValue)
+			functionData.returnValue = mutableFunctionData.returnValue;
+	}
+
+	/**
+	 * Execute Function, using primitive, reusable function data
+	 * <p>
+	 * As <tt>execute(FunctionData, MachineState, short)</tt>, but without allocation. Used by <tt>EXT_FUN*</tt> OpCodes.
+	 *
+	 * @param functionData
+	 * @param state
+	 * @throws ExecutionException
+	 */
+	public void execute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		// Check passed functionData against requirements of this function
+		preExecuteCheck(functionData.paramCount, functionData.returnValueExpected, state, rawFunctionCode);
+
+		logAndExecute(functionData, state, rawFunctionCode);
+	}
 
-		state.getLogger().debug("Function \"" + this.name() + "\"");
+	private void logAndExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+		LoggerInterface logger = state.getLogger();
+		if (logger.isDebugEnabled())
+			logger.debug("Function \"" + this.name() + "\"");
 
 		postCheckExecute(functionData, state, rawFunctionCode);
 	}
 
 	/** Actually execute function */
-	abstract protected void postCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException;
+	abstract protected void postCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException;
 
 	// TODO: public abstract String disassemble();
 
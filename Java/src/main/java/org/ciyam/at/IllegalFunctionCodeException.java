@@ -18,4 +18,8 @@ public class IllegalFunctionCodeException extends ExecutionException {
 		super(message, cause);
 	}
 
+	protected IllegalFunctionCodeException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+		super(message, cause, enableSuppression, writableStackTrace);
+	}
+
 }
@@ -18,4 +18,8 @@ public class IllegalOperationException extends ExecutionException {
 		super(message, cause);
 	}
 
+	protected IllegalOperationException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+		super(message, cause, enableSuppression, writableStackTrace);
+	}
+
 }
@@ -18,4 +18,8 @@ public class InvalidAddressException extends ExecutionException {
 		super(message, cause);
 	}
 
+	protected InvalidAddressException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+		super(message, cause, enableSuppression, writableStackTrace);
+	}
+
 }
@@ -8,4 +8,16 @@ public interface LoggerInterface {
 
 	public void echo(String message);
 
+	/**
+	 * Returns whether debug messages will actually be logged.
+	 * <p>
+	 * Callers use this to avoid building debug messages, e.g. via <tt>String.format</tt>, that would only be discarded.
+	 * <p>
+	 * Defaults to <tt>true</tt> so existing implementations still receive all debug messages.
+	 * Implementations that discard debug messages should override this to return <tt>false</tt>.
+	 */
+	public default boolean isDebugEnabled() {
+		return true;
+	}
+
 }
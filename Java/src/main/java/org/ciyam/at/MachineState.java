@@ -1,12 +1,15 @@
 package org.ciyam.at;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 
 public class MachineState {
 
@@ -47,6 +50,14 @@ public class MachineState {
 		}
 	}
 
+	/** All OpCodes, cached to save cloning <tt>OpCode.values()</tt> every execution round */
+	private static final OpCode[] ALL_OPCODES = OpCode.values();
+
+	/** Little-endian views of byte arrays, for reading serialized state without wrapping in a ByteBuffer */
+	private static final VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
 	/** Map of constants (e.g. CODE_PAGE_SIZE) by AT version */
 	private static final Map<Short, VersionedConstants> VERSIONED_CONSTANTS = new HashMap<>();
 	static {
@@ -128,14 +139,74 @@ public class MachineState {
 
 	// NOTE: These are package-scope to allow easy access/operations in Opcode/FunctionCode.
 	/* package */ ByteBuffer codeByteBuffer;
-	/* package */ ByteBuffer dataByteBuffer;
-	/* package */ ByteBuffer callStackByteBuffer;
-	/* package */ ByteBuffer userStackByteBuffer;
+
+	/** Data segment, one value per data address - converted to/from bytes only when serializing */
+	/* package */ long[] data;
+
+	/** Call stack of return addresses, growing downwards from end of array */
+	/* package */ int[] callStack;
+	/** Index of top entry in call stack, or <tt>callStack.length</tt> if empty */
+	/* package */ int callStackPointer;
+
+	/** User stack, growing downwards from end of array */
+	/* package */ long[] userStack;
+	/** Index of top entry in user stack, or <tt>userStack.length</tt> if empty */
+	/* package */ int userStackPointer;
+
+	/** Shared code segment, if created or restored using one, otherwise null */
+	private CodeSegment codeSegment;
+
+	/** Shared code segment with same content as code bytes, looked up on first execution if not created or restored using one */
+	private CodeSegment contentCodeSegment;
+
+	/** Whether code buffer's array was allocated by this machine state, so can be overwritten when reset */
+	private boolean ownsCodeBytes;
+
+	/** Pre-decoded code segment, built on first execution */
+	private DecodedCode decodedCode;
+
+	/** Reusable int-sized arg slots passed to OpCode.executeWithParams */
+	/* package */ final int[] opCodeArgs = new int[OpCode.MAX_ARGS];
+
+	/** Reused by EXT_FUN* OpCodes for function calls */
+	/* package */ final MutableFunctionData functionData = new MutableFunctionData();
+
+	/** Step cost for each OpCode, indexed by unsigned opcode byte, fetched from API once per execution round */
+	private final int[] opCodeSteps = new int[256];
+
+	/** Total steps from each decoded program counter to end of its basic block, using this round's step costs - shared, so read-only */
+	private long[] blockSteps;
+
+	/** Interpreter used for pre-decoded OpCodes - not serialized */
+	private ExecutionEngine executionEngine = ExecutionEngine.OPCODE;
+
+	/** Compiled form of code, if using <tt>ExecutionEngine.COMPILED</tt> and code could be compiled */
+	private CompiledCode compiledCode;
+
+	// Cached from API/logger at start of each execution round
+	private long feePerStep;
+	private int maxSteps;
+	private boolean isDebugEnabled;
+
+	/** Largest basic block that can be checked without block fee overflowing, or -1 to always check per OpCode */
+	private long maxBlockSteps;
 
 	// Constructors
 
 	/** For internal use when recreating a machine state */
 	private MachineState(API api, LoggerInterface logger, byte[] headerBytes) {
+		this(api, logger, headerBytes, (byte[]) null);
+	}
+
+	/** For internal use when recreating a machine state using shared code segment */
+	private MachineState(API api, LoggerInterface logger, byte[] headerBytes, CodeSegment codeSegment) {
+		this(api, logger, headerBytes, codeSegment.getCodeBytes());
+
+		this.codeSegment = codeSegment;
+	}
+
+	/** For internal use when recreating a machine state, using <tt>codeBytes</tt> as code segment, or new code segment if null */
+	private MachineState(API api, LoggerInterface logger, byte[] headerBytes, byte[] codeBytes) {
 		if (headerBytes.length != HEADER_LENGTH)
 			throw new IllegalArgumentException("headerBytes length " + headerBytes.length + " incorrect, expected " + HEADER_LENGTH);
 
@@ -173,16 +244,26 @@ public class MachineState {
 
 		this.minActivationAmount = byteBuffer.getLong();
 
-		// Header OK - set up code and data buffers
-		this.codeByteBuffer = ByteBuffer.allocate(this.numCodePages * this.constants.CODE_PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-		this.dataByteBuffer = ByteBuffer.allocate(this.numDataPages * this.constants.DATA_PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		// Header OK - set up code buffer and data segment
+		int codeLength = this.numCodePages * this.constants.CODE_PAGE_SIZE;
+		this.ownsCodeBytes = codeBytes == null;
+		if (codeBytes == null) {
+			this.codeByteBuffer = ByteBuffer.allocate(codeLength).order(ByteOrder.LITTLE_ENDIAN);
+		} else {
+			if (codeBytes.length != codeLength)
+				throw new IllegalStateException("Passed codeBytes does not match length in header");
+
+			this.codeByteBuffer = ByteBuffer.wrap(codeBytes).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		this.data = new long[this.numDataPages * this.constants.DATA_PAGE_SIZE / VALUE_SIZE];
 
 		// Set up stacks
-		this.callStackByteBuffer = ByteBuffer.allocate(this.numCallStackPages * this.constants.CALL_STACK_PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-		this.callStackByteBuffer.position(this.callStackByteBuffer.limit()); // Downward-growing stack, so start at the end
+		this.callStack = new int[this.numCallStackPages * this.constants.CALL_STACK_PAGE_SIZE / ADDRESS_SIZE];
+		this.callStackPointer = this.callStack.length; // Downward-growing stack, so start at the end
 
-		this.userStackByteBuffer = ByteBuffer.allocate(this.numUserStackPages * this.constants.USER_STACK_PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-		this.userStackByteBuffer.position(this.userStackByteBuffer.limit()); // Downward-growing stack, so start at the end
+		this.userStack = new long[this.numUserStackPages * this.constants.USER_STACK_PAGE_SIZE / VALUE_SIZE];
+		this.userStackPointer = this.userStack.length; // Downward-growing stack, so start at the end
 
 		this.api = api;
 		this.currentBlockHeight = 0;
@@ -202,8 +283,8 @@ public class MachineState {
 
 		System.arraycopy(creationBytes, HEADER_LENGTH, this.codeByteBuffer.array(), 0, this.numCodePages * this.constants.CODE_PAGE_SIZE);
 
-		System.arraycopy(creationBytes, HEADER_LENGTH + this.numCodePages * this.constants.CODE_PAGE_SIZE, this.dataByteBuffer.array(), 0,
-				this.numDataPages + this.constants.DATA_PAGE_SIZE);
+		fromByteArray(creationBytes, HEADER_LENGTH + this.numCodePages * this.constants.CODE_PAGE_SIZE, this.numDataPages + this.constants.DATA_PAGE_SIZE,
+				this.data);
 
 		commonFinalConstruction();
 	}
@@ -220,7 +301,23 @@ public class MachineState {
 
 		System.arraycopy(codeBytes, 0, this.codeByteBuffer.array(), 0, codeBytes.length);
 
-		System.arraycopy(dataBytes, 0, this.dataByteBuffer.array(), 0, dataBytes.length);
+		fromByteArray(dataBytes, 0, dataBytes.length, this.data);
+
+		commonFinalConstruction();
+	}
+
+	/**
+	 * For creating a new machine state using shared code segment, e.g. when deploying many ATs from the same template.
+	 * <p>
+	 * <tt>codeSegment</tt> length must match number of code pages in header.
+	 */
+	public MachineState(API api, LoggerInterface logger, byte[] headerBytes, CodeSegment codeSegment, byte[] dataBytes) {
+		this(api, logger, headerBytes, codeSegment);
+
+		if (dataBytes.length > this.numDataPages * this.constants.DATA_PAGE_SIZE)
+			throw new IllegalArgumentException("Number of data pages too small to hold data bytes");
+
+		fromByteArray(dataBytes, 0, dataBytes.length, this.data);
 
 		commonFinalConstruction();
 	}
@@ -397,10 +494,20 @@ public class MachineState {
 		return this.api;
 	}
 
+	/** So <tt>ATBlockExecutor</tt> can capture API side effects */
+	/* package */ void setAPI(API api) {
+		this.api = api;
+	}
+
 	public LoggerInterface getLogger() {
 		return this.logger;
 	}
 
+	/** So <tt>MachineStatePool</tt> can drop logger while machine state is idle */
+	/* package */ void setLogger(LoggerInterface logger) {
+		this.logger = logger;
+	}
+
 	public long getCurrentBalance() {
 		return this.currentBalance;
 	}
@@ -411,6 +518,11 @@ public class MachineState {
 	}
 
 	// For FunctionCode use
+	/** Returns size of data segment in bytes, for checking data addresses */
+	/* package */ int getDataLength() {
+		return this.data.length * VALUE_SIZE;
+	}
+
 	/* package */ long getPreviousBalance() {
 		return this.previousBalance;
 	}
@@ -420,6 +532,25 @@ public class MachineState {
 		return this.isFirstOpCodeAfterSleeping;
 	}
 
+	public ExecutionEngine getExecutionEngine() {
+		return this.executionEngine;
+	}
+
+	/**
+	 * Selects interpreter used by <tt>execute()</tt> for pre-decoded OpCodes.
+	 * <p>
+	 * All engines produce identical machine state. Engine choice is not serialized.
+	 * Switching away from <tt>ExecutionEngine.COMPILED</tt> stops compiled code being used from the next call to <tt>execute()</tt>.
+	 *
+	 * @param executionEngine
+	 */
+	public void setExecutionEngine(ExecutionEngine executionEngine) {
+		this.executionEngine = Objects.requireNonNull(executionEngine);
+
+		if (executionEngine != ExecutionEngine.COMPILED)
+			this.compiledCode = null;
+	}
+
 	/**
 	 * Rewinds program counter by amount.
 	 * <p>
@@ -431,6 +562,80 @@ public class MachineState {
 		this.codeByteBuffer.position(this.codeByteBuffer.position() - offset);
 	}
 
+	// Execution helpers, also used by compiled code
+
+	/* package */ void logOpCode(OpCode opCode) {
+		if (this.isDebugEnabled)
+			this.logger.debug("[PC: " + String.format("%04x", this.programCounter) + "] " + opCode.name());
+	}
+
+	/**
+	 * Returns whether remaining steps of basic block starting at <tt>programCounter</tt> fit within step limit and balance.
+	 * <p>
+	 * If so, no OpCode in the rest of the block can trigger an enforced sleep or freeze, so individual checks can be skipped.
+	 */
+	/* package */ boolean isBlockAffordable(int programCounter) {
+		long remainingBlockSteps = this.blockSteps[programCounter];
+
+		return remainingBlockSteps >= 0 && remainingBlockSteps <= this.maxBlockSteps
+				&& this.steps + remainingBlockSteps <= this.maxSteps && this.currentBalance >= remainingBlockSteps * this.feePerStep;
+	}
+
+	/** Logs and applies step-fee for OpCode at <tt>programCounter</tt>, which must be within an affordable basic block */
+	/* package */ void chargeOpCode(int programCounter, OpCode opCode) {
+		this.programCounter = programCounter;
+
+		logOpCode(opCode);
+
+		int opcodeSteps = this.opCodeSteps[opCode.value & 0xff];
+		this.currentBalance -= opcodeSteps * this.feePerStep;
+		this.steps += opcodeSteps;
+	}
+
+	/**
+	 * Executes decoded OpCode at program counter using OpCode's own implementation.
+	 * 
+	 * @return new position of codeByteBuffer, i.e. next program counter
+	 */
+	/* package */ int executeDecodedOpCode(OpCode opCode) throws ExecutionException {
+		// Position codeByteBuffer after opcode and args, as if they had been read
+		this.codeByteBuffer.position(this.decodedCode.nextProgramCounters[this.programCounter]);
+
+		System.arraycopy(this.decodedCode.args, this.programCounter * OpCode.MAX_ARGS, this.opCodeArgs, 0, OpCode.MAX_ARGS);
+		opCode.executeWithParams(this, this.opCodeArgs, this.decodedCode.values[this.programCounter]);
+
+		return this.codeByteBuffer.position();
+	}
+
+	/** Sets program counter, and codeByteBuffer's position, on leaving compiled code */
+	/* package */ void leaveCompiledCode(int programCounter) {
+		this.codeByteBuffer.position(programCounter);
+		this.programCounter = programCounter;
+	}
+
+	/**
+	 * Handles error during OpCode execution, either by jumping to error handler, or finishing AT with fatal error.
+	 * 
+	 * @return true if fatal
+	 */
+	private boolean handleExecutionException(ExecutionException e) {
+		if (this.isDebugEnabled)
+			this.logger.debug("Error at PC " + String.format("%04x", this.programCounter) + ": " + e.getMessage());
+
+		if (this.onErrorAddress == null) {
+			this.isFinished = true;
+			this.hadFatalError = true;
+
+			// Notify API that there was an error
+			this.api.onFatalError(this, e);
+			return true;
+		}
+
+		this.programCounter = this.onErrorAddress;
+		codeByteBuffer.position(this.programCounter);
+		return false;
+	}
+
 	// Serialization
 
 	public static byte[] toCreationBytes(short version, byte[] codeBytes, byte[] dataBytes, short numCallStackPages, short numUserStackPages, long minActivationAmount) {
@@ -489,122 +694,629 @@ public class MachineState {
 		return creationBytes;
 	}
 
-	/** Returns code bytes only as these are read-only so no need to be duplicated in every serialized state */
+	/**
+	 * Returns code bytes only as these are read-only so no need to be duplicated in every serialized state
+	 * <p>
+	 * If using a shared <tt>CodeSegment</tt>, returned array is shared with other machine states so must not be modified.
+	 */
 	public byte[] getCodeBytes() {
 		return this.codeByteBuffer.array();
 	}
 
 	/** For serializing a machine state */
 	public byte[] toBytes() {
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] bytes = new byte[this.serializedSize()];
+		this.writeTo(ByteBuffer.wrap(bytes));
+		return bytes;
+	}
+
+	/** Returns exact number of bytes that {@link #toBytes()} would return, or {@link #writeTo(ByteBuffer)} would write */
+	public int serializedSize() {
+		return HEADER_LENGTH + this.data.length * VALUE_SIZE + this.stateSize();
+	}
+
+	/** Returns largest number of bytes {@link #serializedSize()} could return for this header, i.e. with full stacks and all optional values */
+	public int maxSerializedSize() {
+		return HEADER_LENGTH + this.data.length * VALUE_SIZE
+				+ 4 + this.callStack.length * ADDRESS_SIZE
+				+ 4 + this.userStack.length * VALUE_SIZE
+				+ 4 + 4 + 8 // programCounter, onStopAddress, previousBalance
+				+ 4 // flags
+				+ 4 + 4 + 8 // onErrorAddress, sleepUntilHeight, frozenBalance
+				+ 8 * VALUE_SIZE; // A and B
+	}
+
+	/** Returns number of bytes serialized after data segment, i.e. stacks onwards */
+	private int stateSize() {
+		int callStackEntries = this.callStack.length - this.callStackPointer;
+		int userStackEntries = this.userStack.length - this.userStackPointer;
+
+		int size = 4 + callStackEntries * ADDRESS_SIZE
+				+ 4 + userStackEntries * VALUE_SIZE
+				+ 4 + 4 + 8 // programCounter, onStopAddress, previousBalance
+				+ 4; // flags
+
+		if (this.onErrorAddress != null)
+			size += 4;
+
+		if (this.sleepUntilHeight != null)
+			size += 4;
+
+		if (this.frozenBalance != null)
+			size += 8;
+
+		if (this.hasNonZeroA())
+			size += 4 * VALUE_SIZE;
+
+		if (this.hasNonZeroB())
+			size += 4 * VALUE_SIZE;
+
+		return size;
+	}
+
+	/**
+	 * Serializes machine state into <tt>byteBuffer</tt>, starting at its current position, which is advanced past written bytes.
+	 * <p>
+	 * Writes the same bytes as {@link #toBytes()}, but without intermediate copies, so <tt>byteBuffer</tt> can be reused,
+	 * or be a direct buffer. Values are written little-endian regardless of <tt>byteBuffer</tt>'s byte order, which is left unchanged.
+	 *
+	 * @throws BufferOverflowException if fewer than {@link #serializedSize()} bytes remain in <tt>byteBuffer</tt>, in which case nothing is written
+	 */
+	public void writeTo(ByteBuffer byteBuffer) {
+		if (byteBuffer.remaining() < this.serializedSize())
+			throw new BufferOverflowException();
+
+		ByteOrder originalOrder = byteBuffer.order();
+		byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
 
 		try {
 			// Header first
-			bytes.write(this.headerBytes);
+			byteBuffer.put(this.headerBytes);
 
 			// Data
-			bytes.write(this.dataByteBuffer.array());
+			putLongs(byteBuffer, this.data, 0, this.data.length);
 
-			// Call stack length (32bit unsigned int)
-			int callStackLength = this.callStackByteBuffer.limit() - this.callStackByteBuffer.position();
-			bytes.write(toByteArray(callStackLength));
-			// Call stack (only the bytes actually in use)
-			bytes.write(this.callStackByteBuffer.array(), this.callStackByteBuffer.position(), callStackLength);
+			this.writeState(byteBuffer);
+		} finally {
+			byteBuffer.order(originalOrder);
+		}
+	}
 
-			// User stack length (32bit unsigned int)
-			int userStackLength = this.userStackByteBuffer.limit() - this.userStackByteBuffer.position();
-			bytes.write(toByteArray(userStackLength));
-			// User stack (only the bytes actually in use)
-			bytes.write(this.userStackByteBuffer.array(), this.userStackByteBuffer.position(), userStackLength);
+	/** Writes stacks onwards, i.e. everything after data segment, into little-endian <tt>byteBuffer</tt> */
+	private void writeState(ByteBuffer byteBuffer) {
+		// Call stack length (32bit unsigned int)
+		int callStackEntries = this.callStack.length - this.callStackPointer;
+		byteBuffer.putInt(callStackEntries * ADDRESS_SIZE);
+		// Call stack (only the entries actually in use)
+		byteBuffer.asIntBuffer().put(this.callStack, this.callStackPointer, callStackEntries);
+		byteBuffer.position(byteBuffer.position() + callStackEntries * ADDRESS_SIZE);
+
+		// User stack length (32bit unsigned int)
+		int userStackEntries = this.userStack.length - this.userStackPointer;
+		byteBuffer.putInt(userStackEntries * VALUE_SIZE);
+		// User stack (only the entries actually in use)
+		putLongs(byteBuffer, this.userStack, this.userStackPointer, userStackEntries);
 
-			// Actual state
-			bytes.write(toByteArray(this.programCounter));
-			bytes.write(toByteArray(this.onStopAddress));
-			bytes.write(toByteArray(this.previousBalance));
+		// Actual state
+		byteBuffer.putInt(this.programCounter);
+		byteBuffer.putInt(this.onStopAddress);
+		byteBuffer.putLong(this.previousBalance);
 
-			// Various flags
-			Flags flags = new Flags();
-			flags.push(this.isSleeping);
-			flags.push(this.isStopped);
-			flags.push(this.isFinished);
-			flags.push(this.hadFatalError);
-			flags.push(this.isFrozen);
+		// Various flags
+		Flags flags = new Flags();
+		flags.push(this.isSleeping);
+		flags.push(this.isStopped);
+		flags.push(this.isFinished);
+		flags.push(this.hadFatalError);
+		flags.push(this.isFrozen);
 
-			flags.push(this.onErrorAddress != null); // has onErrorAddress?
-			flags.push(this.sleepUntilHeight != null); // has sleepUntilHeight?
-			flags.push(this.frozenBalance != null); // has frozenBalance?
+		flags.push(this.onErrorAddress != null); // has onErrorAddress?
+		flags.push(this.sleepUntilHeight != null); // has sleepUntilHeight?
+		flags.push(this.frozenBalance != null); // has frozenBalance?
 
-			boolean hasNonZeroA = this.a1 != 0 || this.a2 != 0 || this.a3 != 0 || this.a4 != 0;
-			flags.push(hasNonZeroA);
+		boolean hasNonZeroA = this.hasNonZeroA();
+		flags.push(hasNonZeroA);
 
-			boolean hasNonZeroB = this.b1 != 0 || this.b2 != 0 || this.b3 != 0 || this.b4 != 0;
-			flags.push(hasNonZeroB);
+		boolean hasNonZeroB = this.hasNonZeroB();
+		flags.push(hasNonZeroB);
 
-			bytes.write(toByteArray(flags.intValue()));
+		byteBuffer.putInt(flags.intValue());
 
-			// Optional flag-indicated extra info in same order as above
-			if (this.onErrorAddress != null)
-				bytes.write(toByteArray(this.onErrorAddress));
+		// Optional flag-indicated extra info in same order as above
+		if (this.onErrorAddress != null)
+			byteBuffer.putInt(this.onErrorAddress);
 
-			if (this.sleepUntilHeight != null)
-				bytes.write(toByteArray(this.sleepUntilHeight));
+		if (this.sleepUntilHeight != null)
+			byteBuffer.putInt(this.sleepUntilHeight);
 
-			if (this.frozenBalance != null)
-				bytes.write(toByteArray(this.frozenBalance));
+		if (this.frozenBalance != null)
+			byteBuffer.putLong(this.frozenBalance);
 
-			if (hasNonZeroA) {
-				bytes.write(toByteArray(this.a1));
-				bytes.write(toByteArray(this.a2));
-				bytes.write(toByteArray(this.a3));
-				bytes.write(toByteArray(this.a4));
+		if (hasNonZeroA) {
+			byteBuffer.putLong(this.a1);
+			byteBuffer.putLong(this.a2);
+			byteBuffer.putLong(this.a3);
+			byteBuffer.putLong(this.a4);
+		}
+
+		if (hasNonZeroB) {
+			byteBuffer.putLong(this.b1);
+			byteBuffer.putLong(this.b2);
+			byteBuffer.putLong(this.b3);
+			byteBuffer.putLong(this.b4);
+		}
+	}
+
+	private boolean hasNonZeroA() {
+		return this.a1 != 0 || this.a2 != 0 || this.a3 != 0 || this.a4 != 0;
+	}
+
+	private boolean hasNonZeroB() {
+		return this.b1 != 0 || this.b2 != 0 || this.b3 != 0 || this.b4 != 0;
+	}
+
+	/** Bulk-writes longs, using <tt>byteBuffer</tt>'s byte order, advancing its position */
+	private static void putLongs(ByteBuffer byteBuffer, long[] values, int offset, int length) {
+		byteBuffer.asLongBuffer().put(values, offset, length);
+		byteBuffer.position(byteBuffer.position() + length * VALUE_SIZE);
+	}
+
+	/**
+	 * For serializing only changes to machine state since <tt>previousStateBytes</tt>, which were serialized from same AT.
+	 * <p>
+	 * Usually only a few data addresses change each execution round, so only runs of changed data values are included.
+	 * Stacks and the rest of state are small, so are included as-is.
+	 * <p>
+	 * Delta bytes are:
+	 * <ul>
+	 * <li>header, which must match <tt>previousStateBytes</tt></li>
+	 * <li>number of changed data runs (32bit int)</li>
+	 * <li>for each run: first data address (32bit int), number of values (32bit int), then values</li>
+	 * <li>stacks onwards, as for {@link #toBytes()}</li>
+	 * </ul>
+	 *
+	 * @see #applyDelta(byte[], byte[])
+	 */
+	public byte[] toDeltaBytes(byte[] previousStateBytes) {
+		if (previousStateBytes.length < HEADER_LENGTH + this.data.length * VALUE_SIZE
+				|| !Arrays.equals(previousStateBytes, 0, HEADER_LENGTH, this.headerBytes, 0, HEADER_LENGTH))
+			throw new IllegalArgumentException("Previous state bytes do not match this machine state's header");
+
+		ByteBuffer previousByteBuffer = ByteBuffer.wrap(previousStateBytes).order(ByteOrder.LITTLE_ENDIAN);
+
+		// Count changed runs, and values in them, so delta can be sized exactly
+		int runCount = 0;
+		int changedCount = 0;
+		for (int address = 0; address < this.data.length; ++address)
+			if (this.isDataChanged(previousByteBuffer, address)) {
+				++changedCount;
+
+				if (address == 0 || !this.isDataChanged(previousByteBuffer, address - 1))
+					++runCount;
 			}
 
-			if (hasNonZeroB) {
-				bytes.write(toByteArray(this.b1));
-				bytes.write(toByteArray(this.b2));
-				bytes.write(toByteArray(this.b3));
-				bytes.write(toByteArray(this.b4));
+		byte[] deltaBytes = new byte[HEADER_LENGTH + 4 + runCount * (4 + 4) + changedCount * VALUE_SIZE + this.stateSize()];
+		ByteBuffer byteBuffer = ByteBuffer.wrap(deltaBytes).order(ByteOrder.LITTLE_ENDIAN);
+
+		byteBuffer.put(this.headerBytes);
+
+		byteBuffer.putInt(runCount);
+
+		int address = 0;
+		while (address < this.data.length) {
+			if (!this.isDataChanged(previousByteBuffer, address)) {
+				++address;
+				continue;
 			}
-		} catch (IOException e) {
-			return null;
+
+			int runStart = address;
+			while (address < this.data.length && this.isDataChanged(previousByteBuffer, address))
+				++address;
+
+			byteBuffer.putInt(runStart);
+			byteBuffer.putInt(address - runStart);
+			putLongs(byteBuffer, this.data, runStart, address - runStart);
 		}
 
-		return bytes.toByteArray();
+		this.writeState(byteBuffer);
+
+		return deltaBytes;
+	}
+
+	private boolean isDataChanged(ByteBuffer previousByteBuffer, int address) {
+		return this.data[address] != previousByteBuffer.getLong(HEADER_LENGTH + address * VALUE_SIZE);
+	}
+
+	/**
+	 * Returns full serialized machine state by applying <tt>deltaBytes</tt> to the <tt>previousStateBytes</tt> they were made against.
+	 * <p>
+	 * Result is the same as {@link #toBytes()} at the time {@link #toDeltaBytes(byte[])} was called, so can be passed to <tt>fromBytes</tt>.
+	 *
+	 * @see #toDeltaBytes(byte[])
+	 */
+	public static byte[] applyDelta(byte[] previousStateBytes, byte[] deltaBytes) {
+		if (previousStateBytes.length < HEADER_LENGTH || deltaBytes.length < HEADER_LENGTH + 4
+				|| !Arrays.equals(previousStateBytes, 0, HEADER_LENGTH, deltaBytes, 0, HEADER_LENGTH))
+			throw new IllegalArgumentException("Delta bytes do not match previous state bytes' header");
+
+		// Data segment length from header: version at offset 0, number of data pages at offset 6
+		ByteBuffer headerByteBuffer = ByteBuffer.wrap(previousStateBytes, 0, HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		VersionedConstants constants = VERSIONED_CONSTANTS.get(headerByteBuffer.getShort(0));
+		if (constants == null)
+			throw new IllegalArgumentException("Version " + headerByteBuffer.getShort(0) + " unsupported");
+
+		int dataValueCount = headerByteBuffer.getShort(6) * constants.DATA_PAGE_SIZE / VALUE_SIZE;
+		int stateOffset = HEADER_LENGTH + dataValueCount * VALUE_SIZE;
+		if (previousStateBytes.length < stateOffset)
+			throw new IllegalArgumentException("Previous state bytes too short for data segment");
+
+		ByteBuffer deltaByteBuffer = ByteBuffer.wrap(deltaBytes).order(ByteOrder.LITTLE_ENDIAN);
+		deltaByteBuffer.position(HEADER_LENGTH);
+
+		int runCount = deltaByteBuffer.getInt();
+		if (runCount < 0)
+			throw new IllegalArgumentException("Invalid changed data run count");
+
+		// Validate runs, finding where rest of state starts
+		int runsOffset = deltaByteBuffer.position();
+		for (int run = 0; run < runCount; ++run) {
+			if (deltaByteBuffer.remaining() < 4 + 4)
+				throw new IllegalArgumentException("Delta bytes too short for changed data runs");
+
+			int runStart = deltaByteBuffer.getInt();
+			int runLength = deltaByteBuffer.getInt();
+			if (runStart < 0 || runLength < 1 || runLength > dataValueCount - runStart || runLength > deltaByteBuffer.remaining() / VALUE_SIZE)
+				throw new IllegalArgumentException("Invalid changed data run");
+
+			deltaByteBuffer.position(deltaByteBuffer.position() + runLength * VALUE_SIZE);
+		}
+
+		int deltaStateOffset = deltaByteBuffer.position();
+		byte[] stateBytes = new byte[stateOffset + deltaBytes.length - deltaStateOffset];
+
+		// Header and previous data, then overwrite changed values, then rest of state
+		System.arraycopy(previousStateBytes, 0, stateBytes, 0, stateOffset);
+
+		deltaByteBuffer.position(runsOffset);
+		for (int run = 0; run < runCount; ++run) {
+			int runStart = deltaByteBuffer.getInt();
+			int runLength = deltaByteBuffer.getInt();
+
+			// Values are little-endian in both
+			System.arraycopy(deltaBytes, deltaByteBuffer.position(), stateBytes, HEADER_LENGTH + runStart * VALUE_SIZE, runLength * VALUE_SIZE);
+			deltaByteBuffer.position(deltaByteBuffer.position() + runLength * VALUE_SIZE);
+		}
+
+		System.arraycopy(deltaBytes, deltaStateOffset, stateBytes, stateOffset, deltaBytes.length - deltaStateOffset);
+
+		return stateBytes;
 	}
 
 	/** For restoring a previously serialized machine state */
 	public static MachineState fromBytes(API api, LoggerInterface logger, byte[] bytes, byte[] codeBytes) {
-		ByteBuffer byteBuffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		return fromBytes(api, logger, ByteBuffer.wrap(bytes), codeBytes, false);
+	}
+
+	/**
+	 * For restoring a previously serialized machine state, read from <tt>byteBuffer</tt>'s current position, which is advanced past read bytes.
+	 * <p>
+	 * Data segment and stacks are bulk-copied straight from <tt>byteBuffer</tt>, which can be a slice of a larger buffer, or a direct buffer,
+	 * so serialized state doesn't need copying into its own array first. Values are read little-endian regardless of <tt>byteBuffer</tt>'s
+	 * byte order, which is left unchanged.
+	 * <p>
+	 * If <tt>adoptCodeBytes</tt> is true, then <tt>codeBytes</tt> is used as code segment, instead of a copy.
+	 * Executing never modifies code segment, so this is safe as long as caller doesn't modify <tt>codeBytes</tt> while machine state is in use.
+	 * This allows many machine states with the same code to share one array.
+	 * <p>
+	 * On first execution, decoded code is looked up by content in the default <tt>CodeSegmentRegistry</tt>, which hashes and compares whole code.
+	 * Platforms that restore many ATs every block, especially in parallel, should pass a <tt>CodeSegment</tt> instead.
+	 *
+	 * @see #fromBytes(API, LoggerInterface, ByteBuffer, CodeSegment)
+	 */
+	public static MachineState fromBytes(API api, LoggerInterface logger, ByteBuffer byteBuffer, byte[] codeBytes, boolean adoptCodeBytes) {
+		return fromByteBuffer(byteBuffer, headerBytes -> {
+			if (adoptCodeBytes)
+				return new MachineState(api, logger, headerBytes, codeBytes);
+
+			MachineState state = new MachineState(api, logger, headerBytes);
+
+			if (codeBytes.length != state.codeByteBuffer.capacity())
+				throw new IllegalStateException("Passed codeBytes does not match length in header");
+
+			System.arraycopy(codeBytes, 0, state.codeByteBuffer.array(), 0, codeBytes.length);
+
+			return state;
+		});
+	}
+
+	/**
+	 * For restoring a previously serialized machine state using shared code segment, read from <tt>byteBuffer</tt>'s current position,
+	 * which is advanced past read bytes.
+	 * <p>
+	 * As {@link #fromBytes(API, LoggerInterface, ByteBuffer, byte[], boolean)}, but code bytes, and their decoded and compiled forms,
+	 * are shared with all other machine states using <tt>codeSegment</tt>.
+	 */
+	public static MachineState fromBytes(API api, LoggerInterface logger, ByteBuffer byteBuffer, CodeSegment codeSegment) {
+		return fromByteBuffer(byteBuffer, headerBytes -> new MachineState(api, logger, headerBytes, codeSegment));
+	}
 
-		byte[] headerBytes = new byte[HEADER_LENGTH];
-		byteBuffer.get(headerBytes);
+	/**
+	 * Fills <tt>status</tt> with execution status of serialized machine state in <tt>stateBytes</tt>, without restoring machine state.
+	 *
+	 * @see #peekStatus(ByteBuffer, MachineStateStatus)
+	 */
+	public static MachineStateStatus peekStatus(byte[] stateBytes, MachineStateStatus status) {
+		return peekStatus(stateBytes, null, 0, status);
+	}
+
+	/**
+	 * Fills <tt>status</tt> with execution status of serialized machine state starting at <tt>byteBuffer</tt>'s current position,
+	 * without restoring machine state.
+	 * <p>
+	 * Only the header, segment/stack lengths, flags and flag-indicated sleep-until height and frozen balance are read.
+	 * Data segment and stacks are skipped. <tt>byteBuffer</tt>'s position is not changed.
+	 * <p>
+	 * Allocates nothing, so <tt>status</tt> can be reused when checking many ATs.
+	 *
+	 * @return <tt>status</tt>
+	 * @throws IllegalArgumentException
+	 *             if header or stack lengths are invalid
+	 * @throws IndexOutOfBoundsException
+	 *             if <tt>byteBuffer</tt> is too short
+	 */
+	public static MachineStateStatus peekStatus(ByteBuffer byteBuffer, MachineStateStatus status) {
+		ByteOrder originalOrder = byteBuffer.order();
+		byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		try {
+			return peekStatus(null, byteBuffer, byteBuffer.position(), status);
+		} finally {
+			byteBuffer.order(originalOrder);
+		}
+	}
+
+	/** Peeks status from either <tt>stateBytes</tt> or little-endian <tt>byteBuffer</tt>, starting at <tt>offset</tt> */
+	private static MachineStateStatus peekStatus(byte[] stateBytes, ByteBuffer byteBuffer, int offset, MachineStateStatus status) {
+		short version = peekShort(stateBytes, byteBuffer, offset);
+		VersionedConstants constants = VERSIONED_CONSTANTS.get(version);
+		if (constants == null)
+			throw new IllegalArgumentException("Version " + version + " unsupported");
+
+		short numDataPages = peekShort(stateBytes, byteBuffer, offset + 6);
+		if (numDataPages < 1)
+			throw new IllegalArgumentException("Number of data pages must be > 0");
 
-		MachineState state = new MachineState(api, logger, headerBytes);
+		short numCallStackPages = peekShort(stateBytes, byteBuffer, offset + 8);
+		short numUserStackPages = peekShort(stateBytes, byteBuffer, offset + 10);
 
-		if (codeBytes.length != state.codeByteBuffer.capacity())
+		// Skip header and data segment
+		offset += HEADER_LENGTH + numDataPages * constants.DATA_PAGE_SIZE;
+
+		int callStackLength = peekInt(stateBytes, byteBuffer, offset);
+		if (callStackLength < 0 || callStackLength > numCallStackPages * constants.CALL_STACK_PAGE_SIZE || callStackLength % ADDRESS_SIZE != 0)
+			throw new IllegalArgumentException("Invalid call stack length");
+		offset += 4 + callStackLength;
+
+		int userStackLength = peekInt(stateBytes, byteBuffer, offset);
+		if (userStackLength < 0 || userStackLength > numUserStackPages * constants.USER_STACK_PAGE_SIZE || userStackLength % VALUE_SIZE != 0)
+			throw new IllegalArgumentException("Invalid user stack length");
+		offset += 4 + userStackLength;
+
+		// Skip program counter, onStopAddress and previousBalance
+		offset += 4 + 4 + 8;
+
+		// Flags, as pushed by writeState(), so last pushed is lowest bit
+		int flags = peekInt(stateBytes, byteBuffer, offset);
+		offset += 4;
+
+		boolean hasFrozenBalance = (flags & (1 << 2)) != 0;
+		boolean hasSleepUntilHeight = (flags & (1 << 3)) != 0;
+		boolean hasOnErrorAddress = (flags & (1 << 4)) != 0;
+
+		status.version = version;
+		status.isFrozen = (flags & (1 << 5)) != 0;
+		status.hadFatalError = (flags & (1 << 6)) != 0;
+		status.isFinished = (flags & (1 << 7)) != 0;
+		status.isStopped = (flags & (1 << 8)) != 0;
+		status.isSleeping = (flags & (1 << 9)) != 0;
+
+		// Optional extras (same order as writeState)
+		if (hasOnErrorAddress)
+			offset += 4;
+
+		status.hasSleepUntilHeight = hasSleepUntilHeight;
+		status.sleepUntilHeight = 0;
+		if (hasSleepUntilHeight) {
+			status.sleepUntilHeight = peekInt(stateBytes, byteBuffer, offset);
+			offset += 4;
+		}
+
+		status.hasFrozenBalance = hasFrozenBalance;
+		status.frozenBalance = hasFrozenBalance ? peekLong(stateBytes, byteBuffer, offset) : 0;
+
+		return status;
+	}
+
+	private static short peekShort(byte[] stateBytes, ByteBuffer byteBuffer, int offset) {
+		return stateBytes != null ? (short) SHORT_LE.get(stateBytes, offset) : byteBuffer.getShort(offset);
+	}
+
+	private static int peekInt(byte[] stateBytes, ByteBuffer byteBuffer, int offset) {
+		return stateBytes != null ? (int) INT_LE.get(stateBytes, offset) : byteBuffer.getInt(offset);
+	}
+
+	private static long peekLong(byte[] stateBytes, ByteBuffer byteBuffer, int offset) {
+		return stateBytes != null ? (long) LONG_LE.get(stateBytes, offset) : byteBuffer.getLong(offset);
+	}
+
+	/**
+	 * Re-initializes this machine state from a previously serialized machine state, with code copied from <tt>codeBytes</tt>,
+	 * so this machine state can be reused for another AT without allocating new data segment and stacks.
+	 * <p>
+	 * Serialized header must be identical to this machine state's header, as header values are final and determine segment sizes.
+	 * Code bytes are only copied, and decoded again, if they differ from current code bytes.
+	 * Execution engine is unchanged.
+	 * <p>
+	 * If an exception is thrown, other than due to header or code length mismatch, then this machine state should be discarded.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if serialized header differs from this machine state's header
+	 * @throws IllegalStateException
+	 *             if <tt>codeBytes</tt> length does not match header
+	 * @see #fromBytes(API, LoggerInterface, byte[], byte[])
+	 */
+	public void reset(API api, LoggerInterface logger, byte[] stateBytes, byte[] codeBytes) {
+		if (codeBytes.length != this.codeByteBuffer.capacity())
 			throw new IllegalStateException("Passed codeBytes does not match length in header");
 
-		System.arraycopy(codeBytes, 0, state.codeByteBuffer.array(), 0, codeBytes.length);
+		this.resetState(api, logger, ByteBuffer.wrap(stateBytes));
 
-		byte[] dataBytes = new byte[state.dataByteBuffer.capacity()];
-		byteBuffer.get(dataBytes);
-		System.arraycopy(dataBytes, 0, state.dataByteBuffer.array(), 0, dataBytes.length);
+		if (!this.ownsCodeBytes) {
+			this.codeByteBuffer = ByteBuffer.allocate(codeBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+			this.ownsCodeBytes = true;
+			this.codeSegment = null;
+		} else if (Arrays.equals(this.codeByteBuffer.array(), codeBytes)) {
+			return;
+		}
+
+		System.arraycopy(codeBytes, 0, this.codeByteBuffer.array(), 0, codeBytes.length);
+		this.clearCodeCaches();
+	}
+
+	/**
+	 * Re-initializes this machine state from a previously serialized machine state, read from <tt>byteBuffer</tt>'s current position,
+	 * which is advanced past read bytes, using shared code segment.
+	 * <p>
+	 * As {@link #reset(API, LoggerInterface, byte[], byte[])}, but code bytes, and their decoded and compiled forms,
+	 * are shared with all other machine states using <tt>codeSegment</tt>.
+	 *
+	 * @see #fromBytes(API, LoggerInterface, ByteBuffer, CodeSegment)
+	 */
+	public void reset(API api, LoggerInterface logger, ByteBuffer byteBuffer, CodeSegment codeSegment) {
+		if (codeSegment.length() != this.codeByteBuffer.capacity())
+			throw new IllegalStateException("Passed codeSegment does not match length in header");
+
+		this.resetState(api, logger, byteBuffer);
+
+		if (codeSegment == this.codeSegment)
+			return;
+
+		this.codeByteBuffer = codeSegment.newCodeByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+		this.ownsCodeBytes = false;
+		this.codeSegment = codeSegment;
+		this.clearCodeCaches();
+	}
+
+	/** Returns whether serialized machine state, starting at <tt>byteBuffer</tt>'s current position, has same header as this machine state */
+	/* package */ boolean hasSameHeader(ByteBuffer byteBuffer) {
+		int position = byteBuffer.position();
+		if (byteBuffer.limit() - position < HEADER_LENGTH)
+			return false;
+
+		for (int i = 0; i < HEADER_LENGTH; ++i)
+			if (byteBuffer.get(position + i) != this.headerBytes[i])
+				return false;
+
+		return true;
+	}
+
+	/** Reads serialized state, after checking header, into existing data segment and stacks, clearing anything not serialized */
+	private void resetState(API api, LoggerInterface logger, ByteBuffer byteBuffer) {
+		if (!this.hasSameHeader(byteBuffer))
+			throw new IllegalArgumentException("Serialized header does not match machine state's header");
+
+		this.api = api;
+		this.logger = logger;
+
+		// Optional values are only read if present, and A/B only if non-zero
+		this.onErrorAddress = null;
+		this.sleepUntilHeight = null;
+		this.frozenBalance = null;
+
+		this.a1 = this.a2 = this.a3 = this.a4 = 0;
+		this.b1 = this.b2 = this.b3 = this.b4 = 0;
+
+		this.currentBlockHeight = 0;
+		this.currentBalance = 0;
+		this.steps = 0;
+		this.isFirstOpCodeAfterSleeping = false;
+
+		ByteOrder originalOrder = byteBuffer.order();
+		byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		try {
+			byteBuffer.position(byteBuffer.position() + HEADER_LENGTH);
+
+			readState(this, byteBuffer);
+		} finally {
+			byteBuffer.order(originalOrder);
+		}
+
+		// Unused stack entries are never serialized, but zero them so nothing from previous AT remains
+		Arrays.fill(this.callStack, 0, this.callStackPointer, 0);
+		Arrays.fill(this.userStack, 0, this.userStackPointer, 0L);
+	}
+
+	/** Returns code segment that holds decoded/compiled forms of code, looking up code segment with same content if not using one already */
+	private CodeSegment getSharedCodeSegment() {
+		if (this.codeSegment != null)
+			return this.codeSegment;
+
+		if (this.contentCodeSegment == null)
+			this.contentCodeSegment = CodeSegment.of(this.codeByteBuffer.array());
+
+		return this.contentCodeSegment;
+	}
+
+	/** Discards decoded/compiled forms of previous code */
+	private void clearCodeCaches() {
+		this.contentCodeSegment = null;
+		this.decodedCode = null;
+		this.compiledCode = null;
+		this.blockSteps = null;
+	}
+
+	/** Restores machine state, created from header bytes by <tt>stateFactory</tt>, from <tt>byteBuffer</tt> */
+	private static MachineState fromByteBuffer(ByteBuffer byteBuffer, Function<byte[], MachineState> stateFactory) {
+		ByteOrder originalOrder = byteBuffer.order();
+		byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		try {
+			byte[] headerBytes = new byte[HEADER_LENGTH];
+			byteBuffer.get(headerBytes);
+
+			MachineState state = stateFactory.apply(headerBytes);
+
+			readState(state, byteBuffer);
+
+			return state;
+		} finally {
+			byteBuffer.order(originalOrder);
+		}
+	}
+
+	/** Reads data segment onwards, from little-endian <tt>byteBuffer</tt> */
+	private static void readState(MachineState state, ByteBuffer byteBuffer) {
+		byteBuffer.asLongBuffer().get(state.data);
+		byteBuffer.position(byteBuffer.position() + state.data.length * VALUE_SIZE);
 
 		int callStackLength = byteBuffer.getInt();
-		byte[] callStackBytes = new byte[callStackLength];
-		byteBuffer.get(callStackBytes);
-		// Restore call stack pointer, and useful for copy below
-		state.callStackByteBuffer.position(state.callStackByteBuffer.limit() - callStackLength);
+		if (callStackLength < 0 || callStackLength > state.callStack.length * ADDRESS_SIZE || callStackLength % ADDRESS_SIZE != 0)
+			throw new IllegalArgumentException("Invalid call stack length");
+		// Restore call stack pointer
+		state.callStackPointer = state.callStack.length - callStackLength / ADDRESS_SIZE;
 		// Call stack grows downwards so copy to end
-		System.arraycopy(callStackBytes, 0, state.callStackByteBuffer.array(), state.callStackByteBuffer.position(), callStackLength);
+		byteBuffer.asIntBuffer().get(state.callStack, state.callStackPointer, callStackLength / ADDRESS_SIZE);
+		byteBuffer.position(byteBuffer.position() + callStackLength);
 
 		int userStackLength = byteBuffer.getInt();
-		byte[] userStackBytes = new byte[userStackLength];
-		byteBuffer.get(userStackBytes);
-		// Restore user stack pointer, and useful for copy below
-		state.userStackByteBuffer.position(state.userStackByteBuffer.limit() - userStackLength);
+		if (userStackLength < 0 || userStackLength > state.userStack.length * VALUE_SIZE || userStackLength % VALUE_SIZE != 0)
+			throw new IllegalArgumentException("Invalid user stack length");
+		// Restore user stack pointer
+		state.userStackPointer = state.userStack.length - userStackLength / VALUE_SIZE;
 		// User stack grows downwards so copy to end
-		System.arraycopy(userStackBytes, 0, state.userStackByteBuffer.array(), state.userStackByteBuffer.position(), userStackLength);
+		byteBuffer.asLongBuffer().get(state.userStack, state.userStackPointer, userStackLength / VALUE_SIZE);
+		byteBuffer.position(byteBuffer.position() + userStackLength);
 
 		// Actual state
 		state.programCounter = byteBuffer.getInt();
@@ -648,8 +1360,6 @@ public class MachineState {
 			state.b3 = byteBuffer.getLong();
 			state.b4 = byteBuffer.getLong();
 		}
-
-		return state;
 	}
 
 	/** Class for pushing/popping boolean flags onto/from an int */
@@ -680,15 +1390,22 @@ public class MachineState {
 		}
 	}
 
-	/** Convert int to little-endian byte array */
-	private byte[] toByteArray(int value) {
-		return new byte[] { (byte) (value), (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24) };
-	}
+	/** Fill longs from little-endian bytes, with any trailing partial long taken as its low-order bytes */
+	private static void fromByteArray(byte[] bytes, int offset, int length, long[] values) {
+		ByteBuffer byteBuffer = ByteBuffer.wrap(bytes, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+
+		int wholeValues = length / VALUE_SIZE;
+		byteBuffer.asLongBuffer().get(values, 0, wholeValues);
+		byteBuffer.position(offset + wholeValues * VALUE_SIZE);
+
+		if (!byteBuffer.hasRemaining())
+			return;
+
+		long value = 0;
+		for (int shift = 0; byteBuffer.hasRemaining(); shift += 8)
+			value |= (byteBuffer.get() & 0xffL) << shift;
 
-	/** Convert long to little-endian byte array */
-	private byte[] toByteArray(long value) {
-		return new byte[] { (byte) (value), (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24), (byte) (value >> 32), (byte) (value >> 40),
-				(byte) (value >> 48), (byte) (value >> 56) };
+		values[wholeValues] = value;
 	}
 
 	/**
@@ -733,38 +1450,95 @@ public class MachineState {
 		this.frozenBalance = null;
 
 		// Cache useful info from API
-		long feePerStep = this.api.getFeePerStep();
-		int maxSteps = api.getMaxStepsPerRound();
+		this.feePerStep = this.api.getFeePerStep();
+		this.maxSteps = api.getMaxStepsPerRound();
+
+		// Saves building per-OpCode debug messages only for logger to discard them
+		this.isDebugEnabled = this.logger.isDebugEnabled();
+		boolean useSwitchEngine = this.executionEngine == ExecutionEngine.SWITCH;
+
+		// Cache OpCode step costs for this round, saving an API call per OpCode executed
+		for (OpCode opCode : ALL_OPCODES)
+			this.opCodeSteps[opCode.value & 0xff] = this.api.getOpCodeSteps(opCode);
+
+		// Code is read-only so only needs decoding once for all ATs with the same code, even if each is restored every block
+		if (this.decodedCode == null)
+			this.decodedCode = this.getSharedCodeSegment().getDecodedCode(getDataLength());
+
+		// Basic block totals depend on this round's step costs
+		this.blockSteps = this.decodedCode.getBlockSteps(this.opCodeSteps);
+
+		// Largest block that can be checked without block fee overflowing, or -1 to always check per OpCode
+		this.maxBlockSteps = this.feePerStep > 0 ? Long.MAX_VALUE / this.feePerStep : (this.feePerStep == 0 ? Long.MAX_VALUE : -1);
+
+		// Compiled code is shared by all ATs with the same code
+		if (this.executionEngine == ExecutionEngine.COMPILED && this.compiledCode == null)
+			this.compiledCode = this.getSharedCodeSegment().getCompiledCode(getDataLength());
+
+		boolean useCompiledCode = this.executionEngine == ExecutionEngine.COMPILED && this.compiledCode != null;
+
+		// Whether current OpCode is within a basic block whose steps and fees have already been checked
+		boolean isBlockChecked = false;
 
 		// Set byte buffer position using program counter
 		codeByteBuffer.position(this.programCounter);
 
 		while (!this.isSleeping && !this.isStopped && !this.isFinished && !this.isFrozen) {
-			byte rawOpCode = codeByteBuffer.get();
-			OpCode nextOpCode = OpCode.valueOf(rawOpCode);
+			if (useCompiledCode && !this.isFirstOpCodeAfterSleeping && this.compiledCode.isEntryPoint(this.programCounter)) {
+				// Run compiled code until it reaches something it can't handle, which is then executed below
+				try {
+					this.compiledCode.execute(this);
+				} catch (ExecutionException e) {
+					isBlockChecked = false;
+
+					if (handleExecutionException(e))
+						break;
+
+					continue;
+				}
+
+				isBlockChecked = false;
+			}
+
+			// Use pre-decoded form if possible, otherwise fall back to byte-level path
+			OpCode nextOpCode = this.decodedCode.getOpCode(this.programCounter);
+			boolean isDecoded = nextOpCode != null;
+
+			byte rawOpCode = 0;
+			if (!isDecoded) {
+				rawOpCode = codeByteBuffer.get();
+				nextOpCode = OpCode.valueOf(rawOpCode);
+			}
 
 			try {
 				if (nextOpCode == null)
-					throw new IllegalOperationException("OpCode 0x" + String.format("%02x", rawOpCode) + " not recognised");
+					throw ExecutionErrors.illegalOperation("OpCode 0x" + String.format("%02x", rawOpCode) + " not recognised");
 
-				this.logger.debug("[PC: " + String.format("%04x", this.programCounter) + "] " + nextOpCode.name());
+				logOpCode(nextOpCode);
 
 				// Request opcode step-fee from API, apply fee to balance, etc.
-				int opcodeSteps = this.api.getOpCodeSteps(nextOpCode);
-				long opcodeFee = opcodeSteps * feePerStep;
-
-				if (this.steps + opcodeSteps > maxSteps) {
-					logger.debug("Enforced sleep due to exceeding maximum number of steps (" + maxSteps + ") per execution round");
-					this.isSleeping = true;
-					break;
-				}
-
-				if (this.currentBalance < opcodeFee) {
-					// Not enough balance left to continue execution - freeze AT
-					logger.debug("Frozen due to lack of balance");
-					this.isFrozen = true;
-					this.frozenBalance = this.currentBalance;
-					break;
+				int opcodeSteps = this.opCodeSteps[nextOpCode.value & 0xff];
+				long opcodeFee = opcodeSteps * this.feePerStep;
+
+				if (!isDecoded)
+					isBlockChecked = false;
+				else if (!isBlockChecked)
+					isBlockChecked = isBlockAffordable(this.programCounter);
+
+				if (!isBlockChecked) {
+					if (this.steps + opcodeSteps > this.maxSteps) {
+						logger.debug("Enforced sleep due to exceeding maximum number of steps (" + this.maxSteps + ") per execution round");
+						this.isSleeping = true;
+						break;
+					}
+
+					if (this.currentBalance < opcodeFee) {
+						// Not enough balance left to continue execution - freeze AT
+						logger.debug("Frozen due to lack of balance");
+						this.isFrozen = true;
+						this.frozenBalance = this.currentBalance;
+						break;
+					}
 				}
 
 				// Apply opcode step-fee
@@ -772,24 +1546,26 @@ public class MachineState {
 				this.steps += opcodeSteps;
 
 				// At this point, programCounter is BEFORE opcode (and args).
-				nextOpCode.execute(this);
+				if (!isDecoded) {
+					nextOpCode.execute(this);
+				} else if (useSwitchEngine && this.decodedCode.isVerified[this.programCounter]) {
+					// Position codeByteBuffer after opcode and args, as if they had been read
+					codeByteBuffer.position(this.decodedCode.nextProgramCounters[this.programCounter]);
+					SwitchEngine.execute(this, this.decodedCode, this.programCounter);
+				} else {
+					executeDecodedOpCode(nextOpCode);
+				}
 
 				// Synchronize programCounter with codeByteBuffer in case of JMPs, branches, etc.
 				this.programCounter = codeByteBuffer.position();
-			} catch (ExecutionException e) {
-				this.logger.debug("Error at PC " + String.format("%04x", this.programCounter) + ": " + e.getMessage());
 
-				if (this.onErrorAddress == null) {
-					this.isFinished = true;
-					this.hadFatalError = true;
+				if (DecodedCode.isBlockEnd(nextOpCode))
+					isBlockChecked = false;
+			} catch (ExecutionException e) {
+				isBlockChecked = false;
 
-					// Notify API that there was an error
-					this.api.onFatalError(this, e);
+				if (handleExecutionException(e))
 					break;
-				}
-
-				this.programCounter = this.onErrorAddress;
-				codeByteBuffer.position(this.programCounter);
 			}
 
 			// No longer true
@@ -836,7 +1612,7 @@ public class MachineState {
 			if (output.length() != 0)
 				output.append("\n");
 
-			output.append(String.format("[PC: %04x] %s", codeByteBuffer.position() - 1,nextOpCode.disassemble(codeByteBuffer, dataByteBuffer)));
+			output.append(String.format("[PC: %04x] %s", codeByteBuffer.position() - 1,nextOpCode.disassemble(codeByteBuffer, getDataLength())));
 		}
 
 		return output.toString();
@@ -0,0 +1,117 @@
+package org.ciyam.at;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of idle machine states, reused to restore other ATs' serialized machine states instead of allocating new machine states.
+ * <p>
+ * A machine state can only be reused for serialized states with an identical header, e.g. ATs deployed from the same template,
+ * so idle machine states are searched for one with a matching header. If none match, a new machine state is restored as usual.
+ * <p>
+ * Typical use by a worker thread, per AT:
+ * <ol>
+ * <li><tt>state = pool.acquire(api, logger, byteBuffer, codeSegment)</tt></li>
+ * <li><tt>state.execute()</tt></li>
+ * <li><tt>state.writeTo(outputBuffer)</tt></li>
+ * <li><tt>pool.release(state)</tt></li>
+ * </ol>
+ * Callers must not use a machine state after releasing it.
+ * <p>
+ * Not thread-safe, so use one pool per thread.
+ *
+ * @see MachineState#reset(API, LoggerInterface, ByteBuffer, CodeSegment)
+ */
+public class MachineStatePool {
+
+	private final int maxIdle;
+	private final List<MachineState> idleStates;
+
+	/**
+	 * @param maxIdle
+	 *            maximum number of idle machine states kept for reuse
+	 */
+	public MachineStatePool(int maxIdle) {
+		if (maxIdle < 0)
+			throw new IllegalArgumentException("maxIdle must be >= 0");
+
+		this.maxIdle = maxIdle;
+		this.idleStates = new ArrayList<>(maxIdle);
+	}
+
+	/**
+	 * Returns machine state restored from <tt>stateBytes</tt>, reusing an idle machine state if possible.
+	 *
+	 * @see MachineState#fromBytes(API, LoggerInterface, byte[], byte[])
+	 */
+	public MachineState acquire(API api, LoggerInterface logger, byte[] stateBytes, byte[] codeBytes) {
+		MachineState state = this.takeIdle(ByteBuffer.wrap(stateBytes));
+		if (state == null)
+			return MachineState.fromBytes(api, logger, stateBytes, codeBytes);
+
+		state.reset(api, logger, stateBytes, codeBytes);
+		return state;
+	}
+
+	/**
+	 * Returns machine state restored from <tt>byteBuffer</tt>'s current position, which is advanced past read bytes,
+	 * reusing an idle machine state if possible.
+	 *
+	 * @see MachineState#fromBytes(API, LoggerInterface, ByteBuffer, CodeSegment)
+	 */
+	public MachineState acquire(API api, LoggerInterface logger, ByteBuffer byteBuffer, CodeSegment codeSegment) {
+		MachineState state = this.takeIdle(byteBuffer);
+		if (state == null)
+			return MachineState.fromBytes(api, logger, byteBuffer, codeSegment);
+
+		state.reset(api, logger, byteBuffer, codeSegment);
+		return state;
+	}
+
+	/**
+	 * Returns machine state to pool for reuse, or discards it if pool already has <tt>maxIdle</tt> idle machine states.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if machine state is already idle in this pool
+	 */
+	public void release(MachineState state) {
+		for (MachineState idleState : this.idleStates)
+			if (idleState == state)
+				throw new IllegalArgumentException("Machine state already released");
+
+		if (this.idleStates.size() >= this.maxIdle)
+			return;
+
+		// Don't keep platform objects reachable while idle
+		state.setAPI(null);
+		state.setLogger(null);
+
+		this.idleStates.add(state);
+	}
+
+	/** Returns number of idle machine states */
+	public int idleCount() {
+		return this.idleStates.size();
+	}
+
+	/** Removes and returns idle machine state with same header as serialized state, or null if none */
+	private MachineState takeIdle(ByteBuffer byteBuffer) {
+		// Most recently released first, as more likely to share code
+		for (int i = this.idleStates.size() - 1; i >= 0; --i) {
+			MachineState state = this.idleStates.get(i);
+
+			if (state.hasSameHeader(byteBuffer)) {
+				// Swap with last to avoid shifting
+				int lastIndex = this.idleStates.size() - 1;
+				this.idleStates.set(i, this.idleStates.get(lastIndex));
+				this.idleStates.remove(lastIndex);
+
+				return state;
+			}
+		}
+
+		return null;
+	}
+
+}
@@ -0,0 +1,68 @@
+package org.ciyam.at;
+
+/**
+ * Execution status of a serialized machine state, as filled in by <tt>MachineState.peekStatus()</tt> without restoring the machine state.
+ * <p>
+ * Instances are mutable and can be reused for many peeks, so platforms can check which ATs need executing without allocating.
+ * Sleep-until height and frozen balance are optional, so are accompanied by <tt>hasSleepUntilHeight()</tt> and <tt>hasFrozenBalance()</tt>
+ * instead of being boxed.
+ */
+public final class MachineStateStatus {
+
+	/* package */ short version;
+
+	/* package */ boolean isSleeping;
+	/* package */ boolean isStopped;
+	/* package */ boolean isFinished;
+	/* package */ boolean hadFatalError;
+	/* package */ boolean isFrozen;
+
+	/* package */ boolean hasSleepUntilHeight;
+	/* package */ int sleepUntilHeight;
+
+	/* package */ boolean hasFrozenBalance;
+	/* package */ long frozenBalance;
+
+	public short getVersion() {
+		return this.version;
+	}
+
+	public boolean getIsSleeping() {
+		return this.isSleeping;
+	}
+
+	public boolean getIsStopped() {
+		return this.isStopped;
+	}
+
+	public boolean getIsFinished() {
+		return this.isFinished;
+	}
+
+	public boolean getHadFatalError() {
+		return this.hadFatalError;
+	}
+
+	public boolean getIsFrozen() {
+		return this.isFrozen;
+	}
+
+	public boolean hasSleepUntilHeight() {
+		return this.hasSleepUntilHeight;
+	}
+
+	/** Returns sleep-until height, only valid if {@link #hasSleepUntilHeight()} */
+	public int getSleepUntilHeight() {
+		return this.sleepUntilHeight;
+	}
+
+	public boolean hasFrozenBalance() {
+		return this.hasFrozenBalance;
+	}
+
+	/** Returns frozen balance, only valid if {@link #hasFrozenBalance()} */
+	public long getFrozenBalance() {
+		return this.frozenBalance;
+	}
+
+}
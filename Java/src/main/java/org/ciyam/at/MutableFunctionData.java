@@ -0,0 +1,55 @@
+package org.ciyam.at;
+
+/**
+ * Function call params and return value, as primitive <tt>long</tt>s, reused across calls.
+ * <p>
+ * Each <tt>MachineState</tt> owns one instance, which <tt>EXT_FUN*</tt> OpCodes reset for each function call,
+ * so function calls don't allocate, unlike <tt>FunctionData</tt> with its boxed values.
+ * <p>
+ * Only valid for the duration of a function call, so do not keep references to it.
+ *
+ * @see FunctionData
+ * @see API#platformSpecificPostCheckExecute(MutableFunctionData, MachineState, short)
+ */
+public class MutableFunctionData {
+	public int paramCount;
+	public long value1;
+	public long value2;
+	public boolean returnValueExpected;
+	public long returnValue;
+	public boolean hasReturnValue;
+
+	/* package */ MutableFunctionData() {
+	}
+
+	/** Prepares for next function call, clearing any previous return value */
+	/* package */ MutableFunctionData reset(int paramCount, long value1, long value2, boolean returnValueExpected) {
+		this.paramCount = paramCount;
+		this.value1 = value1;
+		this.value2 = value2;
+		this.returnValueExpected = returnValueExpected;
+		this.returnValue = 0L;
+		this.hasReturnValue = false;
+		return this;
+	}
+
+	/** Sets function's return value */
+	public void setReturnValue(long returnValue) {
+		this.returnValue = returnValue;
+		this.hasReturnValue = true;
+	}
+
+	/** Returns boxed copy of params, for APIs that only support <tt>FunctionData</tt> */
+	/* package */ FunctionData toFunctionData() {
+		switch (this.paramCount) {
+			case 0:
+				return new FunctionData(this.returnValueExpected);
+
+			case 1:
+				return new FunctionData(this.value1, this.returnValueExpected);
+
+			default:
+				return new FunctionData(this.value1, this.value2, this.returnValueExpected);
+		}
+	}
+}
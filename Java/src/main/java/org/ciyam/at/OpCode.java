@@ -1,12 +1,6 @@
 package org.ciyam.at;
 
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * This enum contains op codes for the CIYAM AT machine.
@@ -28,7 +22,7 @@ import java.util.stream.Collectors;
  * <tt>$($addr1 + $addr2)</tt> means "fetch from address fetched from <tt>addr1</tt> plus offset fetched from <tt>addr2</tt>", i.e. indirect indexed
  * 
  * @see OpCode#valueOf(int)
- * @see OpCode#executeWithParams(MachineState, Object...)
+ * @see OpCode#executeWithParams(MachineState, int[], long)
  */
 public enum OpCode {
 
@@ -39,7 +33,7 @@ public enum OpCode {
 	 */
 	NOP(0x7f) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) {
 			// Do nothing
 		}
 	},
@@ -50,11 +44,10 @@ public enum OpCode {
 	 */
 	SET_VAL(0x01, OpCodeParam.DEST_ADDR, OpCodeParam.VALUE) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address = (int) args[0];
-			long value = (long) args[1];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address = args[0];
 
-			state.dataByteBuffer.putLong(address, value);
+			state.data[address / MachineState.VALUE_SIZE] = immediateValue;
 		}
 	},
 	/**
@@ -64,12 +57,12 @@ public enum OpCode {
 	 */
 	SET_DAT(0x02, OpCodeParam.DEST_ADDR, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address1 = (int) args[0];
-			int address2 = (int) args[1];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address1 = args[0];
+			int address2 = args[1];
 
-			long value = state.dataByteBuffer.getLong(address2);
-			state.dataByteBuffer.putLong(address1, value);
+			long value = state.data[address2 / MachineState.VALUE_SIZE];
+			state.data[address1 / MachineState.VALUE_SIZE] = value;
 		}
 	},
 	/**
@@ -79,10 +72,10 @@ public enum OpCode {
 	 */
 	CLR_DAT(0x03, OpCodeParam.DEST_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address = (int) args[0];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address = args[0];
 
-			state.dataByteBuffer.putLong(address, 0L);
+			state.data[address / MachineState.VALUE_SIZE] = 0L;
 		}
 	},
 	/**
@@ -92,11 +85,11 @@ public enum OpCode {
 	 */
 	INC_DAT(0x04, OpCodeParam.DEST_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address = (int) args[0];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address = args[0];
 
-			long value = state.dataByteBuffer.getLong(address);
-			state.dataByteBuffer.putLong(address, value + 1);
+			long value = state.data[address / MachineState.VALUE_SIZE];
+			state.data[address / MachineState.VALUE_SIZE] = value + 1;
 		}
 	},
 	/**
@@ -106,11 +99,11 @@ public enum OpCode {
 	 */
 	DEC_DAT(0x05, OpCodeParam.DEST_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address = (int) args[0];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address = args[0];
 
-			long value = state.dataByteBuffer.getLong(address);
-			state.dataByteBuffer.putLong(address, value - 1);
+			long value = state.data[address / MachineState.VALUE_SIZE];
+			state.data[address / MachineState.VALUE_SIZE] = value - 1;
 		}
 	},
 	/**
@@ -120,7 +113,7 @@ public enum OpCode {
 	 */
 	ADD_DAT(0x06, OpCodeParam.DEST_ADDR, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			executeDataOperation(state, (a, b) -> a + b, args);
 		}
 	},
@@ -131,7 +124,7 @@ public enum OpCode {
 	 */
 	SUB_DAT(0x07, OpCodeParam.DEST_ADDR, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			executeDataOperation(state, (a, b) -> a - b, args);
 		}
 	},
@@ -142,7 +135,7 @@ public enum OpCode {
 	 */
 	MUL_DAT(0x08, OpCodeParam.DEST_ADDR, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			executeDataOperation(state, (a, b) -> a * b, args);
 		}
 	},
@@ -154,12 +147,12 @@ public enum OpCode {
 	 */
 	DIV_DAT(0x09, OpCodeParam.DEST_ADDR, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			try {
-				executeDataOperation(state, (a, b) -> a / b, args);
-			} catch (ArithmeticException e) {
-				throw new IllegalOperationException("Divide by zero", e);
-			}
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			// Check divisor explicitly, rather than catching ArithmeticException
+			if (state.data[args[1] / MachineState.VALUE_SIZE] == 0)
+				throw ExecutionErrors.DIVIDE_BY_ZERO;
+
+			executeDataOperation(state, (a, b) -> a / b, args);
 		}
 	},
 	/**
@@ -169,7 +162,7 @@ public enum OpCode {
 	 */
 	BOR_DAT(0x0a, OpCodeParam.DEST_ADDR, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			executeDataOperation(state, (a, b) -> a | b, args);
 		}
 	},
@@ -180,7 +173,7 @@ public enum OpCode {
 	 */
 	AND_DAT(0x0b, OpCodeParam.DEST_ADDR, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			executeDataOperation(state, (a, b) -> a & b, args);
 		}
 	},
@@ -191,7 +184,7 @@ public enum OpCode {
 	 */
 	XOR_DAT(0x0c, OpCodeParam.DEST_ADDR, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			executeDataOperation(state, (a, b) -> a ^ b, args);
 		}
 	},
@@ -202,11 +195,11 @@ public enum OpCode {
 	 */
 	NOT_DAT(0x0d, OpCodeParam.DEST_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address = (int) args[0];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address = args[0];
 
-			long value = state.dataByteBuffer.getLong(address);
-			state.dataByteBuffer.putLong(address, ~value);
+			long value = state.data[address / MachineState.VALUE_SIZE];
+			state.data[address / MachineState.VALUE_SIZE] = ~value;
 		}
 	},
 	/**
@@ -216,17 +209,17 @@ public enum OpCode {
 	 */
 	SET_IND(0x0e, OpCodeParam.DEST_ADDR, OpCodeParam.INDIRECT_SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address1 = (int) args[0];
-			int address2 = (int) args[1];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address1 = args[0];
+			int address2 = args[1];
 
-			long address3 = state.dataByteBuffer.getLong(address2) * MachineState.VALUE_SIZE;
+			long address3 = state.data[address2 / MachineState.VALUE_SIZE] * MachineState.VALUE_SIZE;
 
-			if (address3 < 0 || address3 + MachineState.VALUE_SIZE >= state.dataByteBuffer.limit())
-				throw new InvalidAddressException("Data address out of bounds");
+			if (address3 < 0 || address3 + MachineState.VALUE_SIZE >= state.getDataLength())
+				throw ExecutionErrors.DATA_ADDRESS_OUT_OF_BOUNDS;
 
-			long value = state.dataByteBuffer.getLong((int) address3);
-			state.dataByteBuffer.putLong(address1, value);
+			long value = state.data[(int) address3 / MachineState.VALUE_SIZE];
+			state.data[address1 / MachineState.VALUE_SIZE] = value;
 		}
 	},
 	/**
@@ -236,21 +229,21 @@ public enum OpCode {
 	 */
 	SET_IDX(0x0f, OpCodeParam.DEST_ADDR, OpCodeParam.INDIRECT_SRC_ADDR_WITH_INDEX, OpCodeParam.INDEX) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address1 = (int) args[0];
-			int address2 = (int) args[1];
-			int address3 = (int) args[2];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address1 = args[0];
+			int address2 = args[1];
+			int address3 = args[2];
 
-			long baseAddress = state.dataByteBuffer.getLong(address2) * MachineState.VALUE_SIZE;
-			long offset = state.dataByteBuffer.getLong(address3) * MachineState.VALUE_SIZE;
+			long baseAddress = state.data[address2 / MachineState.VALUE_SIZE] * MachineState.VALUE_SIZE;
+			long offset = state.data[address3 / MachineState.VALUE_SIZE] * MachineState.VALUE_SIZE;
 
 			long newAddress = baseAddress + offset;
 
-			if (newAddress < 0 || newAddress + MachineState.VALUE_SIZE >= state.dataByteBuffer.limit())
-				throw new InvalidAddressException("Data address out of bounds");
+			if (newAddress < 0 || newAddress + MachineState.VALUE_SIZE >= state.getDataLength())
+				throw ExecutionErrors.DATA_ADDRESS_OUT_OF_BOUNDS;
 
-			long value = state.dataByteBuffer.getLong((int) newAddress);
-			state.dataByteBuffer.putLong(address1, value);
+			long value = state.data[(int) newAddress / MachineState.VALUE_SIZE];
+			state.data[address1 / MachineState.VALUE_SIZE] = value;
 		}
 	},
 	/**
@@ -261,19 +254,16 @@ public enum OpCode {
 	 */
 	PSH_DAT(0x10, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address = (int) args[0];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address = args[0];
 
-			long value = state.dataByteBuffer.getLong(address);
+			long value = state.data[address / MachineState.VALUE_SIZE];
 
-			try {
-				// Simulate backwards-walking stack
-				int newPosition = state.userStackByteBuffer.position() - MachineState.VALUE_SIZE;
-				state.userStackByteBuffer.putLong(newPosition, value);
-				state.userStackByteBuffer.position(newPosition);
-			} catch (IndexOutOfBoundsException | IllegalArgumentException e) {
-				throw new StackBoundsException("No room on user stack to push data", e);
-			}
+			if (state.userStackPointer == 0)
+				throw ExecutionErrors.USER_STACK_FULL;
+
+			// Backwards-walking stack
+			state.userStack[--state.userStackPointer] = value;
 		}
 	},
 	/**
@@ -284,20 +274,19 @@ public enum OpCode {
 	 */
 	POP_DAT(0x11, OpCodeParam.DEST_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address = (int) args[0];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address = args[0];
 
-			try {
-				long value = state.userStackByteBuffer.getLong();
+			if (state.userStackPointer == state.userStack.length)
+				throw ExecutionErrors.USER_STACK_EMPTY;
 
-				// Clear old stack entry
-				state.userStackByteBuffer.putLong(state.userStackByteBuffer.position() - MachineState.VALUE_SIZE, 0L);
+			long value = state.userStack[state.userStackPointer];
 
-				// Put popped value into data address
-				state.dataByteBuffer.putLong(address, value);
-			} catch (BufferUnderflowException e) {
-				throw new StackBoundsException("Empty user stack from which to pop data", e);
-			}
+			// Clear old stack entry
+			state.userStack[state.userStackPointer++] = 0L;
+
+			// Put popped value into data address
+			state.data[address / MachineState.VALUE_SIZE] = value;
 		}
 	},
 	/**
@@ -308,17 +297,14 @@ public enum OpCode {
 	 */
 	JMP_SUB(0x12, OpCodeParam.CODE_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address = (int) args[0];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address = args[0];
 
-			try {
-				// Simulate backwards-walking stack
-				int newPosition = state.callStackByteBuffer.position() - MachineState.ADDRESS_SIZE;
-				state.callStackByteBuffer.putInt(newPosition, state.codeByteBuffer.position());
-				state.callStackByteBuffer.position(newPosition);
-			} catch (IndexOutOfBoundsException | IllegalArgumentException e) {
-				throw new StackBoundsException("No room on call stack to call subroutine", e);
-			}
+			if (state.callStackPointer == 0)
+				throw ExecutionErrors.CALL_STACK_FULL;
+
+			// Backwards-walking stack
+			state.callStack[--state.callStackPointer] = state.codeByteBuffer.position();
 
 			state.codeByteBuffer.position(address);
 		}
@@ -331,17 +317,16 @@ public enum OpCode {
 	 */
 	RET_SUB(0x13) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			try {
-				int returnAddress = state.callStackByteBuffer.getInt();
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			if (state.callStackPointer == state.callStack.length)
+				throw ExecutionErrors.CALL_STACK_EMPTY;
 
-				// Clear old stack entry
-				state.callStackByteBuffer.putInt(state.callStackByteBuffer.position() - MachineState.ADDRESS_SIZE, 0);
+			int returnAddress = state.callStack[state.callStackPointer];
 
-				state.codeByteBuffer.position(returnAddress);
-			} catch (BufferUnderflowException e) {
-				throw new StackBoundsException("Empty call stack missing return address from subroutine", e);
-			}
+			// Clear old stack entry
+			state.callStack[state.callStackPointer++] = 0;
+
+			state.codeByteBuffer.position(returnAddress);
 		}
 	},
 	/**
@@ -351,17 +336,17 @@ public enum OpCode {
 	 */
 	IND_DAT(0x14, OpCodeParam.INDIRECT_DEST_ADDR, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address1 = (int) args[0];
-			int address2 = (int) args[1];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address1 = args[0];
+			int address2 = args[1];
 
-			long address3 = state.dataByteBuffer.getLong(address1) * MachineState.VALUE_SIZE;
+			long address3 = state.data[address1 / MachineState.VALUE_SIZE] * MachineState.VALUE_SIZE;
 
-			if (address3 < 0 || address3 + MachineState.VALUE_SIZE >= state.dataByteBuffer.limit())
-				throw new InvalidAddressException("Data address out of bounds");
+			if (address3 < 0 || address3 + MachineState.VALUE_SIZE >= state.getDataLength())
+				throw ExecutionErrors.DATA_ADDRESS_OUT_OF_BOUNDS;
 
-			long value = state.dataByteBuffer.getLong(address2);
-			state.dataByteBuffer.putLong((int) address3, value);
+			long value = state.data[address2 / MachineState.VALUE_SIZE];
+			state.data[(int) address3 / MachineState.VALUE_SIZE] = value;
 		}
 	},
 	/**
@@ -371,21 +356,21 @@ public enum OpCode {
 	 */
 	IDX_DAT(0x15, OpCodeParam.INDIRECT_DEST_ADDR_WITH_INDEX, OpCodeParam.INDEX, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address1 = (int) args[0];
-			int address2 = (int) args[1];
-			int address3 = (int) args[2];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address1 = args[0];
+			int address2 = args[1];
+			int address3 = args[2];
 
-			long baseAddress = state.dataByteBuffer.getLong(address1) * MachineState.VALUE_SIZE;
-			long offset = state.dataByteBuffer.getLong(address2) * MachineState.VALUE_SIZE;
+			long baseAddress = state.data[address1 / MachineState.VALUE_SIZE] * MachineState.VALUE_SIZE;
+			long offset = state.data[address2 / MachineState.VALUE_SIZE] * MachineState.VALUE_SIZE;
 
 			long newAddress = baseAddress + offset;
 
-			if (newAddress < 0 || newAddress + MachineState.VALUE_SIZE >= state.dataByteBuffer.limit())
-				throw new InvalidAddressException("Data address out of bounds");
+			if (newAddress < 0 || newAddress + MachineState.VALUE_SIZE >= state.getDataLength())
+				throw ExecutionErrors.DATA_ADDRESS_OUT_OF_BOUNDS;
 
-			long value = state.dataByteBuffer.getLong(address3);
-			state.dataByteBuffer.putLong((int) newAddress, value);
+			long value = state.data[address3 / MachineState.VALUE_SIZE];
+			state.data[(int) newAddress / MachineState.VALUE_SIZE] = value;
 		}
 	},
 	/**
@@ -395,12 +380,12 @@ public enum OpCode {
 	 */
 	MOD_DAT(0x16, OpCodeParam.DEST_ADDR, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			try {
-				executeDataOperation(state, (a, b) -> a % b, args);
-			} catch (ArithmeticException e) {
-				throw new IllegalOperationException("Divide by zero", e);
-			}
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			// Check divisor explicitly, rather than catching ArithmeticException
+			if (state.data[args[1] / MachineState.VALUE_SIZE] == 0)
+				throw ExecutionErrors.DIVIDE_BY_ZERO;
+
+			executeDataOperation(state, (a, b) -> a % b, args);
 		}
 	},
 	/**
@@ -412,7 +397,7 @@ public enum OpCode {
 		private static final long MAX_SHIFT = MachineState.VALUE_SIZE * 8L;
 
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			// If 2nd arg is more than value size (in bits) then return 0 to simulate all bits being shifted out of existence
 			executeDataOperation(state, (a, b) -> b >= MAX_SHIFT ? 0 : a << b, args);
 		}
@@ -427,7 +412,7 @@ public enum OpCode {
 		private static final long MAX_SHIFT = MachineState.VALUE_SIZE * 8L;
 
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			// If 2nd arg is more than value size (in bits) then return 0 to simulate all bits being shifted out of existence
 			executeDataOperation(state, (a, b) -> b >= MAX_SHIFT ? 0 : a >>> b, args);
 		}
@@ -439,8 +424,8 @@ public enum OpCode {
 	 */
 	JMP_ADR(0x1a, OpCodeParam.CODE_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address = (int) args[0];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address = args[0];
 
 			state.codeByteBuffer.position(address);
 		}
@@ -453,16 +438,16 @@ public enum OpCode {
 	 */
 	BZR_DAT(0x1b, OpCodeParam.SRC_ADDR, OpCodeParam.OFFSET) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address = (int) args[0];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address = args[0];
 			byte offset = (byte) args[1];
 
 			int branchTarget = state.getProgramCounter() + offset;
 
 			if (branchTarget < 0 || branchTarget >= state.codeByteBuffer.limit())
-				throw new InvalidAddressException("branch target out of bounds");
+				throw ExecutionErrors.BRANCH_TARGET_OUT_OF_BOUNDS;
 
-			long value = state.dataByteBuffer.getLong(address);
+			long value = state.data[address / MachineState.VALUE_SIZE];
 
 			if (value == 0)
 				state.codeByteBuffer.position(branchTarget);
@@ -476,16 +461,16 @@ public enum OpCode {
 	 */
 	BNZ_DAT(0x1e, OpCodeParam.SRC_ADDR, OpCodeParam.OFFSET) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address = (int) args[0];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address = args[0];
 			byte offset = (byte) args[1];
 
 			int branchTarget = state.getProgramCounter() + offset;
 
 			if (branchTarget < 0 || branchTarget >= state.codeByteBuffer.limit())
-				throw new InvalidAddressException("branch target out of bounds");
+				throw ExecutionErrors.BRANCH_TARGET_OUT_OF_BOUNDS;
 
-			long value = state.dataByteBuffer.getLong(address);
+			long value = state.data[address / MachineState.VALUE_SIZE];
 
 			if (value != 0)
 				state.codeByteBuffer.position(branchTarget);
@@ -499,7 +484,7 @@ public enum OpCode {
 	 */
 	BGT_DAT(0x1f, OpCodeParam.SRC_ADDR, OpCodeParam.SRC_ADDR, OpCodeParam.OFFSET) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			executeBranchConditional(state, (a, b) -> a > b, args);
 		}
 	},
@@ -511,7 +496,7 @@ public enum OpCode {
 	 */
 	BLT_DAT(0x20, OpCodeParam.SRC_ADDR, OpCodeParam.SRC_ADDR, OpCodeParam.OFFSET) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			executeBranchConditional(state, (a, b) -> a < b, args);
 		}
 	},
@@ -523,7 +508,7 @@ public enum OpCode {
 	 */
 	BGE_DAT(0x21, OpCodeParam.SRC_ADDR, OpCodeParam.SRC_ADDR, OpCodeParam.OFFSET) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			executeBranchConditional(state, (a, b) -> a >= b, args);
 		}
 	},
@@ -535,7 +520,7 @@ public enum OpCode {
 	 */
 	BLE_DAT(0x22, OpCodeParam.SRC_ADDR, OpCodeParam.SRC_ADDR, OpCodeParam.OFFSET) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			executeBranchConditional(state, (a, b) -> a <= b, args);
 		}
 	},
@@ -547,7 +532,7 @@ public enum OpCode {
 	 */
 	BEQ_DAT(0x23, OpCodeParam.SRC_ADDR, OpCodeParam.SRC_ADDR, OpCodeParam.OFFSET) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			executeBranchConditional(state, (a, b) -> a == b, args);
 		}
 	},
@@ -559,7 +544,7 @@ public enum OpCode {
 	 */
 	BNE_DAT(0x24, OpCodeParam.SRC_ADDR, OpCodeParam.SRC_ADDR, OpCodeParam.OFFSET) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			executeBranchConditional(state, (a, b) -> a != b, args);
 		}
 	},
@@ -571,8 +556,8 @@ public enum OpCode {
 	 */
 	SLP_DAT(0x25, OpCodeParam.BLOCK_HEIGHT) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address = (int) args[0];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address = args[0];
 
 			long value = state.codeByteBuffer.getLong(address);
 
@@ -587,10 +572,10 @@ public enum OpCode {
 	 */
 	FIZ_DAT(0x26, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address = (int) args[0];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address = args[0];
 
-			long value = state.dataByteBuffer.getLong(address);
+			long value = state.data[address / MachineState.VALUE_SIZE];
 
 			if (value == 0)
 				state.setIsFinished(true);
@@ -603,10 +588,10 @@ public enum OpCode {
 	 */
 	STZ_DAT(0x27, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address = (int) args[0];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address = args[0];
 
-			long value = state.dataByteBuffer.getLong(address);
+			long value = state.data[address / MachineState.VALUE_SIZE];
 
 			if (value == 0) {
 				state.codeByteBuffer.position(state.getOnStopAddress());
@@ -621,7 +606,7 @@ public enum OpCode {
 	 */
 	FIN_IMD(0x28) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			state.setIsFinished(true);
 		}
 	},
@@ -632,7 +617,7 @@ public enum OpCode {
 	 */
 	STP_IMD(0x29) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) {
 			state.setIsStopped(true);
 		}
 	},
@@ -643,7 +628,7 @@ public enum OpCode {
 	 */
 	SLP_IMD(0x2a) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) {
 			state.setSleepUntilHeight(state.getCurrentBlockHeight() + 1);
 			state.setIsSleeping(true);
 		}
@@ -655,8 +640,8 @@ public enum OpCode {
 	 */
 	ERR_ADR(0x2b, OpCodeParam.CODE_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
-			int address = (int) args[0];
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
+			int address = args[0];
 
 			state.setOnErrorAddress(address);
 		}
@@ -669,7 +654,7 @@ public enum OpCode {
 	 */
 	SET_PCS(0x30) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) {
 			state.setOnStopAddress(state.codeByteBuffer.position());
 		}
 	},
@@ -680,17 +665,17 @@ public enum OpCode {
 	 */
 	EXT_FUN(0x32, OpCodeParam.FUNC) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			short rawFunctionCode = (short) args[0];
 
 			FunctionCode functionCode = FunctionCode.valueOf(rawFunctionCode);
 
 			if (functionCode == null)
-				throw new IllegalFunctionCodeException("Unknown function code 0x" + String.format("%04x", rawFunctionCode) + " encountered at EXT_FUN");
+				throw ExecutionErrors.illegalFunctionCode("Unknown function code 0x" + String.format("%04x", rawFunctionCode) + " encountered at EXT_FUN");
 
 			functionCode.preExecuteCheck(0, false, state, rawFunctionCode);
 
-			FunctionData functionData = new FunctionData(false);
+			MutableFunctionData functionData = state.functionData.reset(0, 0L, 0L, false);
 
 			functionCode.execute(functionData, state, rawFunctionCode);
 		}
@@ -702,20 +687,20 @@ public enum OpCode {
 	 */
 	EXT_FUN_DAT(0x33, OpCodeParam.FUNC, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			short rawFunctionCode = (short) args[0];
-			int address = (int) args[1];
+			int address = args[1];
 
 			FunctionCode functionCode = FunctionCode.valueOf(rawFunctionCode);
 
 			if (functionCode == null)
-				throw new IllegalFunctionCodeException("Unknown function code 0x" + String.format("%04x", rawFunctionCode) + " encountered at EXT_FUN_DAT");
+				throw ExecutionErrors.illegalFunctionCode("Unknown function code 0x" + String.format("%04x", rawFunctionCode) + " encountered at EXT_FUN_DAT");
 
 			functionCode.preExecuteCheck(1, false, state, rawFunctionCode);
 
-			long value = state.dataByteBuffer.getLong(address);
+			long value = state.data[address / MachineState.VALUE_SIZE];
 
-			FunctionData functionData = new FunctionData(value, false);
+			MutableFunctionData functionData = state.functionData.reset(1, value, 0L, false);
 
 			functionCode.execute(functionData, state, rawFunctionCode);
 		}
@@ -727,22 +712,22 @@ public enum OpCode {
 	 */
 	EXT_FUN_DAT_2(0x34, OpCodeParam.FUNC, OpCodeParam.SRC_ADDR, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			short rawFunctionCode = (short) args[0];
-			int address1 = (int) args[1];
-			int address2 = (int) args[2];
+			int address1 = args[1];
+			int address2 = args[2];
 
 			FunctionCode functionCode = FunctionCode.valueOf(rawFunctionCode);
 
 			if (functionCode == null)
-				throw new IllegalFunctionCodeException("Unknown function code 0x" + String.format("%04x", rawFunctionCode) + " encountered at EXT_FUN_DAT_2");
+				throw ExecutionErrors.illegalFunctionCode("Unknown function code 0x" + String.format("%04x", rawFunctionCode) + " encountered at EXT_FUN_DAT_2");
 
 			functionCode.preExecuteCheck(2, false, state, rawFunctionCode);
 
-			long value1 = state.dataByteBuffer.getLong(address1);
-			long value2 = state.dataByteBuffer.getLong(address2);
+			long value1 = state.data[address1 / MachineState.VALUE_SIZE];
+			long value2 = state.data[address2 / MachineState.VALUE_SIZE];
 
-			FunctionData functionData = new FunctionData(value1, value2, false);
+			MutableFunctionData functionData = state.functionData.reset(2, value1, value2, false);
 
 			functionCode.execute(functionData, state, rawFunctionCode);
 		}
@@ -754,25 +739,25 @@ public enum OpCode {
 	 */
 	EXT_FUN_RET(0x35, OpCodeParam.FUNC, OpCodeParam.DEST_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			short rawFunctionCode = (short) args[0];
-			int address = (int) args[1];
+			int address = args[1];
 
 			FunctionCode functionCode = FunctionCode.valueOf(rawFunctionCode);
 
 			if (functionCode == null)
-				throw new IllegalFunctionCodeException("Unknown function code 0x" + String.format("%04x", rawFunctionCode) + " encountered at EXT_FUN_RET");
+				throw ExecutionErrors.illegalFunctionCode("Unknown function code 0x" + String.format("%04x", rawFunctionCode) + " encountered at EXT_FUN_RET");
 
 			functionCode.preExecuteCheck(0, true, state, rawFunctionCode);
 
-			FunctionData functionData = new FunctionData(true);
+			MutableFunctionData functionData = state.functionData.reset(0, 0L, 0L, true);
 
 			functionCode.execute(functionData, state, rawFunctionCode);
 
-			if (functionData.returnValue == null)
+			if (!functionData.hasReturnValue)
 				throw new ExecutionException("Function failed to return a value as expected of EXT_FUN_RET");
 
-			state.dataByteBuffer.putLong(address, functionData.returnValue);
+			state.data[address / MachineState.VALUE_SIZE] = functionData.returnValue;
 		}
 	},
 	/**
@@ -782,28 +767,28 @@ public enum OpCode {
 	 */
 	EXT_FUN_RET_DAT(0x36, OpCodeParam.FUNC, OpCodeParam.DEST_ADDR, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			short rawFunctionCode = (short) args[0];
-			int address1 = (int) args[1];
-			int address2 = (int) args[2];
+			int address1 = args[1];
+			int address2 = args[2];
 
 			FunctionCode functionCode = FunctionCode.valueOf(rawFunctionCode);
 
 			if (functionCode == null)
-				throw new IllegalFunctionCodeException("Unknown function code 0x" + String.format("%04x", rawFunctionCode) + " encountered at EXT_FUN_RET_DAT");
+				throw ExecutionErrors.illegalFunctionCode("Unknown function code 0x" + String.format("%04x", rawFunctionCode) + " encountered at EXT_FUN_RET_DAT");
 
 			functionCode.preExecuteCheck(1, true, state, rawFunctionCode);
 
-			long value = state.dataByteBuffer.getLong(address2);
+			long value = state.data[address2 / MachineState.VALUE_SIZE];
 
-			FunctionData functionData = new FunctionData(value, true);
+			MutableFunctionData functionData = state.functionData.reset(1, value, 0L, true);
 
 			functionCode.execute(functionData, state, rawFunctionCode);
 
-			if (functionData.returnValue == null)
+			if (!functionData.hasReturnValue)
 				throw new ExecutionException("Function failed to return a value as expected of EXT_FUN_RET_DAT");
 
-			state.dataByteBuffer.putLong(address1, functionData.returnValue);
+			state.data[address1 / MachineState.VALUE_SIZE] = functionData.returnValue;
 		}
 	},
 	/**
@@ -813,39 +798,46 @@ public enum OpCode {
 	 */
 	EXT_FUN_RET_DAT_2(0x37, OpCodeParam.FUNC, OpCodeParam.DEST_ADDR, OpCodeParam.SRC_ADDR, OpCodeParam.SRC_ADDR) {
 		@Override
-		public void executeWithParams(MachineState state, Object... args) throws ExecutionException {
+		public void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException {
 			short rawFunctionCode = (short) args[0];
-			int address1 = (int) args[1];
-			int address2 = (int) args[2];
-			int address3 = (int) args[3];
+			int address1 = args[1];
+			int address2 = args[2];
+			int address3 = args[3];
 
 			FunctionCode functionCode = FunctionCode.valueOf(rawFunctionCode);
 
 			if (functionCode == null)
-				throw new IllegalFunctionCodeException(
+				throw ExecutionErrors.illegalFunctionCode(
 						"Unknown function code 0x" + String.format("%04x", rawFunctionCode) + " encountered at EXT_FUN_RET_DAT_2");
 
 			functionCode.preExecuteCheck(2, true, state, rawFunctionCode);
 
-			long value1 = state.dataByteBuffer.getLong(address2);
-			long value2 = state.dataByteBuffer.getLong(address3);
+			long value1 = state.data[address2 / MachineState.VALUE_SIZE];
+			long value2 = state.data[address3 / MachineState.VALUE_SIZE];
 
-			FunctionData functionData = new FunctionData(value1, value2, true);
+			MutableFunctionData functionData = state.functionData.reset(2, value1, value2, true);
 
 			functionCode.execute(functionData, state, rawFunctionCode);
 
-			if (functionData.returnValue == null)
+			if (!functionData.hasReturnValue)
 				throw new ExecutionException("Function failed to return a value as expected of EXT_FUN_RET_DAT_2");
 
-			state.dataByteBuffer.putLong(address1, functionData.returnValue);
+			state.data[address1 / MachineState.VALUE_SIZE] = functionData.returnValue;
 		}
 	};
 
+	/** Maximum number of int-sized args per OpCode, e.g. EXT_FUN_RET_DAT_2 has function code and 3 data addresses */
+	public static final int MAX_ARGS = 4;
+
 	public final byte value;
 	public final OpCodeParam[] params;
 
-	// Create a map of opcode values to OpCode
-	private static final Map<Byte, OpCode> map = Arrays.stream(OpCode.values()).collect(Collectors.toMap(opcode -> opcode.value, opcode -> opcode));
+	// Dense table of OpCodes, indexed by unsigned opcode value, with null for unused values
+	private static final OpCode[] table = new OpCode[256];
+	static {
+		for (OpCode opCode : OpCode.values())
+			table[opCode.value & 0xff] = opCode;
+	}
 
 	private OpCode(int value, OpCodeParam... params) {
 		this.value = (byte) value;
@@ -853,7 +845,7 @@ public enum OpCode {
 	}
 
 	public static OpCode valueOf(int value) {
-		return map.get((byte) value);
+		return table[value & 0xff];
 	}
 
 	/**
@@ -864,42 +856,59 @@ public enum OpCode {
 	 * <p>
 	 * OpCode execution can modify <tt>codeByteBuffer.position()</tt> in cases like jumps, branches, etc.
 	 * <p>
-	 * Can also modify <tt>userStackByteBuffer</tt> and various fields of <tt>state</tt>.
+	 * Can also modify <tt>userStack</tt> and various fields of <tt>state</tt>.
 	 * <p>
 	 * Throws a subclass of <tt>ExecutionException</tt> on error, e.g. <tt>InvalidAddressException</tt>.
+	 * <p>
+	 * Args are passed as primitives to avoid boxing/allocation on every OpCode:<br>
+	 * <tt>args</tt> holds int-sized params (addresses, offsets, function codes) in order, skipping any <tt>OpCodeParam.VALUE</tt>,<br>
+	 * <tt>immediateValue</tt> holds the <tt>OpCodeParam.VALUE</tt> param, if any.
+	 * <p>
+	 * <tt>args</tt> may be longer than the number of params and is reused between calls so shouldn't be retained.
 	 * 
 	 * @param state
 	 * @param args
+	 * @param immediateValue
 	 * 
 	 * @throws ExecutionException
 	 */
-	public abstract void executeWithParams(MachineState state, Object... args) throws ExecutionException;
+	public abstract void executeWithParams(MachineState state, int[] args, long immediateValue) throws ExecutionException;
 
 	public void execute(MachineState state) throws ExecutionException {
-		List<Object> args = new ArrayList<>();
+		// Reuse state's arg slots to avoid allocating per OpCode
+		int[] args = state.opCodeArgs;
+		long immediateValue = 0L;
+		int argIndex = 0;
 
-		for (OpCodeParam param : this.params)
-			args.add(param.fetch(state.codeByteBuffer, state.dataByteBuffer));
+		for (OpCodeParam param : this.params) {
+			long arg = param.fetch(state.codeByteBuffer, state.getDataLength());
 
-		this.executeWithParams(state, args.toArray());
+			if (param == OpCodeParam.VALUE)
+				immediateValue = arg;
+			else
+				args[argIndex++] = (int) arg;
+		}
+
+		this.executeWithParams(state, args, immediateValue);
 	}
 
 	/**
 	 * Returns string representing disassembled OpCode and parameters
 	 * 
 	 * @param codeByteBuffer
-	 * @param dataByteBuffer
+	 * @param dataLength
+	 *            - size of data segment in bytes, for checking data addresses
 	 * @return String
 	 * @throws ExecutionException
 	 */
-	public String disassemble(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws ExecutionException {
+	public String disassemble(ByteBuffer codeByteBuffer, int dataLength) throws ExecutionException {
 		StringBuilder output = new StringBuilder(this.name());
 
 		int postOpcodeProgramCounter = codeByteBuffer.position();
 
 		for (OpCodeParam param : this.params) {
 			output.append(" ");
-			output.append(param.disassemble(codeByteBuffer, dataByteBuffer, postOpcodeProgramCounter));
+			output.append(param.disassemble(codeByteBuffer, dataLength, postOpcodeProgramCounter));
 		}
 
 		return output.toString();
@@ -914,16 +923,16 @@ public enum OpCode {
 	 *            - typically a lambda operating on two <tt>long</tt> params, e.g. <tt>(a, b) -> a + b</tt>
 	 * @throws ExecutionException
 	 */
-	private static void executeDataOperation(MachineState state, TwoValueOperator operator, Object... args) throws ExecutionException {
-		int address1 = (int) args[0];
-		int address2 = (int) args[1];
+	private static void executeDataOperation(MachineState state, TwoValueOperator operator, int[] args) throws ExecutionException {
+		int address1 = args[0];
+		int address2 = args[1];
 
-		long value1 = state.dataByteBuffer.getLong(address1);
-		long value2 = state.dataByteBuffer.getLong(address2);
+		long value1 = state.data[address1 / MachineState.VALUE_SIZE];
+		long value2 = state.data[address2 / MachineState.VALUE_SIZE];
 
 		long newValue = operator.apply(value1, value2);
 
-		state.dataByteBuffer.putLong(address1, newValue);
+		state.data[address1 / MachineState.VALUE_SIZE] = newValue;
 	}
 
 	/**
@@ -936,15 +945,15 @@ public enum OpCode {
 	 *            - typically a lambda comparing two <tt>long</tt> params, e.g. <tt>(a, b) -> a == b</tt>
 	 * @throws ExecutionException
 	 */
-	private static void executeBranchConditional(MachineState state, TwoValueComparator comparator, Object... args) throws ExecutionException {
-		int address1 = (int) args[0];
-		int address2 = (int) args[1];
+	private static void executeBranchConditional(MachineState state, TwoValueComparator comparator, int[] args) throws ExecutionException {
+		int address1 = args[0];
+		int address2 = args[1];
 		byte offset = (byte) args[2];
 
 		int branchTarget = state.getProgramCounter() + offset;
 
-		long value1 = state.dataByteBuffer.getLong(address1);
-		long value2 = state.dataByteBuffer.getLong(address2);
+		long value1 = state.data[address1 / MachineState.VALUE_SIZE];
+		long value2 = state.data[address2 / MachineState.VALUE_SIZE];
 
 		if (comparator.compare(value1, value2))
 			state.codeByteBuffer.position(branchTarget);
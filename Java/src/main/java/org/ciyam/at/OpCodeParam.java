@@ -6,155 +6,185 @@ public enum OpCodeParam {
 
 	VALUE {
 		@Override
-		public Object fetch(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws ExecutionException {
-			return Long.valueOf(Utils.getCodeValue(codeByteBuffer));
+		public long fetch(ByteBuffer codeByteBuffer, int dataLength) throws ExecutionException {
+			return Utils.getCodeValue(codeByteBuffer);
 		}
 
 		@Override
-		protected String toString(Object value, int postOpcodeProgramCounter) {
-			return String.format("#%016x", (Long) value);
+		protected String toString(long value, int postOpcodeProgramCounter) {
+			return String.format("#%016x", value);
 		}
 	},
 	DEST_ADDR {
 		@Override
-		public Object fetch(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws ExecutionException {
-			return Integer.valueOf(Utils.getDataAddress(codeByteBuffer, dataByteBuffer));
+		public long fetch(ByteBuffer codeByteBuffer, int dataLength) throws ExecutionException {
+			return Utils.getDataAddress(codeByteBuffer, dataLength);
 		}
 
 		@Override
-		protected String toString(Object value, int postOpcodeProgramCounter) {
-			return String.format("@%08x", ((Integer) value) / MachineState.VALUE_SIZE);
+		protected String toString(long value, int postOpcodeProgramCounter) {
+			return String.format("@%08x", (int) value / MachineState.VALUE_SIZE);
 		}
 	},
 	INDIRECT_DEST_ADDR {
 		@Override
-		public Object fetch(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws ExecutionException {
-			return Integer.valueOf(Utils.getDataAddress(codeByteBuffer, dataByteBuffer));
+		public long fetch(ByteBuffer codeByteBuffer, int dataLength) throws ExecutionException {
+			return Utils.getDataAddress(codeByteBuffer, dataLength);
 		}
 
 		@Override
-		protected String toString(Object value, int postOpcodeProgramCounter) {
-			return String.format("@($%08x)", ((Integer) value) / MachineState.VALUE_SIZE);
+		protected String toString(long value, int postOpcodeProgramCounter) {
+			return String.format("@($%08x)", (int) value / MachineState.VALUE_SIZE);
 		}
 	},
 	INDIRECT_DEST_ADDR_WITH_INDEX {
 		@Override
-		public Object fetch(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws ExecutionException {
-			return Integer.valueOf(Utils.getDataAddress(codeByteBuffer, dataByteBuffer));
+		public long fetch(ByteBuffer codeByteBuffer, int dataLength) throws ExecutionException {
+			return Utils.getDataAddress(codeByteBuffer, dataLength);
 		}
 
 		@Override
-		protected String toString(Object value, int postOpcodeProgramCounter) {
-			return String.format("@($%08x", ((Integer) value) / MachineState.VALUE_SIZE);
+		protected String toString(long value, int postOpcodeProgramCounter) {
+			return String.format("@($%08x", (int) value / MachineState.VALUE_SIZE);
 		}
 	},
 	SRC_ADDR {
 		@Override
-		public Object fetch(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws ExecutionException {
-			return Integer.valueOf(Utils.getDataAddress(codeByteBuffer, dataByteBuffer));
+		public long fetch(ByteBuffer codeByteBuffer, int dataLength) throws ExecutionException {
+			return Utils.getDataAddress(codeByteBuffer, dataLength);
 		}
 
 		@Override
-		protected String toString(Object value, int postOpcodeProgramCounter) {
-			return String.format("$%08x", ((Integer) value) / MachineState.VALUE_SIZE);
+		protected String toString(long value, int postOpcodeProgramCounter) {
+			return String.format("$%08x", (int) value / MachineState.VALUE_SIZE);
 		}
 	},
 	INDIRECT_SRC_ADDR {
 		@Override
-		public Object fetch(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws ExecutionException {
-			return Integer.valueOf(Utils.getDataAddress(codeByteBuffer, dataByteBuffer));
+		public long fetch(ByteBuffer codeByteBuffer, int dataLength) throws ExecutionException {
+			return Utils.getDataAddress(codeByteBuffer, dataLength);
 		}
 
 		@Override
-		protected String toString(Object value, int postOpcodeProgramCounter) {
-			return String.format("$($%08x)", ((Integer) value) / MachineState.VALUE_SIZE);
+		protected String toString(long value, int postOpcodeProgramCounter) {
+			return String.format("$($%08x)", (int) value / MachineState.VALUE_SIZE);
 		}
 	},
 	INDIRECT_SRC_ADDR_WITH_INDEX {
 		@Override
-		public Object fetch(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws ExecutionException {
-			return Integer.valueOf(Utils.getDataAddress(codeByteBuffer, dataByteBuffer));
+		public long fetch(ByteBuffer codeByteBuffer, int dataLength) throws ExecutionException {
+			return Utils.getDataAddress(codeByteBuffer, dataLength);
 		}
 
 		@Override
-		protected String toString(Object value, int postOpcodeProgramCounter) {
-			return String.format("$($%08x", ((Integer) value) / MachineState.VALUE_SIZE);
+		protected String toString(long value, int postOpcodeProgramCounter) {
+			return String.format("$($%08x", (int) value / MachineState.VALUE_SIZE);
 		}
 	},
 	INDEX {
 		@Override
-		public Object fetch(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws ExecutionException {
-			return Integer.valueOf(Utils.getDataAddress(codeByteBuffer, dataByteBuffer));
+		public long fetch(ByteBuffer codeByteBuffer, int dataLength) throws ExecutionException {
+			return Utils.getDataAddress(codeByteBuffer, dataLength);
 		}
 
 		@Override
-		protected String toString(Object value, int postOpcodeProgramCounter) {
-			return String.format("+ $%08x)", ((Integer) value) / MachineState.VALUE_SIZE);
+		protected String toString(long value, int postOpcodeProgramCounter) {
+			return String.format("+ $%08x)", (int) value / MachineState.VALUE_SIZE);
 		}
 	},
 	CODE_ADDR {
 		@Override
-		public Object fetch(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws ExecutionException {
-			return Integer.valueOf(Utils.getCodeAddress(codeByteBuffer));
+		public long fetch(ByteBuffer codeByteBuffer, int dataLength) throws ExecutionException {
+			return Utils.getCodeAddress(codeByteBuffer);
 		}
 
 		@Override
-		protected String toString(Object value, int postOpcodeProgramCounter) {
-			return String.format("[%04x]", (Integer) value);
+		protected String toString(long value, int postOpcodeProgramCounter) {
+			return String.format("[%04x]", (int) value);
 		}
 	},
 	OFFSET {
 		@Override
-		public Object fetch(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws ExecutionException {
-			return Byte.valueOf(Utils.getCodeOffset(codeByteBuffer));
+		public long fetch(ByteBuffer codeByteBuffer, int dataLength) throws ExecutionException {
+			return Utils.getCodeOffset(codeByteBuffer);
 		}
 
 		@Override
-		protected String toString(Object value, int postOpcodeProgramCounter) {
-			return String.format("PC+%02x=[%04x]", (int) ((Byte) value), postOpcodeProgramCounter - 1 + (Byte) value);
+		protected String toString(long value, int postOpcodeProgramCounter) {
+			return String.format("PC+%02x=[%04x]", (int) (byte) value, postOpcodeProgramCounter - 1 + (byte) value);
 		}
 	},
 	FUNC {
 		@Override
-		public Object fetch(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws ExecutionException {
-			return Short.valueOf(codeByteBuffer.getShort());
+		public long fetch(ByteBuffer codeByteBuffer, int dataLength) throws ExecutionException {
+			return codeByteBuffer.getShort();
 		}
 
 		@Override
-		protected String toString(Object value, int postOpcodeProgramCounter) {
-			FunctionCode functionCode = FunctionCode.valueOf((Short) value);
+		protected String toString(long value, int postOpcodeProgramCounter) {
+			FunctionCode functionCode = FunctionCode.valueOf((short) value);
 
 			// generic/unknown form
 			if (functionCode == null)
-				return String.format("FN(%04x)", (Short) value);
+				return String.format("FN(%04x)", (short) value);
 
 			// API pass-through
 			if (functionCode == FunctionCode.API_PASSTHROUGH)
-				return String.format("API-FN(%04x)", (Short) value);
+				return String.format("API-FN(%04x)", (short) value);
 
-			return "\"" + functionCode.name() + "\"" + String.format("{%04x}", (Short) value);
+			return "\"" + functionCode.name() + "\"" + String.format("{%04x}", (short) value);
 		}
 	},
 	BLOCK_HEIGHT {
 		@Override
-		public Object fetch(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws ExecutionException {
-			return Integer.valueOf(codeByteBuffer.getInt());
+		public long fetch(ByteBuffer codeByteBuffer, int dataLength) throws ExecutionException {
+			return codeByteBuffer.getInt();
 		}
 
 		@Override
-		protected String toString(Object value, int postOpcodeProgramCounter) {
-			return String.format("height $%08x", ((Integer) value) / MachineState.VALUE_SIZE);
+		protected String toString(long value, int postOpcodeProgramCounter) {
+			return String.format("height $%08x", (int) value / MachineState.VALUE_SIZE);
 		}
 	};
 
-	public abstract Object fetch(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws ExecutionException;
+	public abstract long fetch(ByteBuffer codeByteBuffer, int dataLength) throws ExecutionException;
 
-	public String disassemble(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer, int postOpcodeProgramCounter) throws ExecutionException {
-		Object value = fetch(codeByteBuffer, dataByteBuffer);
+	/**
+	 * Returns param value, boxed as <tt>Long</tt>, <tt>Byte</tt>, <tt>Short</tt> or <tt>Integer</tt> depending on param type.
+	 * 
+	 * @deprecated use {@link #fetch(ByteBuffer, int)} with data segment length instead, which doesn't box
+	 */
+	@Deprecated
+	public Object fetch(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws ExecutionException {
+		long value = fetch(codeByteBuffer, dataByteBuffer.limit());
+
+		switch (this) {
+			case VALUE:
+				return Long.valueOf(value);
+
+			case OFFSET:
+				return Byte.valueOf((byte) value);
+
+			case FUNC:
+				return Short.valueOf((short) value);
+
+			default:
+				return Integer.valueOf((int) value);
+		}
+	}
+
+	public String disassemble(ByteBuffer codeByteBuffer, int dataLength, int postOpcodeProgramCounter) throws ExecutionException {
+		long value = fetch(codeByteBuffer, dataLength);
 
 		return this.toString(value, postOpcodeProgramCounter);
 	}
 
-	protected abstract String toString(Object value, int postOpcodeProgramCounter);
+	/** @deprecated use {@link #disassemble(ByteBuffer, int, int)} with data segment length instead */
+	@Deprecated
+	public String disassemble(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer, int postOpcodeProgramCounter) throws ExecutionException {
+		return disassemble(codeByteBuffer, dataByteBuffer.limit(), postOpcodeProgramCounter);
+	}
+
+	protected abstract String toString(long value, int postOpcodeProgramCounter);
 
 }
@@ -18,4 +18,8 @@ public class StackBoundsException extends ExecutionException {
 		super(message, cause);
 	}
 
+	protected StackBoundsException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+		super(message, cause, enableSuppression, writableStackTrace);
+	}
+
 }
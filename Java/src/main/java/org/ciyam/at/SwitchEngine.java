@@ -0,0 +1,253 @@
+package org.ciyam.at;
+
+/**
+ * Switch-dispatched execution of pre-decoded OpCodes.
+ * <p>
+ * Instead of a virtual call to each OpCode's <tt>executeWithParams</tt>, plus a <tt>TwoValueOperator</tt>/<tt>TwoValueComparator</tt> lambda,
+ * this uses one big switch on the raw opcode byte with data operations, branches and jumps inlined.
+ * <p>
+ * Less common OpCodes, like stack and function calls, are delegated to their specific <tt>OpCode</tt> constant, which is still a direct call.
+ * <p>
+ * Results must be identical to <tt>OpCode.executeWithParams</tt>, including exceptions, so keep any changes in step with <tt>OpCode</tt>.
+ * <p>
+ * Only used for OpCodes verified by <tt>DecodedCode</tt>, so direct data addresses and branch targets are not rechecked.
+ * Direct data addresses, being non-negative multiples of <tt>VALUE_SIZE</tt>, are converted to data segment indexes by shifting.
+ *
+ * @see ExecutionEngine#SWITCH
+ */
+/* package */ class SwitchEngine {
+
+	private static final int VALUE_SIZE = MachineState.VALUE_SIZE;
+	/** log2(VALUE_SIZE), for converting verified data addresses to data segment indexes */
+	private static final int VALUE_SHIFT = 3;
+	private static final long MAX_SHIFT = VALUE_SIZE * 8L;
+
+	private SwitchEngine() {
+	}
+
+	/**
+	 * Execute decoded, verified OpCode at <tt>programCounter</tt>
+	 * <p>
+	 * Assumes <tt>codeByteBuffer.position()</tt> is already placed immediately after opcode and params, as with <tt>OpCode.executeWithParams</tt>.
+	 *
+	 * @param state
+	 * @param decodedCode
+	 * @param programCounter
+	 * @throws ExecutionException
+	 */
+	public static void execute(MachineState state, DecodedCode decodedCode, int programCounter) throws ExecutionException {
+		long[] data = state.data;
+		int[] args = decodedCode.args;
+		int argIndex = programCounter * OpCode.MAX_ARGS;
+
+		long value1;
+		long value2;
+		long address;
+
+		switch (decodedCode.opCodes[programCounter].value) {
+			case 0x7f: // NOP
+				break;
+
+			case 0x01: // SET_VAL
+				data[args[argIndex] >> VALUE_SHIFT] = decodedCode.values[programCounter];
+				break;
+
+			case 0x02: // SET_DAT
+				data[args[argIndex] >> VALUE_SHIFT] = data[args[argIndex + 1] >> VALUE_SHIFT];
+				break;
+
+			case 0x03: // CLR_DAT
+				data[args[argIndex] >> VALUE_SHIFT] = 0L;
+				break;
+
+			case 0x04: // INC_DAT
+				++data[args[argIndex] >> VALUE_SHIFT];
+				break;
+
+			case 0x05: // DEC_DAT
+				--data[args[argIndex] >> VALUE_SHIFT];
+				break;
+
+			case 0x06: // ADD_DAT
+				data[args[argIndex] >> VALUE_SHIFT] += data[args[argIndex + 1] >> VALUE_SHIFT];
+				break;
+
+			case 0x07: // SUB_DAT
+				data[args[argIndex] >> VALUE_SHIFT] -= data[args[argIndex + 1] >> VALUE_SHIFT];
+				break;
+
+			case 0x08: // MUL_DAT
+				data[args[argIndex] >> VALUE_SHIFT] *= data[args[argIndex + 1] >> VALUE_SHIFT];
+				break;
+
+			case 0x09: // DIV_DAT
+				value2 = data[args[argIndex + 1] >> VALUE_SHIFT];
+
+				if (value2 == 0)
+					throw ExecutionErrors.DIVIDE_BY_ZERO;
+
+				data[args[argIndex] >> VALUE_SHIFT] /= value2;
+				break;
+
+			case 0x0a: // BOR_DAT
+				data[args[argIndex] >> VALUE_SHIFT] |= data[args[argIndex + 1] >> VALUE_SHIFT];
+				break;
+
+			case 0x0b: // AND_DAT
+				data[args[argIndex] >> VALUE_SHIFT] &= data[args[argIndex + 1] >> VALUE_SHIFT];
+				break;
+
+			case 0x0c: // XOR_DAT
+				data[args[argIndex] >> VALUE_SHIFT] ^= data[args[argIndex + 1] >> VALUE_SHIFT];
+				break;
+
+			case 0x0d: // NOT_DAT
+				data[args[argIndex] >> VALUE_SHIFT] = ~data[args[argIndex] >> VALUE_SHIFT];
+				break;
+
+			case 0x0e: // SET_IND
+				address = data[args[argIndex + 1] >> VALUE_SHIFT] * VALUE_SIZE;
+
+				if (address < 0 || address + VALUE_SIZE >= state.getDataLength())
+					throw ExecutionErrors.DATA_ADDRESS_OUT_OF_BOUNDS;
+
+				data[args[argIndex] >> VALUE_SHIFT] = data[(int) address / VALUE_SIZE];
+				break;
+
+			case 0x0f: // SET_IDX
+				address = data[args[argIndex + 1] >> VALUE_SHIFT] * VALUE_SIZE
+						+ data[args[argIndex + 2] >> VALUE_SHIFT] * VALUE_SIZE;
+
+				if (address < 0 || address + VALUE_SIZE >= state.getDataLength())
+					throw ExecutionErrors.DATA_ADDRESS_OUT_OF_BOUNDS;
+
+				data[args[argIndex] >> VALUE_SHIFT] = data[(int) address / VALUE_SIZE];
+				break;
+
+			case 0x14: // IND_DAT
+				address = data[args[argIndex] >> VALUE_SHIFT] * VALUE_SIZE;
+
+				if (address < 0 || address + VALUE_SIZE >= state.getDataLength())
+					throw ExecutionErrors.DATA_ADDRESS_OUT_OF_BOUNDS;
+
+				data[(int) address / VALUE_SIZE] = data[args[argIndex + 1] >> VALUE_SHIFT];
+				break;
+
+			case 0x15: // IDX_DAT
+				address = data[args[argIndex] >> VALUE_SHIFT] * VALUE_SIZE
+						+ data[args[argIndex + 1] >> VALUE_SHIFT] * VALUE_SIZE;
+
+				if (address < 0 || address + VALUE_SIZE >= state.getDataLength())
+					throw ExecutionErrors.DATA_ADDRESS_OUT_OF_BOUNDS;
+
+				data[(int) address / VALUE_SIZE] = data[args[argIndex + 2] >> VALUE_SHIFT];
+				break;
+
+			case 0x16: // MOD_DAT
+				value2 = data[args[argIndex + 1] >> VALUE_SHIFT];
+
+				if (value2 == 0)
+					throw ExecutionErrors.DIVIDE_BY_ZERO;
+
+				data[args[argIndex] >> VALUE_SHIFT] %= value2;
+				break;
+
+			case 0x17: // SHL_DAT
+				value1 = data[args[argIndex] >> VALUE_SHIFT];
+				value2 = data[args[argIndex + 1] >> VALUE_SHIFT];
+				data[args[argIndex] >> VALUE_SHIFT] = value2 >= MAX_SHIFT ? 0 : value1 << value2;
+				break;
+
+			case 0x18: // SHR_DAT
+				value1 = data[args[argIndex] >> VALUE_SHIFT];
+				value2 = data[args[argIndex + 1] >> VALUE_SHIFT];
+				data[args[argIndex] >> VALUE_SHIFT] = value2 >= MAX_SHIFT ? 0 : value1 >>> value2;
+				break;
+
+			case 0x1a: // JMP_ADR
+				state.codeByteBuffer.position(args[argIndex]);
+				break;
+
+			case 0x1b: // BZR_DAT
+				if (data[args[argIndex] >> VALUE_SHIFT] == 0)
+					state.codeByteBuffer.position(programCounter + (byte) args[argIndex + 1]);
+				break;
+
+			case 0x1e: // BNZ_DAT
+				if (data[args[argIndex] >> VALUE_SHIFT] != 0)
+					state.codeByteBuffer.position(programCounter + (byte) args[argIndex + 1]);
+				break;
+
+			case 0x1f: // BGT_DAT
+				if (data[args[argIndex] >> VALUE_SHIFT] > data[args[argIndex + 1] >> VALUE_SHIFT])
+					state.codeByteBuffer.position(programCounter + (byte) args[argIndex + 2]);
+				break;
+
+			case 0x20: // BLT_DAT
+				if (data[args[argIndex] >> VALUE_SHIFT] < data[args[argIndex + 1] >> VALUE_SHIFT])
+					state.codeByteBuffer.position(programCounter + (byte) args[argIndex + 2]);
+				break;
+
+			case 0x21: // BGE_DAT
+				if (data[args[argIndex] >> VALUE_SHIFT] >= data[args[argIndex + 1] >> VALUE_SHIFT])
+					state.codeByteBuffer.position(programCounter + (byte) args[argIndex + 2]);
+				break;
+
+			case 0x22: // BLE_DAT
+				if (data[args[argIndex] >> VALUE_SHIFT] <= data[args[argIndex + 1] >> VALUE_SHIFT])
+					state.codeByteBuffer.position(programCounter + (byte) args[argIndex + 2]);
+				break;
+
+			case 0x23: // BEQ_DAT
+				if (data[args[argIndex] >> VALUE_SHIFT] == data[args[argIndex + 1] >> VALUE_SHIFT])
+					state.codeByteBuffer.position(programCounter + (byte) args[argIndex + 2]);
+				break;
+
+			case 0x24: // BNE_DAT
+				if (data[args[argIndex] >> VALUE_SHIFT] != data[args[argIndex + 1] >> VALUE_SHIFT])
+					state.codeByteBuffer.position(programCounter + (byte) args[argIndex + 2]);
+				break;
+
+			case 0x26: // FIZ_DAT
+				if (data[args[argIndex] >> VALUE_SHIFT] == 0)
+					state.setIsFinished(true);
+				break;
+
+			case 0x27: // STZ_DAT
+				if (data[args[argIndex] >> VALUE_SHIFT] == 0) {
+					state.codeByteBuffer.position(state.getOnStopAddress());
+					state.setIsStopped(true);
+				}
+				break;
+
+			case 0x28: // FIN_IMD
+				state.setIsFinished(true);
+				break;
+
+			case 0x29: // STP_IMD
+				state.setIsStopped(true);
+				break;
+
+			case 0x2a: // SLP_IMD
+				state.setSleepUntilHeight(state.getCurrentBlockHeight() + 1);
+				state.setIsSleeping(true);
+				break;
+
+			case 0x2b: // ERR_ADR
+				state.setOnErrorAddress(args[argIndex]);
+				break;
+
+			case 0x30: // SET_PCS
+				state.setOnStopAddress(state.codeByteBuffer.position());
+				break;
+
+			default:
+				// Stacks, sleep-until, function calls, etc.
+				OpCode opCode = decodedCode.opCodes[programCounter];
+				System.arraycopy(args, argIndex, state.opCodeArgs, 0, OpCode.MAX_ARGS);
+				opCode.executeWithParams(state, state.opCodeArgs, decodedCode.values[programCounter]);
+				break;
+		}
+	}
+
+}
@@ -1,6 +1,5 @@
 package org.ciyam.at;
 
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 
 public class Utils {
@@ -16,18 +15,17 @@ public class Utils {
 	 * @throws InvalidAddressException
 	 */
 	public static FunctionCode getFunctionCode(ByteBuffer codeByteBuffer) throws CodeSegmentException, IllegalFunctionCodeException {
-		try {
-			int rawFunctionCode = codeByteBuffer.getShort();
+		if (codeByteBuffer.remaining() < 2)
+			throw ExecutionErrors.NO_FUNCTION_CODE;
 
-			FunctionCode functionCode = FunctionCode.valueOf(rawFunctionCode);
+		int rawFunctionCode = codeByteBuffer.getShort();
 
-			if (functionCode == null)
-				throw new IllegalFunctionCodeException("Unknown function code");
+		FunctionCode functionCode = FunctionCode.valueOf(rawFunctionCode);
 
-			return functionCode;
-		} catch (BufferUnderflowException e) {
-			throw new CodeSegmentException("No code bytes left to get function code", e);
-		}
+		if (functionCode == null)
+			throw ExecutionErrors.UNKNOWN_FUNCTION_CODE;
+
+		return functionCode;
 	}
 
 	/**
@@ -43,16 +41,15 @@ public class Utils {
 	 * @throws InvalidAddressException
 	 */
 	public static int getCodeAddress(ByteBuffer codeByteBuffer) throws CodeSegmentException, InvalidAddressException {
-		try {
-			int address = codeByteBuffer.getInt();
+		if (codeByteBuffer.remaining() < 4)
+			throw ExecutionErrors.NO_CODE_ADDRESS;
+
+		int address = codeByteBuffer.getInt();
 
-			if (address < 0 || address > MachineState.MAX_CODE_ADDRESS || address >= codeByteBuffer.limit())
-				throw new InvalidAddressException("Code address out of bounds");
+		if (address < 0 || address > MachineState.MAX_CODE_ADDRESS || address >= codeByteBuffer.limit())
+			throw ExecutionErrors.CODE_ADDRESS_OUT_OF_BOUNDS;
 
-			return address;
-		} catch (BufferUnderflowException e) {
-			throw new CodeSegmentException("No code bytes left to get code address", e);
-		}
+		return address;
 	}
 
 	/**
@@ -63,21 +60,32 @@ public class Utils {
 	 * <b>Note:</b> address is returned scaled by <tt>Constants.VALUE_SIZE</tt>.
 	 * 
 	 * @param codeByteBuffer
+	 * @param dataLength
+	 *            - size of data segment in bytes
 	 * @return int address into data bytes
 	 * @throws CodeSegmentException
 	 * @throws InvalidAddressException
 	 */
-	public static int getDataAddress(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws CodeSegmentException, InvalidAddressException {
-		try {
-			int address = codeByteBuffer.getInt() * MachineState.VALUE_SIZE;
+	public static int getDataAddress(ByteBuffer codeByteBuffer, int dataLength) throws CodeSegmentException, InvalidAddressException {
+		if (codeByteBuffer.remaining() < 4)
+			throw ExecutionErrors.NO_DATA_ADDRESS;
 
-			if (address < 0 || address + MachineState.VALUE_SIZE >= dataByteBuffer.limit())
-				throw new InvalidAddressException("Data address out of bounds");
+		int address = codeByteBuffer.getInt() * MachineState.VALUE_SIZE;
+
+		if (address < 0 || address + MachineState.VALUE_SIZE >= dataLength)
+			throw ExecutionErrors.DATA_ADDRESS_OUT_OF_BOUNDS;
+
+		return address;
+	}
 
-			return address;
-		} catch (BufferUnderflowException e) {
-			throw new CodeSegmentException("No code bytes left to get data address", e);
-		}
+	/**
+	 * Returns data address from code bytes at current position, bounds-checked against <tt>dataByteBuffer.limit()</tt>.
+	 * 
+	 * @deprecated use {@link #getDataAddress(ByteBuffer, int)} with data segment length instead
+	 */
+	@Deprecated
+	public static int getDataAddress(ByteBuffer codeByteBuffer, ByteBuffer dataByteBuffer) throws CodeSegmentException, InvalidAddressException {
+		return getDataAddress(codeByteBuffer, dataByteBuffer.limit());
 	}
 
 	/**
@@ -93,16 +101,15 @@ public class Utils {
 	 * @throws InvalidAddressException
 	 */
 	public static byte getCodeOffset(ByteBuffer codeByteBuffer) throws CodeSegmentException, InvalidAddressException {
-		try {
-			byte offset = codeByteBuffer.get();
+		if (codeByteBuffer.remaining() < 1)
+			throw ExecutionErrors.NO_CODE_OFFSET;
+
+		byte offset = codeByteBuffer.get();
 
-			if (codeByteBuffer.position() + offset < 0 || codeByteBuffer.position() + offset >= codeByteBuffer.limit())
-				throw new InvalidAddressException("Code offset out of bounds");
+		if (codeByteBuffer.position() + offset < 0 || codeByteBuffer.position() + offset >= codeByteBuffer.limit())
+			throw ExecutionErrors.CODE_OFFSET_OUT_OF_BOUNDS;
 
-			return offset;
-		} catch (BufferUnderflowException e) {
-			throw new CodeSegmentException("No code bytes left to get code offset", e);
-		}
+		return offset;
 	}
 
 	/**
@@ -116,11 +123,10 @@ public class Utils {
 	 * @throws InvalidAddressException
 	 */
 	public static long getCodeValue(ByteBuffer codeByteBuffer) throws CodeSegmentException, InvalidAddressException {
-		try {
-			return codeByteBuffer.getLong();
-		} catch (BufferUnderflowException e) {
-			throw new CodeSegmentException("No code bytes left to get immediate value", e);
-		}
+		if (codeByteBuffer.remaining() < 8)
+			throw ExecutionErrors.NO_IMMEDIATE_VALUE;
+
+		return codeByteBuffer.getLong();
 	}
 
 }
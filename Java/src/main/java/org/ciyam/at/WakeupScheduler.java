@@ -0,0 +1,209 @@
+package org.ciyam.at;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Index of ATs by when they next need executing, so sleeping ATs don't need restoring and executing each block
+ * only for <tt>MachineState.execute()</tt> to return early.
+ * <p>
+ * ATs are identified by platform-specific keys, e.g. AT addresses. Each AT is either:
+ * <ul>
+ * <li>frozen, e.g. out of funds or awaiting <tt>minActivationAmount</tt>, so not due until its balance exceeds its frozen balance</li>
+ * <li>sleeping until a block height, so due at that height or later</li>
+ * <li>runnable, so due every block</li>
+ * <li>not indexed, e.g. because it has finished</li>
+ * </ul>
+ * Typically, after executing an AT, pass its machine state to {@link #update(Object, MachineState)},
+ * and whenever an AT's balance changes, e.g. due to an incoming payment, pass its new balance to {@link #updateBalance(Object, long)}.
+ * So frozen ATs cost only balance updates, instead of restoring them and calling <tt>MachineState.execute()</tt> each block.
+ * <p>
+ * When starting up, ATs can be indexed using {@link #update(Object, MachineStateStatus)} with status peeked from serialized machine states,
+ * or using {@link #freeze(Object, long, Integer)}, {@link #sleepUntil(Object, int)} and {@link #setRunnable(Object)} with previously saved status,
+ * without restoring their machine states.
+ * <p>
+ * Due ATs are returned in order given by comparator, e.g. AT creation order, so platforms can execute them deterministically.
+ * <p>
+ * Not thread-safe.
+ */
+public class WakeupScheduler<K> {
+
+	/** Frozen AT's threshold, and sleep-until height (if any) that still applies once balance exceeds threshold */
+	private static class Frozen {
+		private final long frozenBalance;
+		private final Integer sleepUntilHeight;
+
+		public Frozen(long frozenBalance, Integer sleepUntilHeight) {
+			this.frozenBalance = frozenBalance;
+			this.sleepUntilHeight = sleepUntilHeight;
+		}
+	}
+
+	private final Comparator<? super K> executionOrder;
+
+	/** ATs due every block */
+	private final Set<K> runnable = new HashSet<>();
+
+	/** Sleeping ATs' wake-up heights */
+	private final Map<K, Integer> wakeHeights = new HashMap<>();
+
+	/** Sleeping ATs, by wake-up height */
+	private final TreeMap<Integer, Set<K>> sleepersByHeight = new TreeMap<>();
+
+	/** Frozen ATs, not due until balance exceeds frozen balance */
+	private final Map<K, Frozen> frozen = new HashMap<>();
+
+	/**
+	 * @param executionOrder
+	 *            order in which due ATs are returned
+	 */
+	public WakeupScheduler(Comparator<? super K> executionOrder) {
+		this.executionOrder = executionOrder;
+	}
+
+	/**
+	 * Re-indexes AT using its machine state, e.g. after executing it.
+	 * <p>
+	 * Finished ATs are removed. Frozen ATs are indexed by frozen balance. Sleeping ATs with a sleep-until height are indexed by that height.
+	 * All other ATs are runnable.
+	 */
+	public void update(K at, MachineState state) {
+		if (state.getIsFinished()) {
+			this.remove(at);
+			return;
+		}
+
+		Integer sleepUntilHeight = state.getIsSleeping() ? state.getSleepUntilHeight() : null;
+
+		if (state.getIsFrozen() && state.getFrozenBalance() != null)
+			this.freeze(at, state.getFrozenBalance(), sleepUntilHeight);
+		else if (sleepUntilHeight != null)
+			this.sleepUntil(at, sleepUntilHeight);
+		else
+			this.setRunnable(at);
+	}
+
+	/**
+	 * Re-indexes AT using status peeked from its serialized machine state, e.g. when starting up.
+	 *
+	 * @see #update(Object, MachineState)
+	 * @see MachineState#peekStatus(byte[], MachineStateStatus)
+	 */
+	public void update(K at, MachineStateStatus status) {
+		if (status.getIsFinished()) {
+			this.remove(at);
+			return;
+		}
+
+		boolean isSleepingUntilHeight = status.getIsSleeping() && status.hasSleepUntilHeight();
+
+		if (status.getIsFrozen() && status.hasFrozenBalance())
+			this.freeze(at, status.getFrozenBalance(), isSleepingUntilHeight ? status.getSleepUntilHeight() : null);
+		else if (isSleepingUntilHeight)
+			this.sleepUntil(at, status.getSleepUntilHeight());
+		else
+			this.setRunnable(at);
+	}
+
+	/**
+	 * Indexes AT as frozen, i.e. not due until its balance exceeds <tt>frozenBalance</tt>.
+	 *
+	 * @param sleepUntilHeight
+	 *            block height AT also sleeps until, or null
+	 */
+	public void freeze(K at, long frozenBalance, Integer sleepUntilHeight) {
+		this.remove(at);
+
+		this.frozen.put(at, new Frozen(frozenBalance, sleepUntilHeight));
+	}
+
+	/**
+	 * Notifies index of AT's new balance, e.g. after a payment to AT.
+	 * <p>
+	 * If AT is frozen and <tt>balance</tt> exceeds its frozen balance, then AT is re-indexed as runnable,
+	 * or as sleeping if it was also sleeping until a block height.
+	 *
+	 * @return true if AT was frozen but is no longer, false otherwise
+	 */
+	public boolean updateBalance(K at, long balance) {
+		Frozen atFrozen = this.frozen.get(at);
+		if (atFrozen == null || balance <= atFrozen.frozenBalance)
+			return false;
+
+		if (atFrozen.sleepUntilHeight != null)
+			this.sleepUntil(at, atFrozen.sleepUntilHeight);
+		else
+			this.setRunnable(at);
+
+		return true;
+	}
+
+	/** Indexes AT as sleeping until <tt>height</tt>, i.e. not due before then */
+	public void sleepUntil(K at, int height) {
+		this.remove(at);
+
+		this.wakeHeights.put(at, height);
+		this.sleepersByHeight.computeIfAbsent(height, h -> new LinkedHashSet<>()).add(at);
+	}
+
+	/** Indexes AT as due every block */
+	public void setRunnable(K at) {
+		this.remove(at);
+
+		this.runnable.add(at);
+	}
+
+	/** Removes AT from index, e.g. if finished */
+	public void remove(K at) {
+		if (this.runnable.remove(at) || this.frozen.remove(at) != null)
+			return;
+
+		Integer wakeHeight = this.wakeHeights.remove(at);
+		if (wakeHeight == null)
+			return;
+
+		Set<K> sleepers = this.sleepersByHeight.get(wakeHeight);
+		sleepers.remove(at);
+		if (sleepers.isEmpty())
+			this.sleepersByHeight.remove(wakeHeight);
+	}
+
+	/**
+	 * Returns ATs due for execution at <tt>height</tt>, i.e. runnable ATs and ATs sleeping until <tt>height</tt> or earlier, in execution order.
+	 * Frozen ATs are never due.
+	 * <p>
+	 * ATs stay indexed as they are until updated, so ATs that are due but not executed will be due again at later heights.
+	 */
+	public List<K> getDue(int height) {
+		List<K> due = new ArrayList<>(this.runnable);
+
+		for (Set<K> sleepers : this.sleepersByHeight.headMap(height, true).values())
+			due.addAll(sleepers);
+
+		due.sort(this.executionOrder);
+		return due;
+	}
+
+	/** Returns lowest height at which a sleeping AT wakes up, or null if no ATs are sleeping */
+	public Integer getNextWakeHeight() {
+		return this.sleepersByHeight.isEmpty() ? null : this.sleepersByHeight.firstKey();
+	}
+
+	/** Returns number of indexed ATs */
+	public int size() {
+		return this.runnable.size() + this.wakeHeights.size() + this.frozen.size();
+	}
+
+	/** Returns number of frozen ATs */
+	public int frozenCount() {
+		return this.frozen.size();
+	}
+
+}
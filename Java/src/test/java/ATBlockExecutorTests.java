@@ -0,0 +1,248 @@
+import static common.TestUtils.hexToBytes;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.ciyam.at.ATBlockExecutor;
+import org.ciyam.at.ExecutionException;
+import org.ciyam.at.FunctionCode;
+import org.ciyam.at.MachineState;
+import org.ciyam.at.OpCode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import common.TestAPI;
+import common.TestLogger;
+
+public class ATBlockExecutorTests {
+
+	private static final int AT_COUNT = 24;
+	private static final int ROUNDS = 6;
+
+	// version 0002, reserved 0000, code 0200 * 1, data 0020 * 8, call stack 0010 * 4, user stack 0010 * 4, minActivation = 0
+	private static final byte[] HEADER_BYTES = hexToBytes("0200" + "0000" + "0002" + "2000" + "1000" + "1000" + "0000000000000000");
+
+	/** Records side effects, from all ATs, in the order they reach the API */
+	private static class RecordingAPI extends TestAPI {
+		private final int atIndex;
+		private final List<String> sideEffects;
+
+		public RecordingAPI(int atIndex, List<String> sideEffects) {
+			this.atIndex = atIndex;
+			this.sideEffects = sideEffects;
+		}
+
+		@Override
+		public void payAmountToB(long amount, MachineState state) {
+			this.sideEffects.add(String.format("AT %d pays %d to B %d from balance %d", this.atIndex, amount, state.getB1(), state.getCurrentBalance()));
+		}
+
+		@Override
+		public void messageAToB(MachineState state) {
+			this.sideEffects.add(String.format("AT %d messages A %d to B %d with balance %d", this.atIndex, state.getA1(), state.getB1(), state.getCurrentBalance()));
+		}
+
+		@Override
+		public void onFinished(long amount, MachineState state) {
+			this.sideEffects.add(String.format("AT %d finished, refunding %d", this.atIndex, amount));
+		}
+
+		@Override
+		public void onFatalError(MachineState state, ExecutionException e) {
+			this.sideEffects.add(String.format("AT %d fatal error: %s", this.atIndex, e.getMessage()));
+		}
+	}
+
+	public TestLogger logger;
+	public ForkJoinPool pool;
+
+	@Before
+	public void beforeTest() {
+		logger = new TestLogger();
+		pool = new ForkJoinPool(4);
+	}
+
+	@After
+	public void afterTest() {
+		pool.shutdown();
+		pool = null;
+		logger = null;
+	}
+
+	/**
+	 * Each round: busy loop, then message A (set from round counter) to B (set from data[0]), changing B afterwards so captured registers matter.
+	 * Round counter reaching data[1] divides by zero, which is fatal.
+	 * Round counter reaching data[7] pays to B, which uses whole balance, so finishes AT.
+	 */
+	private static byte[] buildCode() {
+		ByteBuffer codeByteBuffer = ByteBuffer.allocate(0x0200).order(ByteOrder.LITTLE_ENDIAN);
+
+		int roundAddress = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(2); // round counter
+		codeByteBuffer.put(OpCode.SET_VAL.value).putInt(3).putLong(50L); // loop counter
+
+		int loopAddress = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.MUL_DAT.value).putInt(4).putInt(2);
+		codeByteBuffer.put(OpCode.ADD_DAT.value).putInt(4).putInt(3);
+		codeByteBuffer.put(OpCode.DEC_DAT.value).putInt(3);
+		int tempPC = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.BNZ_DAT.value).putInt(3).put((byte) (loopAddress - tempPC));
+
+		codeByteBuffer.put(OpCode.EXT_FUN_DAT.value).putShort(FunctionCode.SET_B1.value).putInt(0);
+		codeByteBuffer.put(OpCode.EXT_FUN_DAT.value).putShort(FunctionCode.SET_A1.value).putInt(2);
+		codeByteBuffer.put(OpCode.EXT_FUN.value).putShort(FunctionCode.MESSAGE_A_TO_ADDRESS_IN_B.value);
+		codeByteBuffer.put(OpCode.EXT_FUN_DAT.value).putShort(FunctionCode.SET_B1.value).putInt(4);
+
+		// Fatal error when round counter reaches data[1]
+		codeByteBuffer.put(OpCode.SET_DAT.value).putInt(5).putInt(2);
+		codeByteBuffer.put(OpCode.SUB_DAT.value).putInt(5).putInt(1);
+		codeByteBuffer.put(OpCode.DIV_DAT.value).putInt(6).putInt(5);
+
+		// Pay when round counter reaches data[7]
+		tempPC = codeByteBuffer.position();
+		int sleepAddress = tempPC + 10 + 7 + 7;
+		codeByteBuffer.put(OpCode.BNE_DAT.value).putInt(2).putInt(7).put((byte) (sleepAddress - tempPC));
+		codeByteBuffer.put(OpCode.EXT_FUN_DAT.value).putShort(FunctionCode.SET_B1.value).putInt(0);
+		codeByteBuffer.put(OpCode.EXT_FUN_DAT.value).putShort(FunctionCode.PAY_TO_ADDRESS_IN_B.value).putInt(2);
+		assertEquals(sleepAddress, codeByteBuffer.position());
+
+		codeByteBuffer.put(OpCode.SLP_IMD.value);
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(roundAddress);
+
+		return codeByteBuffer.array();
+	}
+
+	private static List<MachineState> buildStates(byte[] codeBytes, List<String> sideEffects, TestLogger logger) {
+		List<MachineState> states = new ArrayList<>();
+
+		for (int i = 0; i < AT_COUNT; ++i) {
+			ByteBuffer dataByteBuffer = ByteBuffer.allocate(0x0020 * 8).order(ByteOrder.LITTLE_ENDIAN);
+			dataByteBuffer.putLong(0, 1000L + i); // recipient
+			dataByteBuffer.putLong(1 * MachineState.VALUE_SIZE, 2 + i % 5); // fatal error round
+			dataByteBuffer.putLong(6 * MachineState.VALUE_SIZE, 1L); // dividend
+			dataByteBuffer.putLong(7 * MachineState.VALUE_SIZE, 1 + i % 7); // payment round
+
+			states.add(new MachineState(new RecordingAPI(i, sideEffects), logger, HEADER_BYTES, codeBytes, dataByteBuffer.array()));
+		}
+
+		return states;
+	}
+
+	private static List<byte[]> serialize(List<MachineState> states) {
+		List<byte[]> stateBytes = new ArrayList<>();
+
+		for (MachineState state : states)
+			stateBytes.add(state.toBytes());
+
+		return stateBytes;
+	}
+
+	private static void nextBlock(List<MachineState> states) {
+		for (MachineState state : states) {
+			TestAPI api = (TestAPI) state.getAPI();
+			api.setCurrentBalance(state.getCurrentBalance());
+			api.bumpCurrentBlockHeight();
+		}
+	}
+
+	@Test
+	public void testMatchesSequentialExecution() {
+		byte[] codeBytes = buildCode();
+
+		List<String> sequentialSideEffects = new ArrayList<>();
+		List<MachineState> sequentialStates = buildStates(codeBytes, sequentialSideEffects, logger);
+
+		List<String> parallelSideEffects = new ArrayList<>();
+		List<MachineState> parallelStates = buildStates(codeBytes, parallelSideEffects, logger);
+
+		ATBlockExecutor executor = new ATBlockExecutor(pool);
+
+		for (int round = 0; round < ROUNDS; ++round) {
+			for (MachineState state : sequentialStates)
+				state.execute();
+
+			executor.execute(parallelStates);
+
+			assertEquals("Side effects differ in round " + round, sequentialSideEffects, parallelSideEffects);
+
+			List<byte[]> sequentialStateBytes = serialize(sequentialStates);
+			List<byte[]> parallelStateBytes = serialize(parallelStates);
+			for (int i = 0; i < AT_COUNT; ++i)
+				assertArrayEquals("State of AT " + i + " differs in round " + round, sequentialStateBytes.get(i), parallelStateBytes.get(i));
+
+			nextBlock(sequentialStates);
+			nextBlock(parallelStates);
+		}
+
+		// Check test actually covers payments, messages and fatal errors
+		assertTrue(sequentialSideEffects.stream().anyMatch(sideEffect -> sideEffect.contains("pays")));
+		assertTrue(sequentialSideEffects.stream().anyMatch(sideEffect -> sideEffect.contains("messages")));
+		assertTrue(sequentialSideEffects.stream().anyMatch(sideEffect -> sideEffect.contains("fatal error")));
+		assertTrue(sequentialSideEffects.stream().anyMatch(sideEffect -> sideEffect.contains("finished")));
+
+		// APIs are restored after execution
+		for (MachineState state : parallelStates)
+			assertTrue(state.getAPI() instanceof RecordingAPI);
+	}
+
+	@Test
+	public void testDuplicateStateRejected() {
+		List<MachineState> states = buildStates(buildCode(), new ArrayList<>(), logger);
+		MachineState state = states.get(0);
+
+		try {
+			new ATBlockExecutor(pool).execute(Arrays.asList(state, state));
+			fail("Duplicate machine state should be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testFailuresAreAllOrNothing() {
+		byte[] codeBytes = buildCode();
+		List<String> sideEffects = new ArrayList<>();
+		List<MachineState> states = buildStates(codeBytes, sideEffects, logger);
+
+		// Some APIs throw part-way through list
+		List<Integer> failingIndexes = Arrays.asList(5, 9, 17);
+		for (int i : failingIndexes)
+			states.set(i, new MachineState(new RecordingAPI(i, sideEffects) {
+				@Override
+				public long getCurrentBalance(MachineState state) {
+					throw new IllegalStateException("AT " + i + " API failure");
+				}
+			}, logger, HEADER_BYTES, codeBytes, new byte[0x0020 * 8]));
+
+		List<byte[]> initialStateBytes = serialize(states);
+
+		try {
+			new ATBlockExecutor(pool).execute(states);
+			fail("AT failure should be rethrown");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("Executing 3 AT(s) failed, first at list index 5"));
+
+			// First failure is cause, with later failures suppressed - fork-join pool may wrap them, keeping messages
+			assertTrue(e.getCause().getMessage().endsWith("AT 5 API failure"));
+			Throwable[] suppressed = e.getCause().getSuppressed();
+			assertEquals(2, suppressed.length);
+			assertTrue(suppressed[0].getMessage().endsWith("AT 9 API failure"));
+			assertTrue(suppressed[1].getMessage().endsWith("AT 17 API failure"));
+		}
+
+		// No side effects committed, even from ATs that executed successfully
+		assertTrue(sideEffects.isEmpty());
+
+		List<byte[]> stateBytes = serialize(states);
+		for (int i = 0; i < AT_COUNT; ++i)
+			if (!failingIndexes.contains(i))
+				assertFalse("AT " + i + " should have executed", Arrays.equals(initialStateBytes.get(i), stateBytes.get(i)));
+	}
+
+}
@@ -0,0 +1,276 @@
+import static common.TestUtils.hexToBytes;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ciyam.at.ATStateStore;
+import org.ciyam.at.CodeSegment;
+import org.ciyam.at.MachineState;
+import org.ciyam.at.MachineStatePool;
+import org.ciyam.at.MachineStateStatus;
+import org.ciyam.at.OpCode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import common.TestAPI;
+import common.TestLogger;
+
+public class ATStateStoreTests {
+
+	private static final int AT_COUNT = 5;
+	private static final int ROUNDS = 6;
+	private static final int CAPACITY = 64 * 1024;
+
+	// version 0002, reserved 0000, code 0200 * 1, data 0020 * 8, call stack 0010 * 4, user stack 0010 * 4, minActivation = 0
+	private static final byte[] HEADER_BYTES = hexToBytes("0200" + "0000" + "0002" + "2000" + "1000" + "1000" + "0000000000000000");
+
+	// as above, but data 0080 * 8 and user stack 0040 * 8
+	private static final byte[] LARGE_HEADER_BYTES = hexToBytes("0200" + "0000" + "0002" + "8000" + "1000" + "4000" + "0000000000000000");
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	public TestLogger logger;
+	public CodeSegment codeSegment;
+	public Path storePath;
+
+	@Before
+	public void beforeTest() throws IOException {
+		logger = new TestLogger();
+		storePath = temporaryFolder.getRoot().toPath().resolve("at-states");
+
+		// Push and increment data[0] each round, then sleep, so state size varies
+		ByteBuffer codeByteBuffer = ByteBuffer.allocate(0x0200).order(ByteOrder.LITTLE_ENDIAN);
+		int loopAddress = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(0);
+		codeByteBuffer.put(OpCode.PSH_DAT.value).putInt(0);
+		codeByteBuffer.put(OpCode.SLP_IMD.value);
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(loopAddress);
+
+		codeSegment = CodeSegment.of(codeByteBuffer.array());
+	}
+
+	@After
+	public void afterTest() {
+		codeSegment = null;
+		logger = null;
+	}
+
+	private MachineState newState(int i) {
+		byte[] headerBytes = i % 2 == 0 ? HEADER_BYTES : LARGE_HEADER_BYTES;
+		return new MachineState(new TestAPI(), logger, headerBytes, codeSegment, new byte[0]);
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException {
+		List<MachineState> expectedStates = new ArrayList<>();
+		List<TestAPI> apis = new ArrayList<>();
+		List<Integer> slots = new ArrayList<>();
+
+		try (ATStateStore store = ATStateStore.open(storePath, CAPACITY)) {
+			for (int i = 0; i < AT_COUNT; ++i) {
+				MachineState state = newState(i);
+				expectedStates.add(state);
+				apis.add((TestAPI) state.getAPI());
+				slots.add(store.allocate(state));
+			}
+
+			MachineStatePool pool = new MachineStatePool(2);
+			MachineStateStatus status = new MachineStateStatus();
+
+			for (int round = 0; round < ROUNDS; ++round) {
+				for (int i = 0; i < AT_COUNT; ++i) {
+					MachineState expectedState = expectedStates.get(i);
+					expectedState.execute();
+
+					// Peek and restore straight from mapped file
+					ByteBuffer byteBuffer = store.read(slots.get(i));
+					assertFalse(MachineState.peekStatus(byteBuffer, status).getIsFinished());
+
+					MachineState state = pool.acquire(apis.get(i), logger, byteBuffer, codeSegment);
+					state.execute();
+					store.save(slots.get(i), state);
+					pool.release(state);
+
+					assertArrayEquals("AT " + i + " differs in round " + round, expectedState.toBytes(), toBytes(store.read(slots.get(i))));
+				}
+
+				for (TestAPI api : apis)
+					api.bumpCurrentBlockHeight();
+			}
+		}
+
+		// Reopened store has same states
+		try (ATStateStore store = ATStateStore.open(storePath, CAPACITY)) {
+			for (int i = 0; i < AT_COUNT; ++i) {
+				MachineState state = store.load(slots.get(i), apis.get(i), logger, codeSegment);
+				assertArrayEquals("AT " + i + " differs after reopening", expectedStates.get(i).toBytes(), state.toBytes());
+			}
+
+			// New slots follow existing ones
+			int slot = store.allocate(newState(0));
+			for (int existingSlot : slots)
+				assertTrue(slot > existingSlot);
+		}
+	}
+
+	@Test
+	public void testTornSaveFallsBackToPreviousState() throws IOException {
+		MachineState state = newState(0);
+		int slot;
+		byte[] previousStateBytes;
+		byte[] tornStateBytes;
+
+		try (ATStateStore store = ATStateStore.open(storePath, CAPACITY)) {
+			slot = store.allocate(state);
+
+			state.execute();
+			store.save(slot, state);
+			store.flush();
+			previousStateBytes = state.toBytes();
+
+			((TestAPI) state.getAPI()).bumpCurrentBlockHeight();
+			state.execute();
+			store.save(slot, state);
+			tornStateBytes = state.toBytes();
+
+			assertArrayEquals(tornStateBytes, toBytes(store.read(slot)));
+		}
+
+		// Simulate newest save only partly reaching disk by corrupting its last byte
+		byte[] fileBytes = Files.readAllBytes(storePath);
+		int tornIndex = indexOf(fileBytes, tornStateBytes);
+		assertTrue(tornIndex >= 0);
+
+		try (RandomAccessFile file = new RandomAccessFile(storePath.toFile(), "rw")) {
+			int corruptIndex = tornIndex + tornStateBytes.length - 1;
+			file.seek(corruptIndex);
+			file.write(fileBytes[corruptIndex] ^ 0x01);
+		}
+
+		try (ATStateStore store = ATStateStore.open(storePath, CAPACITY)) {
+			assertArrayEquals("Torn save should fall back to previous state", previousStateBytes, toBytes(store.read(slot)));
+
+			// Next saves overwrite torn copy, never the valid previous state
+			store.save(slot, state);
+			assertArrayEquals(tornStateBytes, toBytes(store.read(slot)));
+			store.save(slot, newState(0));
+			assertArrayEquals(newState(0).toBytes(), toBytes(store.read(slot)));
+		}
+
+		assertTrue("Previous state should still be stored", indexOf(Files.readAllBytes(storePath), previousStateBytes) >= 0);
+	}
+
+	@Test
+	public void testSavesBetweenFlushesKeepFlushedState() throws IOException {
+		MachineState state = newState(0);
+		TestAPI api = (TestAPI) state.getAPI();
+		int slot;
+		byte[] flushedStateBytes;
+		byte[] tornStateBytes;
+
+		try (ATStateStore store = ATStateStore.open(storePath, CAPACITY)) {
+			slot = store.allocate(state);
+
+			state.execute();
+			store.save(slot, state);
+			store.flush();
+			flushedStateBytes = state.toBytes();
+
+			// Several saves before next flush, e.g. AT executed again, or saved again after more processing
+			for (int i = 0; i < 3; ++i) {
+				api.bumpCurrentBlockHeight();
+				state.execute();
+				store.save(slot, state);
+				assertArrayEquals(state.toBytes(), toBytes(store.read(slot)));
+			}
+
+			tornStateBytes = state.toBytes();
+		}
+
+		byte[] fileBytes = Files.readAllBytes(storePath);
+		assertTrue("Flushed state should still be stored", indexOf(fileBytes, flushedStateBytes) >= 0);
+
+		// Simulate newest save only partly reaching disk by corrupting its last byte
+		int tornIndex = indexOf(fileBytes, tornStateBytes);
+		assertTrue(tornIndex >= 0);
+
+		try (RandomAccessFile file = new RandomAccessFile(storePath.toFile(), "rw")) {
+			int corruptIndex = tornIndex + tornStateBytes.length - 1;
+			file.seek(corruptIndex);
+			file.write(fileBytes[corruptIndex] ^ 0x01);
+		}
+
+		try (ATStateStore store = ATStateStore.open(storePath, CAPACITY)) {
+			assertArrayEquals("Torn save should fall back to flushed state", flushedStateBytes, toBytes(store.read(slot)));
+		}
+	}
+
+	@Test
+	public void testInvalidUse() throws IOException {
+		try (ATStateStore store = ATStateStore.open(storePath, 4096)) {
+			int slot = store.allocate(newState(0));
+
+			try {
+				store.read(slot + 8);
+				fail("Invalid slot should be rejected");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+
+			try {
+				store.save(slot, newState(1));
+				fail("State too large for slot should be rejected");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+
+			try {
+				for (int i = 0; i < 10; ++i)
+					store.allocate(newState(1));
+
+				fail("Full store should be rejected");
+			} catch (IllegalStateException e) {
+				// Expected
+			}
+		}
+
+		Path notStorePath = temporaryFolder.newFile().toPath();
+		Files.write(notStorePath, new byte[100]);
+		try {
+			ATStateStore.open(notStorePath, 4096).close();
+			fail("Non-store file should be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	private static byte[] toBytes(ByteBuffer byteBuffer) {
+		byte[] bytes = new byte[byteBuffer.remaining()];
+		byteBuffer.duplicate().get(bytes);
+		return bytes;
+	}
+
+	private static int indexOf(byte[] bytes, byte[] target) {
+		outer: for (int i = 0; i <= bytes.length - target.length; ++i) {
+			for (int j = 0; j < target.length; ++j)
+				if (bytes[i + j] != target[j])
+					continue outer;
+
+			return i;
+		}
+
+		return -1;
+	}
+
+}
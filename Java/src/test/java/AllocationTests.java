@@ -0,0 +1,151 @@
+import static common.TestUtils.hexToBytes;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.ciyam.at.ExecutionException;
+import org.ciyam.at.MachineState;
+import org.ciyam.at.OpCode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import common.TestAPI;
+import common.TestLogger;
+
+public class AllocationTests {
+
+	private static final ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	// Mix of OpCodes with data addresses, indexes and immediate values
+	private static final OpCode[] OPCODES = { OpCode.SET_VAL, OpCode.ADD_DAT, OpCode.MUL_DAT, OpCode.SET_IDX, OpCode.PSH_DAT, OpCode.IDX_DAT, OpCode.POP_DAT,
+			OpCode.NOT_DAT };
+
+	public TestLogger logger;
+	public TestAPI api;
+	public ByteBuffer codeByteBuffer;
+
+	@Before
+	public void beforeTest() {
+		logger = new TestLogger();
+		api = new TestAPI();
+		codeByteBuffer = ByteBuffer.allocate(0x2000).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	@After
+	public void afterTest() {
+		codeByteBuffer = null;
+		api = null;
+		logger = null;
+	}
+
+	private long getAllocatedBytes() {
+		return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private MachineState newState() {
+		// version 0002, reserved 0000, code 2000 * 1, data 0020 * 8, call stack 0010 * 4, user stack 0010 * 4, minActivation = 0
+		byte[] headerBytes = hexToBytes("0200" + "0000" + "0020" + "2000" + "1000" + "1000" + "0000000000000000");
+		byte[] codeBytes = codeByteBuffer.array();
+		byte[] dataBytes = new byte[0];
+
+		return new MachineState(api, logger, headerBytes, codeBytes, dataBytes);
+	}
+
+	/** Executes OPCODES in order, for each cycle of args in code bytes, returning number of OpCodes executed */
+	private int executeOpCodes(MachineState state, int cycles) throws ExecutionException {
+		// OpCode.execute() fetches args from codeByteBuffer's current position, which starts at 0
+		for (int cycle = 0; cycle < cycles; ++cycle)
+			for (OpCode opCode : OPCODES)
+				opCode.execute(state);
+
+		return cycles * OPCODES.length;
+	}
+
+	@Test
+	public void testOpCodeArgsAllocation() throws ExecutionException {
+		assertTrue("Thread allocation measurement not supported", threadMXBean.isThreadAllocatedMemorySupported());
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+		// Code bytes contain only args, laid out for OPCODES in order
+		int cycles = 0;
+		while (codeByteBuffer.remaining() >= 64) {
+			++cycles;
+
+			codeByteBuffer.putInt(1).putLong(3L); // SET_VAL @1 = 3
+			codeByteBuffer.putInt(2).putInt(1); // ADD_DAT @2 += $1
+			codeByteBuffer.putInt(2).putInt(1); // MUL_DAT @2 *= $1
+			codeByteBuffer.putInt(3).putInt(1).putInt(1); // SET_IDX @3 = $($1 + $1)
+			codeByteBuffer.putInt(3); // PSH_DAT $3
+			codeByteBuffer.putInt(1).putInt(1).putInt(2); // IDX_DAT @($1 + $1) = $2
+			codeByteBuffer.putInt(4); // POP_DAT @4
+			codeByteBuffer.putInt(5); // NOT_DAT @5
+		}
+
+		// Warm-up
+		for (int i = 0; i < 20; ++i)
+			executeOpCodes(newState(), cycles);
+
+		// Allow for any overhead in measuring itself
+		long overhead = -getAllocatedBytes() + getAllocatedBytes();
+
+		// Take best of several attempts in case of unrelated allocation, e.g. by JIT compilation
+		long allocated = Long.MAX_VALUE;
+		int count = 0;
+		for (int attempt = 0; attempt < 5 && allocated != 0; ++attempt) {
+			MachineState state = newState();
+
+			long before = getAllocatedBytes();
+			count = executeOpCodes(state, cycles);
+			allocated = Math.min(allocated, getAllocatedBytes() - before - overhead);
+		}
+
+		System.out.println(String.format("Allocated %d bytes executing %d OpCodes", allocated, count));
+		assertEquals("OpCode execution shouldn't allocate", 0L, allocated);
+	}
+
+	@Test
+	public void testRestoreAndExecuteAllocation() {
+		assertTrue("Thread allocation measurement not supported", threadMXBean.isThreadAllocatedMemorySupported());
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+		// Sleep until next block, so each restore executes again
+		codeByteBuffer.put(OpCode.SLP_IMD.value);
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(0);
+		byte[] codeBytes = codeByteBuffer.array();
+
+		byte[] stateBytes = newState().toBytes();
+
+		// Warm-up
+		for (int i = 0; i < 20; ++i) {
+			api.bumpCurrentBlockHeight();
+			MachineState state = MachineState.fromBytes(api, logger, stateBytes, codeBytes);
+			state.execute();
+			stateBytes = state.toBytes();
+		}
+
+		// Take best of several attempts in case of unrelated allocation, e.g. by JIT compilation
+		long allocated = Long.MAX_VALUE;
+		for (int attempt = 0; attempt < 5; ++attempt) {
+			api.bumpCurrentBlockHeight();
+
+			long before = getAllocatedBytes();
+			MachineState state = MachineState.fromBytes(api, logger, stateBytes, codeBytes);
+			state.execute();
+			allocated = Math.min(allocated, getAllocatedBytes() - before);
+
+			assertTrue("AT should have executed", state.getSteps() > 0);
+			stateBytes = state.toBytes();
+		}
+
+		System.out.println(String.format("Allocated %d bytes restoring and executing AT with %d code bytes", allocated, codeBytes.length));
+
+		// Restored copy of code bytes, and logging, are expected, but not decoding code again, which takes around 40 bytes per code byte
+		assertTrue("Restored AT shouldn't decode code again", allocated < 10 * codeBytes.length);
+	}
+
+}
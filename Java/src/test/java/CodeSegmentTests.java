@@ -0,0 +1,214 @@
+import static common.TestUtils.hexToBytes;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.ciyam.at.CodeSegment;
+import org.ciyam.at.CodeSegmentRegistry;
+import org.ciyam.at.ExecutionEngine;
+import org.ciyam.at.MachineState;
+import org.ciyam.at.OpCode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import common.TestAPI;
+import common.TestLogger;
+
+public class CodeSegmentTests {
+
+	private static final int MAX_ROUNDS = 10;
+
+	// version 0002, reserved 0000, code 0200 * 1, data 0020 * 8, call stack 0010 * 4, user stack 0010 * 4, minActivation = 0
+	private static final byte[] HEADER_BYTES = hexToBytes("0200" + "0000" + "0002" + "2000" + "1000" + "1000" + "0000000000000000");
+
+	public TestLogger logger;
+	public ByteBuffer codeByteBuffer;
+	public ByteBuffer dataByteBuffer;
+
+	@Before
+	public void beforeTest() {
+		logger = new TestLogger();
+		codeByteBuffer = ByteBuffer.allocate(0x0200).order(ByteOrder.LITTLE_ENDIAN);
+		dataByteBuffer = ByteBuffer.allocate(0x0020 * 8).order(ByteOrder.LITTLE_ENDIAN);
+
+		// Sum loop counter into data[1] then sleep until next block, repeatedly
+		dataByteBuffer.putLong(0, 5L); // loop counter
+
+		int loopAddress = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.ADD_DAT.value).putInt(1).putInt(0);
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(2);
+		codeByteBuffer.put(OpCode.DEC_DAT.value).putInt(0);
+		int tempPC = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.BNZ_DAT.value).putInt(0).put((byte) (loopAddress - tempPC));
+		codeByteBuffer.put(OpCode.SET_VAL.value).putInt(0).putLong(5L);
+		codeByteBuffer.put(OpCode.SLP_IMD.value);
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(loopAddress);
+	}
+
+	@After
+	public void afterTest() {
+		dataByteBuffer = null;
+		codeByteBuffer = null;
+		logger = null;
+	}
+
+	@Test
+	public void testRegistryDeduplicates() {
+		byte[] codeBytes = codeByteBuffer.array().clone();
+
+		CodeSegment codeSegment = CodeSegment.of(codeBytes);
+		assertSame("Identical code should share code segment", codeSegment, CodeSegment.of(codeByteBuffer.array().clone()));
+		assertEquals(codeBytes.length, codeSegment.length());
+
+		// Registered code segment is a copy, so unaffected by caller's changes
+		codeBytes[0] = OpCode.FIN_IMD.value;
+		assertNotSame("Different code should not share code segment", codeSegment, CodeSegment.of(codeBytes));
+		assertSame(codeSegment, CodeSegment.of(codeByteBuffer.array()));
+	}
+
+	@Test
+	public void testRegistryEviction() {
+		byte[][] codes = new byte[4][];
+		for (int i = 0; i < codes.length; ++i) {
+			codes[i] = codeByteBuffer.array().clone();
+			codes[i][0x01ff] = (byte) i;
+		}
+
+		// Room for two code segments
+		CodeSegmentRegistry registry = new CodeSegmentRegistry(2 * 0x0200);
+
+		CodeSegment codeSegment0 = registry.getCodeSegment(codes[0]);
+		CodeSegment codeSegment1 = registry.getCodeSegment(codes[1]);
+		assertEquals(2, registry.size());
+		assertEquals(2 * 0x0200, registry.getTotalCodeBytes());
+
+		// Use code 0 so code 1 is least recently used, and evicted by code 2
+		assertSame(codeSegment0, registry.getCodeSegment(codes[0]));
+		CodeSegment codeSegment2 = registry.getCodeSegment(codes[2]);
+		assertEquals(2, registry.size());
+
+		assertSame(codeSegment0, registry.getCodeSegment(codes[0]));
+		assertSame(codeSegment2, registry.getCodeSegment(codes[2]));
+		assertNotSame("Evicted code segment shouldn't be returned", codeSegment1, registry.getCodeSegment(codes[1]));
+		assertEquals(2, registry.size());
+
+		// Registries are independent
+		assertNotSame(codeSegment0, CodeSegment.of(codes[0]));
+
+		// Code longer than limit is never registered
+		CodeSegmentRegistry smallRegistry = new CodeSegmentRegistry(0x0100);
+		assertNotSame(smallRegistry.getCodeSegment(codes[3]), smallRegistry.getCodeSegment(codes[3]));
+		assertEquals(0, smallRegistry.size());
+
+		registry.clear();
+		assertEquals(0, registry.size());
+		assertEquals(0, registry.getTotalCodeBytes());
+		assertNotSame(codeSegment0, registry.getCodeSegment(codes[0]));
+	}
+
+	@Test
+	public void testRegistryConcurrentLookups() throws InterruptedException {
+		byte[][] codes = new byte[4][];
+		for (int i = 0; i < codes.length; ++i) {
+			codes[i] = codeByteBuffer.array().clone();
+			codes[i][0x01ff] = (byte) i;
+		}
+
+		// Room for two code segments, so lookups race with registrations and evictions
+		CodeSegmentRegistry registry = new CodeSegmentRegistry(2 * 0x0200);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			int threadIndex = t;
+
+			threads[t] = new Thread(() -> {
+				try {
+					for (int i = 0; i < 2000; ++i) {
+						byte[] codeBytes = codes[(threadIndex + i / 100) % codes.length];
+						CodeSegment codeSegment = registry.getCodeSegment(codeBytes);
+
+						assertEquals(CodeSegment.of(codeBytes), codeSegment);
+						assertTrue(registry.getTotalCodeBytes() <= 2 * 0x0200);
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+			threads[t].start();
+		}
+
+		for (Thread thread : threads)
+			thread.join();
+
+		assertNull(failure.get());
+		assertTrue(registry.size() <= 2);
+		assertEquals(registry.size() * 0x0200, registry.getTotalCodeBytes());
+	}
+
+	@Test
+	public void testSharedCodeSegment() {
+		for (ExecutionEngine engine : ExecutionEngine.values()) {
+			byte[] expected = executeUnshared(engine);
+
+			CodeSegment codeSegment = CodeSegment.of(codeByteBuffer.array());
+
+			// Two ATs with same code, interleaved, each restored every round
+			TestAPI[] apis = { new TestAPI(), new TestAPI() };
+			MachineState[] states = new MachineState[apis.length];
+			ByteArrayOutputStream[] rounds = new ByteArrayOutputStream[apis.length];
+
+			for (int i = 0; i < states.length; ++i) {
+				states[i] = new MachineState(apis[i], logger, HEADER_BYTES, codeSegment, dataByteBuffer.array());
+				rounds[i] = new ByteArrayOutputStream();
+			}
+
+			for (int round = 0; round < MAX_ROUNDS; ++round)
+				for (int i = 0; i < states.length; ++i) {
+					states[i] = MachineState.fromBytes(apis[i], logger, ByteBuffer.wrap(states[i].toBytes()), codeSegment);
+					states[i].setExecutionEngine(engine);
+
+					executeRound(apis[i], states[i], rounds[i]);
+				}
+
+			assertSame("Code bytes should be shared", states[0].getCodeBytes(), states[1].getCodeBytes());
+
+			for (ByteArrayOutputStream atRounds : rounds)
+				assertArrayEquals(engine + " engine produced different state using shared code segment", expected, atRounds.toByteArray());
+		}
+	}
+
+	/** Executes code/data using engine, over several rounds, with unshared code, returning serialized state after each round */
+	private byte[] executeUnshared(ExecutionEngine engine) {
+		TestAPI api = new TestAPI();
+		MachineState state = new MachineState(api, logger, HEADER_BYTES, codeByteBuffer.array(), dataByteBuffer.array());
+
+		ByteArrayOutputStream rounds = new ByteArrayOutputStream();
+
+		for (int round = 0; round < MAX_ROUNDS; ++round) {
+			state = MachineState.fromBytes(api, logger, state.toBytes(), codeByteBuffer.array());
+			state.setExecutionEngine(engine);
+
+			executeRound(api, state, rounds);
+		}
+
+		return rounds.toByteArray();
+	}
+
+	private static void executeRound(TestAPI api, MachineState state, ByteArrayOutputStream rounds) {
+		state.execute();
+
+		assertFalse(state.getHadFatalError());
+
+		api.setCurrentBalance(state.getCurrentBalance());
+		api.bumpCurrentBlockHeight();
+
+		byte[] stateBytes = state.toBytes();
+		rounds.write(stateBytes, 0, stateBytes.length);
+	}
+
+}
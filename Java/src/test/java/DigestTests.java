@@ -0,0 +1,144 @@
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.ciyam.at.Digester;
+import org.ciyam.at.ExecutionException;
+import org.ciyam.at.FunctionCode;
+import org.ciyam.at.MachineState;
+import org.ciyam.at.OpCode;
+import org.junit.Test;
+
+import common.ExecutableTest;
+import common.TestAPI;
+
+/** Cross-checks hash functions, and built-in MD5, RIPEMD160 and SHA-256, against JCA (with BouncyCastle for RIPEMD160) */
+public class DigestTests extends ExecutableTest {
+
+	private static final int RANDOM_TRIALS = 50;
+
+	private static final FunctionCode[] SET_A = { FunctionCode.SET_A1, FunctionCode.SET_A2, FunctionCode.SET_A3, FunctionCode.SET_A4 };
+	private static final FunctionCode[] GET_B = { FunctionCode.GET_B1, FunctionCode.GET_B2, FunctionCode.GET_B3, FunctionCode.GET_B4 };
+
+	private static final String[] ALGORITHMS = { "MD5", "RIPEMD160", "SHA-256" };
+	private static final int[] MESSAGE_VALUE_COUNTS = { 2, 3, 4 };
+	private static final FunctionCode[] HASH_FUNCTIONS = { FunctionCode.MD5_A_TO_B, FunctionCode.HASH160_A_TO_B, FunctionCode.SHA256_A_TO_B };
+	private static final FunctionCode[] CHECK_FUNCTIONS = { FunctionCode.CHECK_MD5_A_WITH_B, FunctionCode.CHECK_HASH160_A_WITH_B,
+			FunctionCode.CHECK_SHA256_A_WITH_B };
+
+	// Data addresses
+	private static final int A_VALUES = 0; // 4 longs
+	private static final int DIGESTS = 4; // 4 longs per algorithm
+	private static final int CHECKS = DIGESTS + 4 * ALGORITHMS.length; // 1 long per algorithm
+
+	@Test
+	public void testZeroMessage() throws ExecutionException, NoSuchAlgorithmException {
+		checkDigests(new long[4]);
+	}
+
+	@Test
+	public void testAllOnesMessage() throws ExecutionException, NoSuchAlgorithmException {
+		long[] aValues = new long[4];
+		Arrays.fill(aValues, -1L);
+
+		checkDigests(aValues);
+	}
+
+	@Test
+	public void testRandomMessages() throws ExecutionException, NoSuchAlgorithmException {
+		Random random = new Random(20201017L);
+
+		for (int trial = 0; trial < RANDOM_TRIALS; ++trial) {
+			long[] aValues = new long[4];
+			for (int i = 0; i < aValues.length; ++i)
+				aValues[i] = random.nextLong();
+
+			checkDigests(aValues);
+		}
+	}
+
+	private void checkDigests(long[] aValues) throws ExecutionException, NoSuchAlgorithmException {
+		checkFunctionCodeDigests(aValues);
+		checkBuiltInDigests(aValues);
+	}
+
+	private void checkBuiltInDigests(long[] aValues) throws NoSuchAlgorithmException {
+		Digester digester = new Digester();
+
+		for (int a = 0; a < ALGORITHMS.length; ++a) {
+			long[] digest;
+			switch (a) {
+				case 0:
+					digest = digester.md5(aValues[0], aValues[1]);
+					break;
+
+				case 1:
+					digest = digester.ripemd160(aValues[0], aValues[1], aValues[2]);
+					break;
+
+				default:
+					digest = digester.sha256(aValues[0], aValues[1], aValues[2], aValues[3]);
+					break;
+			}
+
+			ByteBuffer actualDigest = ByteBuffer.allocate(4 * MachineState.VALUE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			for (long digestValue : digest)
+				actualDigest.putLong(digestValue);
+
+			assertArrayEquals("Built-in " + ALGORITHMS[a] + " digests do not match", expectedDigest(aValues, a), actualDigest.array());
+		}
+	}
+
+	private static byte[] expectedDigest(long[] aValues, int algorithmIndex) throws NoSuchAlgorithmException {
+		ByteBuffer messageByteBuffer = ByteBuffer.allocate(MESSAGE_VALUE_COUNTS[algorithmIndex] * MachineState.VALUE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < MESSAGE_VALUE_COUNTS[algorithmIndex]; ++i)
+			messageByteBuffer.putLong(aValues[i]);
+
+		// B is zero-padded beyond digest length
+		return Arrays.copyOf(MessageDigest.getInstance(ALGORITHMS[algorithmIndex]).digest(messageByteBuffer.array()), 4 * MachineState.VALUE_SIZE);
+	}
+
+	private void checkFunctionCodeDigests(long[] aValues) throws ExecutionException, NoSuchAlgorithmException {
+		// Fresh API and code for each message, as finishing refunds API's balance
+		api = new TestAPI();
+		codeByteBuffer = ByteBuffer.allocate(512).order(ByteOrder.LITTLE_ENDIAN);
+
+		for (int i = 0; i < 4; ++i) {
+			codeByteBuffer.put(OpCode.SET_VAL.value).putInt(A_VALUES + i).putLong(aValues[i]);
+			codeByteBuffer.put(OpCode.EXT_FUN_DAT.value).putShort(SET_A[i].value).putInt(A_VALUES + i);
+		}
+
+		for (int a = 0; a < ALGORITHMS.length; ++a) {
+			codeByteBuffer.put(OpCode.EXT_FUN.value).putShort(HASH_FUNCTIONS[a].value);
+
+			for (int i = 0; i < 4; ++i)
+				codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort(GET_B[i].value).putInt(DIGESTS + a * 4 + i);
+
+			codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort(CHECK_FUNCTIONS[a].value).putInt(CHECKS + a);
+		}
+
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		execute(true);
+
+		assertTrue(state.getIsFinished());
+		assertFalse(state.getHadFatalError());
+
+		for (int a = 0; a < ALGORITHMS.length; ++a) {
+			byte[] expectedDigest = expectedDigest(aValues, a);
+
+			ByteBuffer actualDigest = ByteBuffer.allocate(4 * MachineState.VALUE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < 4; ++i)
+				actualDigest.putLong(getData(DIGESTS + a * 4 + i));
+
+			assertArrayEquals(ALGORITHMS[a] + " digests do not match", expectedDigest, actualDigest.array());
+			assertEquals(ALGORITHMS[a] + " check should pass", 1L, getData(CHECKS + a));
+		}
+	}
+
+}
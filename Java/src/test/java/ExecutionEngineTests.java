@@ -0,0 +1,324 @@
+import static common.TestUtils.hexToBytes;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.ciyam.at.ExecutionEngine;
+import org.ciyam.at.ExecutionException;
+import org.ciyam.at.FunctionCode;
+import org.ciyam.at.MachineState;
+import org.ciyam.at.OpCode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import common.TestAPI;
+import common.TestLogger;
+
+public class ExecutionEngineTests {
+
+	private static final int MAX_ROUNDS = 30;
+
+	public TestLogger logger;
+	public TestAPI api;
+	public ByteBuffer codeByteBuffer;
+	public ByteBuffer dataByteBuffer;
+
+	@Before
+	public void beforeTest() {
+		logger = new TestLogger();
+		codeByteBuffer = ByteBuffer.allocate(0x0200).order(ByteOrder.LITTLE_ENDIAN);
+		dataByteBuffer = ByteBuffer.allocate(0x0020 * 8).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	@After
+	public void afterTest() {
+		dataByteBuffer = null;
+		codeByteBuffer = null;
+		api = null;
+		logger = null;
+	}
+
+	/** Executes code/data using engine, over several rounds, returning serialized state after each round */
+	private byte[] executeWith(ExecutionEngine engine) {
+		// version 0002, reserved 0000, code 0200 * 1, data 0020 * 8, call stack 0010 * 4, user stack 0010 * 4, minActivation = 0
+		byte[] headerBytes = hexToBytes("0200" + "0000" + "0002" + "2000" + "1000" + "1000" + "0000000000000000");
+		byte[] codeBytes = codeByteBuffer.array();
+		byte[] dataBytes = dataByteBuffer.array();
+
+		api = new TestAPI();
+		MachineState state = new MachineState(api, logger, headerBytes, codeBytes, dataBytes);
+
+		ByteArrayOutputStream rounds = new ByteArrayOutputStream();
+
+		for (int round = 0; round < MAX_ROUNDS && !state.getIsFinished(); ++round) {
+			state = MachineState.fromBytes(api, logger, state.toBytes(), codeBytes);
+			state.setExecutionEngine(engine);
+			assertEquals(engine, state.getExecutionEngine());
+
+			state.execute();
+
+			api.setCurrentBalance(state.getCurrentBalance());
+			api.bumpCurrentBlockHeight();
+
+			byte[] stateBytes = state.toBytes();
+			rounds.write(stateBytes, 0, stateBytes.length);
+		}
+
+		return rounds.toByteArray();
+	}
+
+	private void assertEnginesMatch() {
+		byte[] expected = executeWith(ExecutionEngine.OPCODE);
+
+		assertArrayEquals("SWITCH engine produced different state", expected, executeWith(ExecutionEngine.SWITCH));
+		assertArrayEquals("COMPILED engine produced different state", expected, executeWith(ExecutionEngine.COMPILED));
+	}
+
+	@Test
+	public void testDataOperations() throws ExecutionException {
+		dataByteBuffer.putLong(0, 7L);
+		dataByteBuffer.putLong(1 * MachineState.VALUE_SIZE, -3L);
+		dataByteBuffer.putLong(2 * MachineState.VALUE_SIZE, 70L); // shift beyond value size
+		dataByteBuffer.putLong(3 * MachineState.VALUE_SIZE, 5L); // loop counter
+		dataByteBuffer.putLong(4 * MachineState.VALUE_SIZE, 1L); // index
+
+		int loopAddress = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.SET_VAL.value).putInt(5).putLong(0x0123456789abcdefL);
+		codeByteBuffer.put(OpCode.SET_DAT.value).putInt(6).putInt(5);
+		codeByteBuffer.put(OpCode.ADD_DAT.value).putInt(6).putInt(0);
+		codeByteBuffer.put(OpCode.SUB_DAT.value).putInt(6).putInt(1);
+		codeByteBuffer.put(OpCode.MUL_DAT.value).putInt(6).putInt(1);
+		codeByteBuffer.put(OpCode.DIV_DAT.value).putInt(6).putInt(0);
+		codeByteBuffer.put(OpCode.MOD_DAT.value).putInt(5).putInt(0);
+		codeByteBuffer.put(OpCode.BOR_DAT.value).putInt(7).putInt(6);
+		codeByteBuffer.put(OpCode.AND_DAT.value).putInt(7).putInt(1);
+		codeByteBuffer.put(OpCode.XOR_DAT.value).putInt(7).putInt(5);
+		codeByteBuffer.put(OpCode.NOT_DAT.value).putInt(8);
+		codeByteBuffer.put(OpCode.SHL_DAT.value).putInt(6).putInt(4);
+		codeByteBuffer.put(OpCode.SHR_DAT.value).putInt(7).putInt(4);
+		codeByteBuffer.put(OpCode.SHL_DAT.value).putInt(8).putInt(2);
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(4);
+		codeByteBuffer.put(OpCode.SET_IND.value).putInt(9).putInt(4);
+		codeByteBuffer.put(OpCode.SET_IDX.value).putInt(10).putInt(4).putInt(4);
+		codeByteBuffer.put(OpCode.IND_DAT.value).putInt(4).putInt(6);
+		codeByteBuffer.put(OpCode.IDX_DAT.value).putInt(4).putInt(4).putInt(7);
+		codeByteBuffer.put(OpCode.CLR_DAT.value).putInt(11);
+		codeByteBuffer.put(OpCode.DEC_DAT.value).putInt(3);
+		codeByteBuffer.put(OpCode.NOP.value);
+		int tempPC = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.BNZ_DAT.value).putInt(3).put((byte) (loopAddress - tempPC));
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		assertEnginesMatch();
+	}
+
+	@Test
+	public void testBranchesAndSubroutines() throws ExecutionException {
+		dataByteBuffer.putLong(0, 10L); // loop counter
+		dataByteBuffer.putLong(1 * MachineState.VALUE_SIZE, 5L);
+
+		final int addrSubroutine = 0x0100;
+
+		codeByteBuffer.put(OpCode.SET_PCS.value);
+		int loopAddress = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.JMP_SUB.value).putInt(addrSubroutine);
+
+		for (OpCode branchOpCode : new OpCode[] { OpCode.BGT_DAT, OpCode.BLT_DAT, OpCode.BGE_DAT, OpCode.BLE_DAT, OpCode.BEQ_DAT, OpCode.BNE_DAT }) {
+			// Skip over following INC_DAT if branch taken
+			codeByteBuffer.put(branchOpCode.value).putInt(0).putInt(1).put((byte) (1 + 4 + 4 + 1 + 1 + 4));
+			codeByteBuffer.put(OpCode.INC_DAT.value).putInt(branchOpCode.value - OpCode.BGT_DAT.value + 10);
+		}
+
+		codeByteBuffer.put(OpCode.BZR_DAT.value).putInt(2).put((byte) (1 + 4 + 1 + 1 + 4));
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(3);
+		codeByteBuffer.put(OpCode.DEC_DAT.value).putInt(0);
+		codeByteBuffer.put(OpCode.FIZ_DAT.value).putInt(0);
+		codeByteBuffer.put(OpCode.STZ_DAT.value).putInt(20);
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(loopAddress);
+
+		// subroutine: push/pop and return
+		codeByteBuffer.position(addrSubroutine);
+		codeByteBuffer.put(OpCode.PSH_DAT.value).putInt(0);
+		codeByteBuffer.put(OpCode.PSH_DAT.value).putInt(1);
+		codeByteBuffer.put(OpCode.POP_DAT.value).putInt(4);
+		codeByteBuffer.put(OpCode.POP_DAT.value).putInt(5);
+		codeByteBuffer.put(OpCode.SLP_IMD.value);
+		codeByteBuffer.put(OpCode.RET_SUB.value);
+
+		assertEnginesMatch();
+	}
+
+	@Test
+	public void testErrors() throws ExecutionException {
+		dataByteBuffer.putLong(1 * MachineState.VALUE_SIZE, 0L); // zero divisor
+		dataByteBuffer.putLong(2 * MachineState.VALUE_SIZE, 9999L); // out-of-bounds index
+
+		// Each error handler sets up the next one before causing another error
+		codeByteBuffer.put(OpCode.ERR_ADR.value).putInt(0x0040);
+		codeByteBuffer.put(OpCode.DIV_DAT.value).putInt(3).putInt(1);
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		codeByteBuffer.position(0x0040);
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(4);
+		codeByteBuffer.put(OpCode.ERR_ADR.value).putInt(0x0080);
+		codeByteBuffer.put(OpCode.MOD_DAT.value).putInt(3).putInt(1);
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		codeByteBuffer.position(0x0080);
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(4);
+		codeByteBuffer.put(OpCode.ERR_ADR.value).putInt(0x00c0);
+		codeByteBuffer.put(OpCode.SET_IND.value).putInt(3).putInt(2);
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		codeByteBuffer.position(0x00c0);
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(4);
+		codeByteBuffer.put(OpCode.ERR_ADR.value).putInt(0x0100);
+		codeByteBuffer.put(OpCode.IDX_DAT.value).putInt(2).putInt(2).putInt(0);
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		codeByteBuffer.position(0x0100);
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(4);
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		assertEnginesMatch();
+	}
+
+	@Test
+	public void testFatalError() throws ExecutionException {
+		dataByteBuffer.putLong(2 * MachineState.VALUE_SIZE, -1L); // negative index
+
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(4);
+		codeByteBuffer.put(OpCode.IND_DAT.value).putInt(2).putInt(4);
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		assertEnginesMatch();
+	}
+
+	@Test
+	public void testFunctionCalls() throws ExecutionException {
+		dataByteBuffer.putLong(0, 4L); // loop counter
+
+		int loopAddress = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.EXT_FUN_DAT.value).putShort(FunctionCode.SET_A1.value).putInt(0);
+		codeByteBuffer.put(OpCode.EXT_FUN_DAT_2.value).putShort(FunctionCode.SET_A1_A2.value).putInt(0).putInt(0);
+		codeByteBuffer.put(OpCode.EXT_FUN.value).putShort(FunctionCode.SWAP_A_AND_B.value);
+		codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort(FunctionCode.GET_B1.value).putInt(1);
+		codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort(FunctionCode.GET_BLOCK_TIMESTAMP.value).putInt(2);
+		codeByteBuffer.put(OpCode.EXT_FUN_RET_DAT.value).putShort(FunctionCode.ADD_MINUTES_TO_TIMESTAMP.value).putInt(3).putInt(2);
+		codeByteBuffer.put(OpCode.EXT_FUN_RET_DAT_2.value).putShort(FunctionCode.ADD_MINUTES_TO_TIMESTAMP.value).putInt(3).putInt(3).putInt(0);
+		codeByteBuffer.put(OpCode.SLP_IMD.value);
+		codeByteBuffer.put(OpCode.DEC_DAT.value).putInt(0);
+		int tempPC = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.BNZ_DAT.value).putInt(0).put((byte) (loopAddress - tempPC));
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		assertEnginesMatch();
+	}
+
+	@Test
+	public void testLimitsWithinCompiledCode() throws ExecutionException {
+		// Long basic blocks in a loop, so max steps and balance are reached partway through a block, in compiled code
+		int loopAddress = codeByteBuffer.position();
+		for (int i = 0; i < 60; ++i)
+			codeByteBuffer.put(OpCode.INC_DAT.value).putInt(i % 4);
+		codeByteBuffer.put(OpCode.BNZ_DAT.value).putInt(0).put((byte) (loopAddress - codeByteBuffer.position() + 1));
+
+		assertEnginesMatch();
+	}
+
+	@Test
+	public void testJumpsIntoUncompiledCode() throws ExecutionException {
+		// Immediate value's bytes are also valid code: INC_DAT @1, FIN_IMD
+		codeByteBuffer.put(OpCode.SET_VAL.value).putInt(0).put(OpCode.INC_DAT.value).putInt(1).put(OpCode.FIN_IMD.value).putShort((short) 0); // 0000
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(2); // 000d
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(0x0005); // 0012
+
+		assertEnginesMatch();
+	}
+
+	@Test
+	public void testInvalidBranchTarget() throws ExecutionException {
+		dataByteBuffer.putLong(0, 1L);
+
+		codeByteBuffer.put(OpCode.ERR_ADR.value).putInt(0x0010);
+		codeByteBuffer.put(OpCode.BNZ_DAT.value).putInt(0).put((byte) -20);
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		codeByteBuffer.position(0x0010);
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(1);
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		assertEnginesMatch();
+	}
+
+	@Test
+	public void testBranchTargetsAtCodeLimits() throws ExecutionException {
+		dataByteBuffer.putLong(0, 1L);
+
+		// Last byte of code is a valid branch target, but end of code isn't
+		int lastAddress = codeByteBuffer.limit() - 1;
+
+		codeByteBuffer.put(OpCode.ERR_ADR.value).putInt(0x0020);
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(lastAddress - 0x40);
+		codeByteBuffer.position(0x0020);
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(2);
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		codeByteBuffer.position(lastAddress - 0x40);
+		codeByteBuffer.put(OpCode.BNZ_DAT.value).putInt(0).put((byte) 0x41); // end of code
+		codeByteBuffer.position(lastAddress - 0x20);
+		codeByteBuffer.put(OpCode.BNZ_DAT.value).putInt(0).put((byte) 0x20); // last byte of code
+
+		codeByteBuffer.position(lastAddress);
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		assertEnginesMatch();
+	}
+
+	@Test
+	public void testSwitchingFromCompiledEngine() throws ExecutionException {
+		// Increment data each round, with enough OpCodes to be worth compiling
+		int loopAddress = codeByteBuffer.position();
+		for (int i = 0; i < 10; ++i)
+			codeByteBuffer.put(OpCode.INC_DAT.value).putInt(i % 4);
+		codeByteBuffer.put(OpCode.SLP_IMD.value);
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(loopAddress);
+
+		// version 0002, reserved 0000, code 0200 * 1, data 0020 * 8, call stack 0010 * 4, user stack 0010 * 4, minActivation = 0
+		byte[] headerBytes = hexToBytes("0200" + "0000" + "0002" + "2000" + "1000" + "1000" + "0000000000000000");
+
+		// Notes whether any OpCode is logged from within compiled code
+		boolean[] wasCompiledCodeUsed = new boolean[1];
+		StackWalker stackWalker = StackWalker.getInstance(StackWalker.Option.SHOW_HIDDEN_FRAMES);
+		TestLogger compiledCodeLogger = new TestLogger() {
+			@Override
+			public void debug(String message) {
+				if (stackWalker.walk(frames -> frames.anyMatch(frame -> frame.getClassName().startsWith("org.ciyam.at.CompiledCode$"))))
+					wasCompiledCodeUsed[0] = true;
+			}
+		};
+
+		api = new TestAPI();
+		MachineState state = new MachineState(api, compiledCodeLogger, headerBytes, codeByteBuffer.array(), dataByteBuffer.array());
+		state.setExecutionEngine(ExecutionEngine.COMPILED);
+
+		state.execute();
+		api.bumpCurrentBlockHeight();
+		assertTrue("Compiled code should be used", wasCompiledCodeUsed[0]);
+
+		state.setExecutionEngine(ExecutionEngine.OPCODE);
+		wasCompiledCodeUsed[0] = false;
+
+		for (int round = 0; round < 3; ++round) {
+			state.execute();
+			api.bumpCurrentBlockHeight();
+			assertTrue("AT should have executed", state.getSteps() > 0);
+		}
+
+		assertFalse("Compiled code shouldn't be used after switching engine", wasCompiledCodeUsed[0]);
+	}
+
+}
@@ -1,13 +1,20 @@
 import static common.TestUtils.hexToBytes;
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.ciyam.at.ExecutionException;
 import org.ciyam.at.FunctionCode;
+import org.ciyam.at.FunctionData;
+import org.ciyam.at.MachineState;
+import org.ciyam.at.MutableFunctionData;
 import org.ciyam.at.OpCode;
 import org.ciyam.at.Timestamp;
 import org.junit.Test;
 
 import common.ExecutableTest;
+import common.TestAPI;
 
 public class FunctionCodeTests extends ExecutableTest {
 
@@ -199,6 +206,42 @@ public class FunctionCodeTests extends ExecutableTest {
 		assertFalse(state.getHadFatalError());
 	}
 
+	@Test
+	public void testRepeatedHashing() throws ExecutionException {
+		// Digesters are reused, so check each hash starts afresh
+		codeByteBuffer.put(OpCode.SET_VAL.value).putInt(0).putLong(1234L);
+
+		for (FunctionCode[] functionCodes : new FunctionCode[][] {
+				{ FunctionCode.MD5_A_TO_B, FunctionCode.CHECK_MD5_A_WITH_B },
+				{ FunctionCode.HASH160_A_TO_B, FunctionCode.CHECK_HASH160_A_WITH_B },
+				{ FunctionCode.SHA256_A_TO_B, FunctionCode.CHECK_SHA256_A_WITH_B } }) {
+			// Hash zeroed A, then hash again: should match
+			codeByteBuffer.put(OpCode.EXT_FUN.value).putShort(FunctionCode.CLEAR_A.value);
+			codeByteBuffer.put(OpCode.EXT_FUN.value).putShort(functionCodes[0].value);
+			codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort(functionCodes[1].value).putInt(1);
+			codeByteBuffer.put(OpCode.ADD_DAT.value).putInt(2).putInt(1);
+
+			// Change A: should no longer match
+			codeByteBuffer.put(OpCode.EXT_FUN_DAT.value).putShort(FunctionCode.SET_A1.value).putInt(0);
+			codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort(functionCodes[1].value).putInt(1);
+			codeByteBuffer.put(OpCode.ADD_DAT.value).putInt(3).putInt(1);
+
+			// Hash changed A: should match again
+			codeByteBuffer.put(OpCode.EXT_FUN.value).putShort(functionCodes[0].value);
+			codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort(functionCodes[1].value).putInt(1);
+			codeByteBuffer.put(OpCode.ADD_DAT.value).putInt(2).putInt(1);
+		}
+
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		execute(true);
+
+		assertTrue(state.getIsFinished());
+		assertFalse(state.getHadFatalError());
+		assertEquals("Hashes should have matched", 6L, getData(2));
+		assertEquals("Hashes should not have matched", 0L, getData(3));
+	}
+
 	@Test
 	public void testInvalidFunctionCode() throws ExecutionException {
 		codeByteBuffer.put(OpCode.EXT_FUN.value).putShort((short) 0xaaaa);
@@ -234,4 +277,51 @@ public class FunctionCodeTests extends ExecutableTest {
 		assertTrue(state.getHadFatalError());
 	}
 
+	@Test
+	public void testPlatformSpecific0502() throws ExecutionException {
+		// TestAPI only implements boxed FunctionData variant
+		codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort((short) 0x0502).putInt(0);
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		execute(true);
+
+		assertTrue(state.getIsFinished());
+		assertFalse(state.getHadFatalError());
+		assertEquals(0x0502L, getData(0));
+	}
+
+	@Test
+	public void testPlatformSpecificMutableFunctionData() throws ExecutionException {
+		final List<MutableFunctionData> functionDatas = new ArrayList<>();
+
+		api = new TestAPI() {
+			@Override
+			public void platformSpecificPostCheckExecute(FunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+				fail("Boxed FunctionData variant shouldn't be called");
+			}
+
+			@Override
+			public void platformSpecificPostCheckExecute(MutableFunctionData functionData, MachineState state, short rawFunctionCode) throws ExecutionException {
+				functionDatas.add(functionData);
+
+				if (rawFunctionCode == 0x0502)
+					functionData.setReturnValue(functionDatas.size());
+			}
+		};
+
+		codeByteBuffer.put(OpCode.SET_VAL.value).putInt(0).putLong(1234L);
+		codeByteBuffer.put(OpCode.EXT_FUN_DAT.value).putShort((short) 0x0501).putInt(0);
+		codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort((short) 0x0502).putInt(1);
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		execute(true);
+
+		assertTrue(state.getIsFinished());
+		assertFalse(state.getHadFatalError());
+		assertEquals(2L, getData(1));
+
+		assertEquals(2, functionDatas.size());
+		assertSame("FunctionData should be reused", functionDatas.get(0), functionDatas.get(1));
+	}
+
 }
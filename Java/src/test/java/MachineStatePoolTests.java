@@ -0,0 +1,186 @@
+import static common.TestUtils.hexToBytes;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ciyam.at.CodeSegment;
+import org.ciyam.at.ExecutionEngine;
+import org.ciyam.at.MachineState;
+import org.ciyam.at.MachineStatePool;
+import org.ciyam.at.OpCode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import common.TestAPI;
+import common.TestLogger;
+
+public class MachineStatePoolTests {
+
+	private static final int AT_COUNT = 8;
+	private static final int ROUNDS = 6;
+
+	// version 0002, reserved 0000, code 0200 * 1, data 0020 * 8, call stack 0010 * 4, user stack 0010 * 4, minActivation = 0
+	private static final byte[] HEADER_BYTES = hexToBytes("0200" + "0000" + "0002" + "2000" + "1000" + "1000" + "0000000000000000");
+
+	// as above, but data 0010 * 8
+	private static final byte[] SMALL_HEADER_BYTES = hexToBytes("0200" + "0000" + "0002" + "1000" + "1000" + "1000" + "0000000000000000");
+
+	public TestLogger logger;
+
+	@Before
+	public void beforeTest() {
+		logger = new TestLogger();
+	}
+
+	@After
+	public void afterTest() {
+		logger = null;
+	}
+
+	/**
+	 * Pushes data[0] onto user stack <tt>depth</tt> times, via subroutine, then sleeps until next block, unwinding stacks next round.
+	 * Varying depth per AT leaves different amounts of stale stack entries in reused machine states.
+	 */
+	private static byte[] buildCode(int depth, int increment) {
+		ByteBuffer codeByteBuffer = ByteBuffer.allocate(0x0200).order(ByteOrder.LITTLE_ENDIAN);
+
+		final int subAddress = 0x0100;
+
+		int loopAddress = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.SET_VAL.value).putInt(1).putLong(depth);
+
+		int pushAddress = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.JMP_SUB.value).putInt(subAddress);
+		codeByteBuffer.put(OpCode.DEC_DAT.value).putInt(1);
+		int tempPC = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.BNZ_DAT.value).putInt(1).put((byte) (pushAddress - tempPC));
+
+		codeByteBuffer.put(OpCode.SET_VAL.value).putInt(1).putLong(depth);
+		codeByteBuffer.put(OpCode.SLP_IMD.value);
+
+		int popAddress = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.POP_DAT.value).putInt(2);
+		codeByteBuffer.put(OpCode.ADD_DAT.value).putInt(3).putInt(2);
+		codeByteBuffer.put(OpCode.DEC_DAT.value).putInt(1);
+		tempPC = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.BNZ_DAT.value).putInt(1).put((byte) (popAddress - tempPC));
+
+		codeByteBuffer.put(OpCode.SLP_IMD.value);
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(loopAddress);
+
+		// Subroutine: push data[0], add increment, return (with sleep in middle to serialize non-empty call stack)
+		codeByteBuffer.position(subAddress);
+		codeByteBuffer.put(OpCode.PSH_DAT.value).putInt(0);
+		codeByteBuffer.put(OpCode.SET_VAL.value).putInt(4).putLong(increment);
+		codeByteBuffer.put(OpCode.ADD_DAT.value).putInt(0).putInt(4);
+		codeByteBuffer.put(OpCode.RET_SUB.value);
+
+		return codeByteBuffer.array();
+	}
+
+	@Test
+	public void testPooledMatchesUnpooled() {
+		for (ExecutionEngine engine : ExecutionEngine.values()) {
+			// Two templates with identical headers, and one with different header
+			List<byte[]> headers = new ArrayList<>();
+			List<byte[]> codes = new ArrayList<>();
+			List<TestAPI> apis = new ArrayList<>();
+			List<byte[]> unpooledStates = new ArrayList<>();
+			List<byte[]> pooledStates = new ArrayList<>();
+
+			for (int i = 0; i < AT_COUNT; ++i) {
+				byte[] headerBytes = i % 4 == 3 ? SMALL_HEADER_BYTES : HEADER_BYTES;
+				byte[] codeBytes = buildCode(1 + i % 5, 1 + i % 2);
+
+				headers.add(headerBytes);
+				codes.add(codeBytes);
+				apis.add(new TestAPI());
+
+				byte[] stateBytes = new MachineState(null, logger, headerBytes, codeBytes, new byte[0]).toBytes();
+				unpooledStates.add(stateBytes);
+				pooledStates.add(stateBytes);
+			}
+
+			MachineStatePool pool = new MachineStatePool(4);
+
+			for (int round = 0; round < ROUNDS; ++round) {
+				for (int i = 0; i < AT_COUNT; ++i) {
+					TestAPI api = apis.get(i);
+
+					MachineState unpooledState = MachineState.fromBytes(api, logger, unpooledStates.get(i), codes.get(i));
+					unpooledState.setExecutionEngine(engine);
+					unpooledState.execute();
+					unpooledStates.set(i, unpooledState.toBytes());
+
+					MachineState pooledState;
+					if (i % 2 == 0)
+						pooledState = pool.acquire(api, logger, pooledStates.get(i), codes.get(i));
+					else
+						pooledState = pool.acquire(api, logger, ByteBuffer.wrap(pooledStates.get(i)), CodeSegment.of(codes.get(i)));
+
+					pooledState.setExecutionEngine(engine);
+					pooledState.execute();
+					pooledStates.set(i, pooledState.toBytes());
+					pool.release(pooledState);
+
+					assertFalse(unpooledState.getHadFatalError());
+					assertArrayEquals(engine + " engine: AT " + i + " differs in round " + round, unpooledStates.get(i), pooledStates.get(i));
+				}
+
+				for (TestAPI api : apis)
+					api.bumpCurrentBlockHeight();
+			}
+
+			assertEquals(2, pool.idleCount());
+		}
+	}
+
+	@Test
+	public void testReuse() {
+		byte[] codeBytes = buildCode(2, 1);
+		byte[] stateBytes = new MachineState(null, logger, HEADER_BYTES, codeBytes, new byte[0]).toBytes();
+		byte[] smallStateBytes = new MachineState(null, logger, SMALL_HEADER_BYTES, codeBytes, new byte[0]).toBytes();
+
+		MachineStatePool pool = new MachineStatePool(1);
+
+		MachineState state = pool.acquire(new TestAPI(), logger, stateBytes, codeBytes);
+		MachineState otherState = pool.acquire(new TestAPI(), logger, stateBytes, codeBytes);
+		assertNotSame(state, otherState);
+
+		pool.release(state);
+
+		// Idle state doesn't keep platform objects reachable
+		assertNull(state.getAPI());
+		assertNull(state.getLogger());
+
+		try {
+			pool.release(state);
+			fail("Releasing twice should be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+
+		// Pool full, so discarded
+		pool.release(otherState);
+		assertEquals(1, pool.idleCount());
+
+		// Different header can't reuse idle state
+		assertNotSame(state, pool.acquire(new TestAPI(), logger, smallStateBytes, codeBytes));
+		assertEquals(1, pool.idleCount());
+
+		assertSame(state, pool.acquire(new TestAPI(), logger, stateBytes, codeBytes));
+		assertEquals(0, pool.idleCount());
+
+		try {
+			state.reset(new TestAPI(), logger, smallStateBytes, codeBytes);
+			fail("Mismatched header should be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+}
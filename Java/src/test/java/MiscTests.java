@@ -1,13 +1,19 @@
 import static common.TestUtils.hexToBytes;
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.ciyam.at.ExecutionException;
 import org.ciyam.at.FunctionCode;
+import org.ciyam.at.IllegalOperationException;
 import org.ciyam.at.MachineState;
 import org.ciyam.at.OpCode;
 import org.junit.Test;
 
 import common.ExecutableTest;
+import common.TestAPI;
+import common.TestLogger;
 
 public class MiscTests extends ExecutableTest {
 
@@ -35,6 +41,19 @@ public class MiscTests extends ExecutableTest {
 		assertTrue(state.getHadFatalError());
 	}
 
+	@Test
+	public void testJumpIntoImmediateValue() throws ExecutionException {
+		// Immediate value's bytes are also valid code: INC_DAT @1, FIN_IMD
+		codeByteBuffer.put(OpCode.SET_VAL.value).putInt(0).put(OpCode.INC_DAT.value).putInt(1).put(OpCode.FIN_IMD.value).putShort((short) 0); // 0000
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(0x0005); // 000d
+
+		execute(true);
+
+		assertTrue(state.getIsFinished());
+		assertFalse(state.getHadFatalError());
+		assertEquals("Data does not match", 1L, getData(1));
+	}
+
 	@Test
 	public void testFreeze() throws ExecutionException {
 		// Infinite loop
@@ -50,6 +69,140 @@ public class MiscTests extends ExecutableTest {
 		assertNotNull(frozenBalance);
 	}
 
+	@Test
+	public void testMaxStepsWithinBlock() throws ExecutionException {
+		// One long basic block, more steps than allowed per round (500)
+		for (int i = 0; i < 80; ++i)
+			codeByteBuffer.put(OpCode.INC_DAT.value).putInt(0);
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(0);
+
+		api.setCurrentBalance(100000L);
+
+		execute(true);
+
+		// Should sleep partway through block, exactly as if each OpCode was checked
+		assertTrue(state.getIsSleeping());
+		assertEquals(500, state.getSteps());
+		assertEquals(500 - 500 / 81, getData(0)); // minus JMP_ADRs
+		assertEquals(500 % 81 * 5, state.getProgramCounter());
+	}
+
+	@Test
+	public void testFreezeWithinBlock() throws ExecutionException {
+		// One long basic block, costing more than AT's balance
+		for (int i = 0; i < 80; ++i)
+			codeByteBuffer.put(OpCode.INC_DAT.value).putInt(0);
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		api.setCurrentBalance(50L);
+
+		execute(true);
+
+		// Should freeze partway through block, exactly as if each OpCode was checked
+		assertTrue(state.getIsFrozen());
+		assertEquals(Long.valueOf(0L), state.getFrozenBalance());
+		assertEquals(50, state.getSteps());
+		assertEquals(50L, getData(0));
+		assertEquals(50 * 5, state.getProgramCounter());
+	}
+
+	@Test
+	public void testOpCodeStepsCachedPerRound() throws ExecutionException {
+		final int[] callCount = new int[1];
+
+		api = new TestAPI() {
+			@Override
+			public int getOpCodeSteps(OpCode opcode) {
+				++callCount[0];
+				return super.getOpCodeSteps(opcode);
+			}
+		};
+
+		// Infinite loop, so round ends due to max steps
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(0);
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(0);
+
+		execute(true);
+
+		assertTrue(state.getIsSleeping());
+		assertEquals(api.getMaxStepsPerRound(), state.getSteps());
+		assertEquals("API should only be asked once per OpCode per round", OpCode.values().length, callCount[0]);
+	}
+
+	/** Counts per-OpCode and per-function debug messages */
+	private static class CountingLogger extends TestLogger {
+		private final boolean isDebugEnabled;
+		public int perStepMessageCount = 0;
+
+		public CountingLogger(boolean isDebugEnabled) {
+			this.isDebugEnabled = isDebugEnabled;
+		}
+
+		@Override
+		public void debug(String message) {
+			if (message.startsWith("[PC: ") || message.startsWith("Function "))
+				++perStepMessageCount;
+		}
+
+		@Override
+		public boolean isDebugEnabled() {
+			return this.isDebugEnabled;
+		}
+	}
+
+	@Test
+	public void testDebugLoggingDisabled() throws ExecutionException {
+		codeByteBuffer.put(OpCode.SET_VAL.value).putInt(0).putLong(10L);
+		codeByteBuffer.put(OpCode.EXT_FUN_DAT.value).putShort(FunctionCode.ECHO.value).putInt(0);
+		codeByteBuffer.put(OpCode.DEC_DAT.value).putInt(0);
+		codeByteBuffer.put(OpCode.BNZ_DAT.value).putInt(0).put((byte) -(1 + 2 + 4 + 1 + 4));
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		CountingLogger enabledLogger = new CountingLogger(true);
+		logger = enabledLogger;
+		execute(true);
+		assertTrue(state.getIsFinished());
+		assertTrue(enabledLogger.perStepMessageCount > 0);
+
+		// Finishing refunds balance, so start again with fresh API
+		api = new TestAPI();
+		CountingLogger disabledLogger = new CountingLogger(false);
+		logger = disabledLogger;
+		execute(true);
+		assertTrue(state.getIsFinished());
+		assertEquals("Debug messages should not be built when disabled", 0, disabledLogger.perStepMessageCount);
+	}
+
+	@Test
+	public void testStacklessErrors() throws ExecutionException {
+		final List<ExecutionException> fatalErrors = new ArrayList<>();
+
+		// Divide by zero, without error handler
+		codeByteBuffer.put(OpCode.DIV_DAT.value).putInt(0).putInt(1);
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		for (int i = 0; i < 2; ++i) {
+			api = new TestAPI() {
+				@Override
+				public void onFatalError(MachineState state, ExecutionException e) {
+					fatalErrors.add(e);
+				}
+			};
+
+			execute(true);
+
+			assertTrue(state.getHadFatalError());
+		}
+
+		assertEquals(2, fatalErrors.size());
+
+		ExecutionException e = fatalErrors.get(0);
+		assertTrue(e instanceof IllegalOperationException);
+		assertEquals("Divide by zero", e.getMessage());
+		assertEquals("Stack trace should not be filled in", 0, e.getStackTrace().length);
+		assertSame("Exception should be preallocated", e, fatalErrors.get(1));
+	}
+
 	@Test
 	public void testMinActivation() throws ExecutionException {
 		long minActivation = 12345L; // 0x0000000000003039
@@ -1,6 +1,7 @@
 import static common.TestUtils.hexToBytes;
 import static org.junit.Assert.*;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
@@ -8,6 +9,7 @@ import java.util.Arrays;
 import org.ciyam.at.ExecutionException;
 import org.ciyam.at.FunctionCode;
 import org.ciyam.at.MachineState;
+import org.ciyam.at.MachineStateStatus;
 import org.ciyam.at.OpCode;
 import org.junit.After;
 import org.junit.Before;
@@ -55,7 +57,12 @@ public class SerializationTests {
 		// Pretend we're on next block
 		api.bumpCurrentBlockHeight();
 
-		return executeAndCheck(state);
+		byte[] stateBytes = executeAndCheck(state);
+
+		byte[] deltaBytes = state.toDeltaBytes(savedState);
+		assertArrayEquals("Delta->Apply error", stateBytes, MachineState.applyDelta(savedState, deltaBytes));
+
+		return stateBytes;
 	}
 
 	private byte[] executeAndCheck(MachineState state) {
@@ -70,9 +77,123 @@ public class SerializationTests {
 		assertTrue("Serialization->Deserialization->Reserialization error", Arrays.equals(stateBytes, restoredStateBytes));
 		assertTrue("Serialization->Deserialization->Reserialization error", Arrays.equals(codeBytes, restoredCodeBytes));
 
+		checkWriteTo(state, stateBytes);
+		checkFromByteBuffer(stateBytes, codeBytes);
+		checkPeekStatus(state, stateBytes);
+
 		return stateBytes;
 	}
 
+	private void checkWriteTo(MachineState state, byte[] stateBytes) {
+		assertEquals(stateBytes.length, state.serializedSize());
+
+		// Direct, big-endian buffer, written at non-zero position
+		final int offset = 7;
+		ByteBuffer byteBuffer = ByteBuffer.allocateDirect(offset + state.serializedSize() + 1);
+		byteBuffer.position(offset);
+
+		state.writeTo(byteBuffer);
+
+		assertEquals(offset + stateBytes.length, byteBuffer.position());
+		assertEquals(ByteOrder.BIG_ENDIAN, byteBuffer.order());
+
+		byte[] writtenBytes = new byte[stateBytes.length];
+		byteBuffer.position(offset);
+		byteBuffer.get(writtenBytes);
+
+		assertArrayEquals("writeTo() output differs from toBytes()", stateBytes, writtenBytes);
+	}
+
+	private void checkPeekStatus(MachineState state, byte[] stateBytes) {
+		MachineStateStatus status = MachineState.peekStatus(stateBytes, new MachineStateStatus());
+		assertStatus(state, status);
+
+		// Direct, big-endian buffer, with state at non-zero position, reusing status
+		final int offset = 3;
+		ByteBuffer byteBuffer = ByteBuffer.allocateDirect(offset + stateBytes.length);
+		byteBuffer.position(offset);
+		byteBuffer.put(stateBytes);
+		byteBuffer.position(offset);
+
+		assertSame(status, MachineState.peekStatus(byteBuffer, status));
+		assertStatus(state, status);
+
+		assertEquals("peekStatus() shouldn't move position", offset, byteBuffer.position());
+		assertEquals(ByteOrder.BIG_ENDIAN, byteBuffer.order());
+	}
+
+	private static void assertStatus(MachineState state, MachineStateStatus status) {
+		assertEquals(state.version, status.getVersion());
+
+		assertEquals(state.getIsSleeping(), status.getIsSleeping());
+		assertEquals(state.getIsStopped(), status.getIsStopped());
+		assertEquals(state.getIsFinished(), status.getIsFinished());
+		assertEquals(state.getHadFatalError(), status.getHadFatalError());
+		assertEquals(state.getIsFrozen(), status.getIsFrozen());
+
+		assertEquals(state.getSleepUntilHeight() != null, status.hasSleepUntilHeight());
+		if (status.hasSleepUntilHeight())
+			assertEquals((int) state.getSleepUntilHeight(), status.getSleepUntilHeight());
+
+		assertEquals(state.getFrozenBalance() != null, status.hasFrozenBalance());
+		if (status.hasFrozenBalance())
+			assertEquals((long) state.getFrozenBalance(), status.getFrozenBalance());
+	}
+
+	@Test
+	public void testPeekStatus() throws ExecutionException {
+		// Sleep until height from code, with error handler and non-empty stacks, then error handler stops
+		codeByteBuffer.put(OpCode.ERR_ADR.value).putInt(0x0100); // 0000
+		codeByteBuffer.put(OpCode.SET_VAL.value).putInt(0).putLong(100); // 0005
+		codeByteBuffer.put(OpCode.PSH_DAT.value).putInt(0); // 0012
+		codeByteBuffer.put(OpCode.JMP_SUB.value).putInt(0x0040); // 0017
+		codeByteBuffer.position(0x0040);
+		codeByteBuffer.put(OpCode.SLP_DAT.value).putInt(0x0080); // 0040
+		codeByteBuffer.put(OpCode.DIV_DAT.value).putInt(0).putInt(1); // 0045 - divide by zero
+		codeByteBuffer.putLong(0x0080, 20L);
+		codeByteBuffer.position(0x0100);
+		codeByteBuffer.put(OpCode.STP_IMD.value); // 0100
+
+		byte[] savedState = simulate();
+
+		assertTrue(state.getIsSleeping());
+		assertEquals(20, (int) state.getSleepUntilHeight());
+
+		for (int i = 0; i < 10; ++i)
+			api.bumpCurrentBlockHeight();
+
+		continueSimulation(savedState);
+
+		assertTrue(state.getIsStopped());
+		assertFalse(state.getHadFatalError());
+
+		// Fatal error
+		codeByteBuffer.put(0x0045, OpCode.FIN_IMD.value);
+		codeByteBuffer.put(0x0000, OpCode.DIV_DAT.value).putInt(0x0001, 0).putInt(0x0005, 1);
+
+		simulate();
+
+		assertTrue(state.getIsFinished());
+		assertTrue(state.getHadFatalError());
+
+		// Awaiting minActivationAmount, so frozen
+		byte[] headerBytes = hexToBytes("0200" + "0000" + "0002" + "2000" + "1000" + "1000" + "d007000000000000");
+		state = new MachineState(api, logger, headerBytes, codeByteBuffer.array(), new byte[0]);
+
+		MachineStateStatus status = MachineState.peekStatus(state.toBytes(), new MachineStateStatus());
+		assertTrue(status.getIsFrozen());
+		assertEquals(1999L, status.getFrozenBalance());
+		assertStatus(state, status);
+
+		// Truncated state
+		try {
+			MachineState.peekStatus(Arrays.copyOf(state.toBytes(), MachineState.HEADER_LENGTH + 10), status);
+			fail("Truncated state should be rejected");
+		} catch (IndexOutOfBoundsException e) {
+			// Expected
+		}
+	}
+
 	@Test
 	public void testPCS2() throws ExecutionException {
 		codeByteBuffer.put(OpCode.SET_VAL.value).putInt(0).put(hexToBytes("0000000011111111"));
@@ -109,4 +230,106 @@ public class SerializationTests {
 		savedState = continueSimulation(savedState);
 	}
 
+	private void checkFromByteBuffer(byte[] stateBytes, byte[] codeBytes) {
+		// Direct, big-endian buffer, with state at non-zero position and followed by unrelated bytes
+		final int offset = 5;
+		ByteBuffer byteBuffer = ByteBuffer.allocateDirect(offset + stateBytes.length + 3);
+		byteBuffer.position(offset);
+		byteBuffer.put(stateBytes);
+		byteBuffer.put(new byte[] { 1, 2, 3 });
+		byteBuffer.position(offset);
+
+		MachineState restoredState = MachineState.fromBytes(api, logger, byteBuffer, codeBytes, true);
+
+		assertEquals(offset + stateBytes.length, byteBuffer.position());
+		assertEquals(ByteOrder.BIG_ENDIAN, byteBuffer.order());
+		assertSame("Code bytes should be adopted, not copied", codeBytes, restoredState.getCodeBytes());
+		assertArrayEquals("Restoring from ByteBuffer->Reserialization error", stateBytes, restoredState.toBytes());
+	}
+
+	@Test
+	public void testDeltaBytes() throws ExecutionException {
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(3); // 0000
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(4); // 0005
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(0x1e); // 000a
+		codeByteBuffer.put(OpCode.SLP_IMD.value); // 000f
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(0x0000); // 0010
+
+		byte[] savedState = simulate();
+		savedState = continueSimulation(savedState);
+
+		byte[] previousState = savedState;
+		savedState = continueSimulation(savedState);
+		byte[] deltaBytes = state.toDeltaBytes(previousState);
+
+		// Header, run count, 2 runs with 3 values, then rest of state
+		int expectedLength = MachineState.HEADER_LENGTH + 4 + 2 * (4 + 4) + 3 * MachineState.VALUE_SIZE
+				+ (savedState.length - MachineState.HEADER_LENGTH - 0x20 * MachineState.VALUE_SIZE);
+		assertEquals(expectedLength, deltaBytes.length);
+
+		// Unchanged state
+		deltaBytes = state.toDeltaBytes(savedState);
+		assertArrayEquals(savedState, MachineState.applyDelta(savedState, deltaBytes));
+	}
+
+	@Test
+	public void testDeltaBytesMismatchedHeader() throws ExecutionException {
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		byte[] savedState = simulate();
+
+		// Different minimum activation amount
+		byte[] otherState = savedState.clone();
+		otherState[MachineState.HEADER_LENGTH - 1] = 1;
+
+		try {
+			state.toDeltaBytes(otherState);
+			fail("Delta against different header should be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+
+		try {
+			MachineState.applyDelta(otherState, state.toDeltaBytes(savedState));
+			fail("Applying delta to different header should be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testWriteToShortBuffer() throws ExecutionException {
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		simulate();
+
+		ByteBuffer byteBuffer = ByteBuffer.allocate(state.serializedSize() - 1);
+
+		try {
+			state.writeTo(byteBuffer);
+			fail("Writing to too-short buffer should be rejected");
+		} catch (BufferOverflowException e) {
+			// Expected
+		}
+
+		assertEquals("Nothing should be written to too-short buffer", 0, byteBuffer.position());
+	}
+
+	@Test
+	public void testMisalignedStackLength() throws ExecutionException {
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		byte[] savedState = simulate();
+
+		// Call stack length follows header and data (0x20 * 8 bytes), and must be a whole number of entries
+		ByteBuffer.wrap(savedState).order(ByteOrder.LITTLE_ENDIAN).putInt(MachineState.HEADER_LENGTH + 0x20 * MachineState.VALUE_SIZE, 3);
+
+		try {
+			MachineState.fromBytes(api, logger, savedState, codeByteBuffer.array());
+			fail("Misaligned call stack length should be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
 }
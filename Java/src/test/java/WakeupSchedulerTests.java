@@ -0,0 +1,291 @@
+import static common.TestUtils.hexToBytes;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.ciyam.at.MachineState;
+import org.ciyam.at.MachineStateStatus;
+import org.ciyam.at.OpCode;
+import org.ciyam.at.WakeupScheduler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import common.TestAPI;
+import common.TestLogger;
+
+public class WakeupSchedulerTests {
+
+	private static final int AT_COUNT = 12;
+	private static final int BLOCKS = 40;
+
+	// version 0002, reserved 0000, code 0200 * 1, data 0020 * 8, call stack 0010 * 4, user stack 0010 * 4, minActivation = 0
+	private static final byte[] HEADER_BYTES = hexToBytes("0200" + "0000" + "0002" + "2000" + "1000" + "1000" + "0000000000000000");
+
+	// as above, but minActivation = 2000
+	private static final byte[] MIN_ACTIVATION_HEADER_BYTES = hexToBytes("0200" + "0000" + "0002" + "2000" + "1000" + "1000" + "d007000000000000");
+
+	public TestLogger logger;
+
+	@Before
+	public void beforeTest() {
+		logger = new TestLogger();
+	}
+
+	@After
+	public void afterTest() {
+		logger = null;
+	}
+
+	@Test
+	public void testIndexing() {
+		WakeupScheduler<String> scheduler = new WakeupScheduler<>(Comparator.naturalOrder());
+
+		scheduler.setRunnable("c");
+		scheduler.sleepUntil("a", 10);
+		scheduler.sleepUntil("b", 5);
+		scheduler.sleepUntil("d", 5);
+
+		assertEquals(4, scheduler.size());
+		assertEquals(Integer.valueOf(5), scheduler.getNextWakeHeight());
+
+		assertEquals(Arrays.asList("c"), scheduler.getDue(4));
+		assertEquals(Arrays.asList("b", "c", "d"), scheduler.getDue(5));
+		assertEquals(Arrays.asList("a", "b", "c", "d"), scheduler.getDue(10));
+
+		// Re-indexing replaces previous entry
+		scheduler.sleepUntil("b", 20);
+		scheduler.sleepUntil("c", 7);
+		scheduler.setRunnable("a");
+		assertEquals(4, scheduler.size());
+		assertEquals(Arrays.asList("a", "d"), scheduler.getDue(6));
+		assertEquals(Arrays.asList("a", "c", "d"), scheduler.getDue(19));
+
+		scheduler.remove("d");
+		scheduler.remove("a");
+		scheduler.remove("missing");
+		assertEquals(2, scheduler.size());
+		assertEquals(Integer.valueOf(7), scheduler.getNextWakeHeight());
+		assertEquals(Collections.emptyList(), scheduler.getDue(6));
+
+		scheduler.remove("b");
+		scheduler.remove("c");
+		assertEquals(0, scheduler.size());
+		assertNull(scheduler.getNextWakeHeight());
+	}
+
+	@Test
+	public void testFrozenIndexing() {
+		WakeupScheduler<String> scheduler = new WakeupScheduler<>(Comparator.naturalOrder());
+
+		scheduler.setRunnable("a");
+		scheduler.freeze("b", 100L, null);
+		scheduler.freeze("c", 200L, 15);
+
+		assertEquals(3, scheduler.size());
+		assertEquals(2, scheduler.frozenCount());
+		assertEquals(Arrays.asList("a"), scheduler.getDue(20));
+
+		assertFalse("Balance must exceed frozen balance", scheduler.updateBalance("b", 100L));
+		assertFalse("Unindexed ATs aren't thawed", scheduler.updateBalance("missing", 1000L));
+		assertFalse("Runnable ATs aren't thawed", scheduler.updateBalance("a", 1000L));
+
+		assertTrue(scheduler.updateBalance("b", 101L));
+		assertFalse("Already thawed", scheduler.updateBalance("b", 102L));
+		assertEquals(Arrays.asList("a", "b"), scheduler.getDue(20));
+
+		// Thawed AT still sleeps until its sleep-until height
+		assertTrue(scheduler.updateBalance("c", 201L));
+		assertEquals(0, scheduler.frozenCount());
+		assertEquals(Integer.valueOf(15), scheduler.getNextWakeHeight());
+		assertEquals(Arrays.asList("a", "b"), scheduler.getDue(14));
+		assertEquals(Arrays.asList("a", "b", "c"), scheduler.getDue(15));
+
+		scheduler.freeze("a", 50L, null);
+		scheduler.remove("a");
+		assertEquals(2, scheduler.size());
+		assertEquals(0, scheduler.frozenCount());
+	}
+
+	@Test
+	public void testFrozenSchedulingMatchesExecutingEveryBlock() {
+		// AT awaiting minActivationAmount, and AT that runs out of funds
+		List<MachineState> allStates = new ArrayList<>();
+		List<MachineState> scheduledStates = new ArrayList<>();
+		List<TestAPI> allAPIs = new ArrayList<>();
+		List<TestAPI> scheduledAPIs = new ArrayList<>();
+
+		for (byte[] headerBytes : Arrays.asList(MIN_ACTIVATION_HEADER_BYTES, HEADER_BYTES)) {
+			byte[] codeBytes = buildBusyCode();
+
+			TestAPI api = new TestAPI();
+			allAPIs.add(api);
+			allStates.add(new MachineState(api, logger, headerBytes, codeBytes, new byte[0]));
+
+			api = new TestAPI();
+			scheduledAPIs.add(api);
+			scheduledStates.add(new MachineState(api, logger, headerBytes, codeBytes, new byte[0]));
+		}
+
+		// Index using status peeked from serialized states, as if starting up
+		WakeupScheduler<Integer> scheduler = new WakeupScheduler<>(Comparator.naturalOrder());
+		MachineStateStatus status = new MachineStateStatus();
+		for (int i = 0; i < scheduledStates.size(); ++i)
+			scheduler.update(i, MachineState.peekStatus(scheduledStates.get(i).toBytes(), status));
+
+		assertEquals("AT awaiting minActivationAmount should be frozen", 1, scheduler.frozenCount());
+
+		int scheduledExecutions = 0;
+		boolean wasFrozen = false;
+
+		for (int block = 0; block < BLOCKS; ++block) {
+			int height = allAPIs.get(0).getCurrentBlockHeight();
+
+			// Occasional payments to all ATs
+			if (block % 10 == 9)
+				for (int i = 0; i < allStates.size(); ++i) {
+					long balance = allAPIs.get(i).getCurrentBalance(null) + 1000L;
+
+					allAPIs.get(i).setCurrentBalance(balance);
+					scheduledAPIs.get(i).setCurrentBalance(balance);
+					scheduler.updateBalance(i, balance);
+				}
+
+			for (int i = 0; i < allStates.size(); ++i) {
+				MachineState state = allStates.get(i);
+				state.execute();
+				allAPIs.get(i).setCurrentBalance(state.getCurrentBalance());
+			}
+
+			for (int i : scheduler.getDue(height)) {
+				MachineState state = scheduledStates.get(i);
+				state.execute();
+				scheduledAPIs.get(i).setCurrentBalance(state.getCurrentBalance());
+				++scheduledExecutions;
+
+				scheduler.update(i, state);
+			}
+
+			wasFrozen |= scheduler.frozenCount() == allStates.size();
+
+			for (int i = 0; i < allStates.size(); ++i)
+				assertArrayEquals("AT " + i + " differs at height " + height, allStates.get(i).toBytes(), scheduledStates.get(i).toBytes());
+
+			for (List<TestAPI> apis : Arrays.asList(allAPIs, scheduledAPIs))
+				for (TestAPI api : apis)
+					api.bumpCurrentBlockHeight();
+		}
+
+		assertTrue("Both ATs should have been frozen at some point", wasFrozen);
+		assertTrue("Scheduler should skip frozen ATs", scheduledExecutions < allStates.size() * BLOCKS / 2);
+	}
+
+	@Test
+	public void testSchedulingMatchesExecutingEveryBlock() {
+		List<MachineState> allStates = new ArrayList<>();
+		List<MachineState> scheduledStates = new ArrayList<>();
+		List<TestAPI> allAPIs = new ArrayList<>();
+		List<TestAPI> scheduledAPIs = new ArrayList<>();
+
+		for (int i = 0; i < AT_COUNT; ++i) {
+			byte[] codeBytes = buildSleepingCode(i);
+
+			TestAPI api = new TestAPI();
+			allAPIs.add(api);
+			allStates.add(new MachineState(api, logger, HEADER_BYTES, codeBytes, new byte[0]));
+
+			api = new TestAPI();
+			scheduledAPIs.add(api);
+			scheduledStates.add(new MachineState(api, logger, HEADER_BYTES, codeBytes, new byte[0]));
+		}
+
+		WakeupScheduler<Integer> scheduler = new WakeupScheduler<>(Comparator.naturalOrder());
+		for (int i = 0; i < AT_COUNT; ++i)
+			scheduler.setRunnable(i);
+
+		int allExecutions = 0;
+		int scheduledExecutions = 0;
+
+		for (int block = 0; block < BLOCKS; ++block) {
+			int height = allAPIs.get(0).getCurrentBlockHeight();
+
+			for (MachineState state : allStates) {
+				state.execute();
+				++allExecutions;
+			}
+
+			for (int i : scheduler.getDue(height)) {
+				MachineState state = scheduledStates.get(i);
+				state.execute();
+				++scheduledExecutions;
+
+				scheduler.update(i, state);
+			}
+
+			for (int i = 0; i < AT_COUNT; ++i)
+				assertArrayEquals("AT " + i + " differs at height " + height, allStates.get(i).toBytes(), scheduledStates.get(i).toBytes());
+
+			for (List<TestAPI> apis : Arrays.asList(allAPIs, scheduledAPIs))
+				for (TestAPI api : apis)
+					api.bumpCurrentBlockHeight();
+		}
+
+		assertTrue("Scheduler should skip sleeping and finished ATs", scheduledExecutions < allExecutions / 2);
+	}
+
+	/** AT that increments data[0] in a loop for whole round, so soon runs out of funds */
+	private static byte[] buildBusyCode() {
+		ByteBuffer codeByteBuffer = ByteBuffer.allocate(0x0200).order(ByteOrder.LITTLE_ENDIAN);
+
+		int loopAddress = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(0);
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(loopAddress);
+
+		return codeByteBuffer.array();
+	}
+
+	/**
+	 * AT that counts executions in data[0], then sleeps until next block if <tt>i % 4</tt> is zero, otherwise until height <tt>10 + (i % 4) * 12</tt>,
+	 * and finishes after <tt>i + 1</tt> executions if <tt>i</tt> is odd.
+	 */
+	private static byte[] buildSleepingCode(int i) {
+		final int heightAddress = 0x0100;
+		long sleepBlocks = i % 4;
+		long maxRuns = i % 2 == 1 ? i + 1 : 0;
+
+		ByteBuffer codeByteBuffer = ByteBuffer.allocate(0x0200).order(ByteOrder.LITTLE_ENDIAN);
+
+		codeByteBuffer.put(OpCode.SET_VAL.value).putInt(1).putLong(maxRuns);
+
+		int loopAddress = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(0);
+
+		if (maxRuns != 0) {
+			// Finish once data[0] reaches maxRuns
+			int tempPC = codeByteBuffer.position();
+			int sleepAddress = tempPC + 10 + 1;
+			codeByteBuffer.put(OpCode.BNE_DAT.value).putInt(0).putInt(1).put((byte) (sleepAddress - tempPC));
+			codeByteBuffer.put(OpCode.FIN_IMD.value);
+			assertEquals(sleepAddress, codeByteBuffer.position());
+		}
+
+		if (sleepBlocks == 0) {
+			codeByteBuffer.put(OpCode.SLP_IMD.value);
+		} else {
+			// SLP_DAT reads block height from code; TestAPI starts at height 10
+			codeByteBuffer.put(OpCode.SLP_DAT.value).putInt(heightAddress);
+			codeByteBuffer.putLong(heightAddress, 10 + sleepBlocks * 12);
+		}
+
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(loopAddress);
+
+		return codeByteBuffer.array();
+	}
+
+}
@@ -0,0 +1,196 @@
+package benchmarks;
+
+import static common.TestUtils.hexToBytes;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.ciyam.at.Digester;
+import org.ciyam.at.ExecutionException;
+import org.ciyam.at.FunctionCode;
+import org.ciyam.at.FunctionData;
+import org.ciyam.at.LoggerInterface;
+import org.ciyam.at.MachineState;
+
+import common.TestAPI;
+
+/**
+ * Compares <tt>FunctionCode</tt> hash functions, and built-in <tt>Digester</tt> digests, against JCA <tt>MessageDigest</tt>s.
+ * <p>
+ * JCA is measured both looking up a new <tt>MessageDigest</tt> per call, with fresh buffers, as <tt>FunctionCode</tt> used to,
+ * and reusing one <tt>MessageDigest</tt> and buffers. With BouncyCastle installed first, as by <tt>ExecutableTest</tt>,
+ * JCA resolves to BouncyCastle's implementations.
+ * <p>
+ * Run with e.g.: <tt>java -cp target/classes:target/test-classes:bcprov.jar benchmarks.DigestBenchmark</tt>
+ */
+public class DigestBenchmark {
+
+	private static final int WARM_UP_RUNS = 20;
+	private static final int MEASURED_RUNS = 50;
+
+	private static final int DIGESTS_PER_RUN = 100_000;
+
+	/** Discards output so logging doesn't swamp measurements */
+	private static class QuietLogger implements LoggerInterface {
+		@Override
+		public void error(String message) {
+		}
+
+		@Override
+		public void debug(String message) {
+		}
+
+		@Override
+		public void echo(String message) {
+		}
+
+		@Override
+		public boolean isDebugEnabled() {
+			return false;
+		}
+	}
+
+	private interface DigestRun {
+		long digest() throws Exception;
+	}
+
+	/** Returns average nanoseconds per digest */
+	private static double measure(DigestRun digestRun) throws Exception {
+		long totalNanos = 0;
+		long checksum = 0;
+
+		for (int run = 0; run < WARM_UP_RUNS + MEASURED_RUNS; ++run) {
+			long start = System.nanoTime();
+
+			for (int i = 0; i < DIGESTS_PER_RUN; ++i)
+				checksum += digestRun.digest();
+
+			if (run >= WARM_UP_RUNS)
+				totalNanos += System.nanoTime() - start;
+		}
+
+		// Use checksum so digests can't be optimized away
+		if (checksum == 42)
+			System.out.println();
+
+		return (double) totalNanos / MEASURED_RUNS / DIGESTS_PER_RUN;
+	}
+
+	/** Previous <tt>FunctionCode</tt> implementation: provider lookup and buffer allocation per call */
+	private static long jcaPerCall(MachineState state, String algorithm, int messageValueCount) throws NoSuchAlgorithmException {
+		ByteBuffer messageByteBuffer = ByteBuffer.allocate(messageValueCount * MachineState.VALUE_SIZE);
+		messageByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		messageByteBuffer.putLong(state.getA1());
+		messageByteBuffer.putLong(state.getA2());
+		if (messageValueCount >= 3)
+			messageByteBuffer.putLong(state.getA3());
+		if (messageValueCount >= 4)
+			messageByteBuffer.putLong(state.getA4());
+
+		MessageDigest digester = MessageDigest.getInstance(algorithm);
+		byte[] digest = digester.digest(messageByteBuffer.array());
+
+		ByteBuffer digestByteBuffer = ByteBuffer.wrap(digest);
+		digestByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		return digestByteBuffer.getLong();
+	}
+
+	/** Reused <tt>MessageDigest</tt> and buffers */
+	private static class ReusedJca {
+		private final MessageDigest messageDigest;
+		private final int messageValueCount;
+		private final ByteBuffer messageByteBuffer;
+		private final ByteBuffer digestByteBuffer;
+
+		public ReusedJca(String algorithm, int messageValueCount) throws NoSuchAlgorithmException {
+			this.messageDigest = MessageDigest.getInstance(algorithm);
+			this.messageValueCount = messageValueCount;
+			this.messageByteBuffer = ByteBuffer.allocate(messageValueCount * MachineState.VALUE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			this.digestByteBuffer = ByteBuffer.allocate(this.messageDigest.getDigestLength()).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		public long digest(MachineState state) throws DigestException {
+			this.messageByteBuffer.putLong(0, state.getA1());
+			this.messageByteBuffer.putLong(8, state.getA2());
+			if (this.messageValueCount >= 3)
+				this.messageByteBuffer.putLong(16, state.getA3());
+			if (this.messageValueCount >= 4)
+				this.messageByteBuffer.putLong(24, state.getA4());
+
+			this.messageDigest.update(this.messageByteBuffer.array());
+			this.messageDigest.digest(this.digestByteBuffer.array(), 0, this.digestByteBuffer.capacity());
+
+			return this.digestByteBuffer.getLong(0);
+		}
+	}
+
+	private static long builtIn(Digester digester, MachineState state, int messageValueCount) {
+		switch (messageValueCount) {
+			case 2:
+				return digester.md5(state.getA1(), state.getA2())[0];
+
+			case 3:
+				return digester.ripemd160(state.getA1(), state.getA2(), state.getA3())[0];
+
+			default:
+				return digester.sha256(state.getA1(), state.getA2(), state.getA3(), state.getA4())[0];
+		}
+	}
+
+	private static void compare(MachineState state, String algorithm, int messageValueCount, FunctionCode functionCode) throws Exception {
+		FunctionData functionData = new FunctionData(false);
+		ReusedJca reusedJca = new ReusedJca(algorithm, messageValueCount);
+		Digester digester = new Digester();
+
+		// All must agree before timing means anything
+		long expectedDigest = jcaPerCall(state, algorithm, messageValueCount);
+		functionCode.execute(functionData, state, functionCode.value);
+		if (state.getB1() != expectedDigest || builtIn(digester, state, messageValueCount) != expectedDigest)
+			throw new IllegalStateException(algorithm + " digest doesn't match JCA");
+
+		double perCallNanos = measure(() -> jcaPerCall(state, algorithm, messageValueCount));
+		double reusedNanos = measure(() -> reusedJca.digest(state));
+		double builtInNanos = measure(() -> builtIn(digester, state, messageValueCount));
+		double functionCodeNanos = measure(() -> {
+			functionCode.execute(functionData, state, functionCode.value);
+			return state.getB1();
+		});
+
+		System.out.println(String.format("%s (%s):", algorithm, functionCode.name()));
+		System.out.println(String.format("  %-16s %8.1f ns/digest", "JCA per call", perCallNanos));
+		System.out.println(String.format("  %-16s %8.1f ns/digest", "JCA reused", reusedNanos));
+		System.out.println(String.format("  %-16s %8.1f ns/digest", "built-in", builtInNanos));
+		System.out.println(String.format("  %-16s %8.1f ns/digest", "function code", functionCodeNanos));
+		System.out.println(String.format("    function code speed-up vs JCA per call: %.2fx, vs JCA reused: %.2fx", perCallNanos / functionCodeNanos,
+				reusedNanos / functionCodeNanos));
+	}
+
+	private static void setA(MachineState state, FunctionCode functionCode, long value) throws ExecutionException {
+		functionCode.execute(new FunctionData(value, false), state, functionCode.value);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Security.insertProviderAt(new BouncyCastleProvider(), 0);
+
+		// version 0002, reserved 0000, code 0001 * 1, data 0001 * 8, call stack 0000 * 4, user stack 0000 * 4, minActivation = 0
+		byte[] headerBytes = hexToBytes("0200" + "0000" + "0100" + "0100" + "0000" + "0000" + "0000000000000000");
+		MachineState state = new MachineState(new TestAPI(), new QuietLogger(), headerBytes, new byte[1], new byte[8]);
+
+		setA(state, FunctionCode.SET_A1, 0x0123456789abcdefL);
+		setA(state, FunctionCode.SET_A2, 0xfedcba9876543210L);
+		setA(state, FunctionCode.SET_A3, 0x1111111111111111L);
+		setA(state, FunctionCode.SET_A4, 0x2222222222222222L);
+
+		compare(state, "MD5", 2, FunctionCode.MD5_A_TO_B);
+		compare(state, "RIPEMD160", 3, FunctionCode.HASH160_A_TO_B);
+		compare(state, "SHA-256", 4, FunctionCode.SHA256_A_TO_B);
+	}
+
+}
@@ -0,0 +1,223 @@
+package benchmarks;
+
+import static common.TestUtils.hexToBytes;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.ciyam.at.ExecutionEngine;
+import org.ciyam.at.FunctionCode;
+import org.ciyam.at.LoggerInterface;
+import org.ciyam.at.MachineState;
+import org.ciyam.at.OpCode;
+
+import common.TestAPI;
+
+/**
+ * Compares throughput of execution engines.
+ * <p>
+ * Run with e.g.: <tt>java -cp target/classes:target/test-classes benchmarks.ExecutionEngineBenchmark</tt>
+ */
+public class ExecutionEngineBenchmark {
+
+	private static final int WARM_UP_RUNS = 200;
+	private static final int MEASURED_RUNS = 500;
+
+	private static final int LOOP_ITERATIONS = 10_000;
+	private static final int ACCT_ITERATIONS = 2_000;
+
+	/** TestAPI that lets benchmark programs run to completion in one round */
+	private static class BenchmarkAPI extends TestAPI {
+		public BenchmarkAPI() {
+			this.setCurrentBalance(Long.MAX_VALUE / 2);
+		}
+
+		@Override
+		public int getMaxStepsPerRound() {
+			return 100_000_000;
+		}
+
+		@Override
+		public void onFinished(long amount, MachineState state) {
+		}
+	}
+
+	/** Discards output so logging doesn't swamp measurements */
+	private static class QuietLogger implements LoggerInterface {
+		@Override
+		public void error(String message) {
+		}
+
+		@Override
+		public void debug(String message) {
+		}
+
+		@Override
+		public void echo(String message) {
+		}
+
+		@Override
+		public boolean isDebugEnabled() {
+			return false;
+		}
+	}
+
+	private static class Result {
+		public final long nanosPerRun;
+		public final int stepsPerRun;
+		public final byte[] finalState;
+
+		public Result(long nanosPerRun, int stepsPerRun, byte[] finalState) {
+			this.nanosPerRun = nanosPerRun;
+			this.stepsPerRun = stepsPerRun;
+			this.finalState = finalState;
+		}
+	}
+
+	/** Tight arithmetic loop, with indirect data access */
+	private static byte[] buildLoopProgram(ByteBuffer dataByteBuffer) {
+		ByteBuffer codeByteBuffer = ByteBuffer.allocate(0x0100).order(ByteOrder.LITTLE_ENDIAN);
+
+		dataByteBuffer.putLong(0 * MachineState.VALUE_SIZE, LOOP_ITERATIONS);
+		dataByteBuffer.putLong(1 * MachineState.VALUE_SIZE, 3L);
+		dataByteBuffer.putLong(2 * MachineState.VALUE_SIZE, 5L); // index
+		dataByteBuffer.putLong(3 * MachineState.VALUE_SIZE, 7L); // shift
+
+		int loopAddress = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.ADD_DAT.value).putInt(4).putInt(1);
+		codeByteBuffer.put(OpCode.MUL_DAT.value).putInt(5).putInt(4);
+		codeByteBuffer.put(OpCode.XOR_DAT.value).putInt(5).putInt(0);
+		codeByteBuffer.put(OpCode.SHR_DAT.value).putInt(5).putInt(3);
+		codeByteBuffer.put(OpCode.SET_IDX.value).putInt(6).putInt(2).putInt(1);
+		codeByteBuffer.put(OpCode.IDX_DAT.value).putInt(2).putInt(1).putInt(4);
+		codeByteBuffer.put(OpCode.BGT_DAT.value).putInt(4).putInt(0).put((byte) (1 + 4 + 4 + 1 + 1 + 4));
+		codeByteBuffer.put(OpCode.INC_DAT.value).putInt(9);
+		codeByteBuffer.put(OpCode.DEC_DAT.value).putInt(0);
+		int tempPC = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.BNZ_DAT.value).putInt(0).put((byte) (loopAddress - tempPC));
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		return codeByteBuffer.array();
+	}
+
+	/** ACCT-style: scan transactions, checking sender and message via function calls, as with a cross-chain trade AT */
+	private static byte[] buildAcctProgram(ByteBuffer dataByteBuffer) {
+		ByteBuffer codeByteBuffer = ByteBuffer.allocate(0x0100).order(ByteOrder.LITTLE_ENDIAN);
+
+		final int addrExpectedAddress = 0x0; // 4 longs
+		final int addrCounter = 0x4;
+		final int addrAddressTemp = 0x5; // 4 longs
+		final int addrComparator = 0x9;
+		final int addrLastTimestamp = 0xa;
+		final int addrTxType = 0xb;
+
+		for (int i = 0; i < 4; ++i)
+			dataByteBuffer.putLong((addrExpectedAddress + i) * MachineState.VALUE_SIZE, 0xaaaaaaaaaaaaaaaaL);
+
+		dataByteBuffer.putLong(addrCounter * MachineState.VALUE_SIZE, ACCT_ITERATIONS);
+
+		// txloop:
+		int addrTxLoop = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.EXT_FUN_DAT.value).putShort(FunctionCode.PUT_TX_AFTER_TIMESTAMP_IN_A.value).putInt(addrLastTimestamp);
+		codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort(FunctionCode.CHECK_A_IS_ZERO.value).putInt(addrComparator);
+		int addrBranchToNext = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.BNZ_DAT.value).putInt(addrComparator).put((byte) 0); // fixed up below
+
+		// checkTx:
+		codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort(FunctionCode.GET_TYPE_FROM_TX_IN_A.value).putInt(addrTxType);
+		codeByteBuffer.put(OpCode.EXT_FUN.value).putShort(FunctionCode.PUT_ADDRESS_FROM_TX_IN_A_INTO_B.value);
+		codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort(FunctionCode.GET_B1.value).putInt(addrAddressTemp + 0);
+		codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort(FunctionCode.GET_B2.value).putInt(addrAddressTemp + 1);
+		codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort(FunctionCode.GET_B3.value).putInt(addrAddressTemp + 2);
+		codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort(FunctionCode.GET_B4.value).putInt(addrAddressTemp + 3);
+
+		int[] addrBranchesToNext = new int[4];
+		for (int i = 0; i < 4; ++i) {
+			addrBranchesToNext[i] = codeByteBuffer.position();
+			codeByteBuffer.put(OpCode.BNE_DAT.value).putInt(addrAddressTemp + i).putInt(addrExpectedAddress + i).put((byte) 0); // fixed up below
+		}
+
+		// checkMessage:
+		codeByteBuffer.put(OpCode.EXT_FUN.value).putShort(FunctionCode.PUT_MESSAGE_FROM_TX_IN_A_INTO_B.value);
+		codeByteBuffer.put(OpCode.EXT_FUN.value).putShort(FunctionCode.SWAP_A_AND_B.value);
+		codeByteBuffer.put(OpCode.EXT_FUN_RET.value).putShort(FunctionCode.GET_A1.value).putInt(addrLastTimestamp);
+
+		// next:
+		int addrNext = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.DEC_DAT.value).putInt(addrCounter);
+		int tempPC = codeByteBuffer.position();
+		codeByteBuffer.put(OpCode.BNZ_DAT.value).putInt(addrCounter).put((byte) (addrTxLoop - tempPC));
+		codeByteBuffer.put(OpCode.FIN_IMD.value);
+
+		// Fix up forward branches
+		codeByteBuffer.put(addrBranchToNext + 1 + 4, (byte) (addrNext - addrBranchToNext));
+		for (int addrBranch : addrBranchesToNext)
+			codeByteBuffer.put(addrBranch + 1 + 4 + 4, (byte) (addrNext - addrBranch));
+
+		return codeByteBuffer.array();
+	}
+
+	private static Result run(ExecutionEngine engine, byte[] codeBytes, byte[] dataBytes) {
+		// version 0002, reserved 0000, code 0100 * 1, data 0020 * 8, call stack 0010 * 4, user stack 0010 * 4, minActivation = 0
+		byte[] headerBytes = hexToBytes("0200" + "0000" + "0001" + "2000" + "1000" + "1000" + "0000000000000000");
+
+		BenchmarkAPI api = new BenchmarkAPI();
+		QuietLogger logger = new QuietLogger();
+
+		MachineState state = null;
+
+		for (int i = 0; i < WARM_UP_RUNS; ++i) {
+			state = new MachineState(api, logger, headerBytes, codeBytes, dataBytes);
+			state.setExecutionEngine(engine);
+			state.execute();
+		}
+
+		long totalNanos = 0;
+		for (int i = 0; i < MEASURED_RUNS; ++i) {
+			state = new MachineState(api, logger, headerBytes, codeBytes, dataBytes);
+			state.setExecutionEngine(engine);
+
+			long start = System.nanoTime();
+			state.execute();
+			totalNanos += System.nanoTime() - start;
+		}
+
+		if (!state.getIsFinished() || state.getHadFatalError())
+			throw new IllegalStateException("Benchmark program didn't finish cleanly");
+
+		return new Result(totalNanos / MEASURED_RUNS, state.getSteps(), state.toBytes());
+	}
+
+	private static void compare(String name, byte[] codeBytes, byte[] dataBytes) {
+		Result opCodeResult = run(ExecutionEngine.OPCODE, codeBytes, dataBytes);
+
+		System.out.println(String.format("%s: %d steps per run", name, opCodeResult.stepsPerRun));
+		printResult(ExecutionEngine.OPCODE, opCodeResult);
+
+		for (ExecutionEngine engine : new ExecutionEngine[] { ExecutionEngine.SWITCH, ExecutionEngine.COMPILED }) {
+			Result result = run(engine, codeBytes, dataBytes);
+
+			if (!Arrays.equals(opCodeResult.finalState, result.finalState))
+				throw new IllegalStateException("Execution engine " + engine + " produced different state for " + name);
+
+			printResult(engine, result);
+			System.out.println(String.format("    speed-up: %.2fx", (double) opCodeResult.nanosPerRun / result.nanosPerRun));
+		}
+	}
+
+	private static void printResult(ExecutionEngine engine, Result result) {
+		System.out.println(String.format("  %-8s %10d ns/run %8.2f ns/step", engine, result.nanosPerRun, (double) result.nanosPerRun / result.stepsPerRun));
+	}
+
+	public static void main(String[] args) {
+		ByteBuffer dataByteBuffer = ByteBuffer.allocate(0x0020 * 8).order(ByteOrder.LITTLE_ENDIAN);
+		byte[] loopCodeBytes = buildLoopProgram(dataByteBuffer);
+		compare("Arithmetic loop", loopCodeBytes, dataByteBuffer.array());
+
+		dataByteBuffer = ByteBuffer.allocate(0x0020 * 8).order(ByteOrder.LITTLE_ENDIAN);
+		byte[] acctCodeBytes = buildAcctProgram(dataByteBuffer);
+		compare("ACCT-style transaction scan", acctCodeBytes, dataByteBuffer.array());
+	}
+
+}
@@ -0,0 +1,106 @@
+package benchmarks;
+
+import static common.TestUtils.hexToBytes;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.ciyam.at.CodeSegment;
+import org.ciyam.at.LoggerInterface;
+import org.ciyam.at.MachineState;
+import org.ciyam.at.OpCode;
+
+import com.sun.management.ThreadMXBean;
+
+import common.TestAPI;
+
+/**
+ * Measures time and allocation per block for the typical platform pattern of restoring each AT from its saved state, then executing it.
+ * <p>
+ * AT has maximum-size code but only sleeps until next block each round, so cost is dominated by restoring, and any per-AT code decoding.
+ * <p>
+ * Run with e.g.: <tt>java -cp target/classes:target/test-classes benchmarks.RestoreBenchmark</tt>
+ */
+public class RestoreBenchmark {
+
+	private static final int WARM_UP_RUNS = 20;
+	private static final int MEASURED_RUNS = 50;
+
+	private static final int RESTORES_PER_RUN = 1_000;
+
+	private static final ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/** Discards output so logging doesn't swamp measurements */
+	private static class QuietLogger implements LoggerInterface {
+		@Override
+		public void error(String message) {
+		}
+
+		@Override
+		public void debug(String message) {
+		}
+
+		@Override
+		public void echo(String message) {
+		}
+
+		@Override
+		public boolean isDebugEnabled() {
+			return false;
+		}
+	}
+
+	private interface Restorer {
+		MachineState restore(byte[] stateBytes);
+	}
+
+	private static void measure(String name, TestAPI api, byte[] initialStateBytes, Restorer restorer) {
+		long totalNanos = 0;
+		long totalAllocated = 0;
+		byte[] stateBytes = initialStateBytes;
+
+		for (int run = 0; run < WARM_UP_RUNS + MEASURED_RUNS; ++run) {
+			long allocatedBefore = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			long start = System.nanoTime();
+
+			for (int i = 0; i < RESTORES_PER_RUN; ++i) {
+				// New block each time, so AT wakes up
+				api.bumpCurrentBlockHeight();
+
+				MachineState state = restorer.restore(stateBytes);
+				state.execute();
+				stateBytes = state.toBytes();
+			}
+
+			if (run >= WARM_UP_RUNS) {
+				totalNanos += System.nanoTime() - start;
+				totalAllocated += threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+			}
+		}
+
+		int restores = MEASURED_RUNS * RESTORES_PER_RUN;
+		System.out.println(String.format("%-24s %8.1f us, %10d bytes per restore+execute", name, totalNanos / 1000.0 / restores, totalAllocated / restores));
+	}
+
+	public static void main(String[] args) {
+		// version 0002, reserved 0000, code 7fff * 1, data 0020 * 8, call stack 0010 * 4, user stack 0010 * 4, minActivation = 0
+		byte[] headerBytes = hexToBytes("0200" + "0000" + "ff7f" + "2000" + "1000" + "1000" + "0000000000000000");
+
+		ByteBuffer codeByteBuffer = ByteBuffer.allocate(0x7fff).order(ByteOrder.LITTLE_ENDIAN);
+		codeByteBuffer.put(OpCode.SLP_IMD.value);
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(0);
+		byte[] codeBytes = codeByteBuffer.array();
+
+		TestAPI api = new TestAPI();
+		LoggerInterface logger = new QuietLogger();
+
+		byte[] stateBytes = new MachineState(api, logger, headerBytes, codeBytes, new byte[0]).toBytes();
+
+		measure("fromBytes(byte[])", api, stateBytes, bytes -> MachineState.fromBytes(api, logger, bytes, codeBytes));
+
+		CodeSegment codeSegment = CodeSegment.of(codeBytes);
+		measure("fromBytes(CodeSegment)", api, stateBytes, bytes -> MachineState.fromBytes(api, logger, ByteBuffer.wrap(bytes), codeSegment));
+	}
+
+}
@@ -0,0 +1,115 @@
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.ciyam.at.FunctionCode;
+import org.ciyam.at.OpCode;
+
+/**
+ * Compares <tt>OpCode.valueOf(int)</tt> and <tt>FunctionCode.valueOf(int)</tt> against the boxed-key <tt>HashMap</tt> lookups they replaced.
+ * <p>
+ * Lookups follow the opcode and function code mixes executed by the programs in <tt>ExecutionEngineBenchmark</tt>.
+ * <p>
+ * Run with e.g.: <tt>java -cp target/classes:target/test-classes benchmarks.ValueLookupBenchmark</tt>
+ */
+public class ValueLookupBenchmark {
+
+	private static final int WARM_UP_RUNS = 20;
+	private static final int MEASURED_RUNS = 50;
+
+	private static final int LOOKUPS_PER_RUN = 10_000_000;
+
+	/** Opcodes executed by one iteration of arithmetic loop */
+	private static final OpCode[] LOOP_OPCODES = { OpCode.ADD_DAT, OpCode.MUL_DAT, OpCode.XOR_DAT, OpCode.SHR_DAT, OpCode.SET_IDX, OpCode.IDX_DAT,
+			OpCode.BGT_DAT, OpCode.INC_DAT, OpCode.DEC_DAT, OpCode.BNZ_DAT };
+
+	/** Opcodes executed by one iteration of ACCT-style transaction scan */
+	private static final OpCode[] ACCT_OPCODES = { OpCode.EXT_FUN_DAT, OpCode.EXT_FUN_RET, OpCode.BNZ_DAT, OpCode.EXT_FUN_RET, OpCode.EXT_FUN,
+			OpCode.EXT_FUN_RET, OpCode.EXT_FUN_RET, OpCode.EXT_FUN_RET, OpCode.EXT_FUN_RET, OpCode.BNE_DAT, OpCode.BNE_DAT, OpCode.BNE_DAT,
+			OpCode.BNE_DAT, OpCode.EXT_FUN, OpCode.EXT_FUN, OpCode.EXT_FUN_RET, OpCode.DEC_DAT, OpCode.BNZ_DAT };
+
+	/** Function codes called by one iteration of ACCT-style transaction scan, plus a platform-specific function */
+	private static final FunctionCode[] ACCT_FUNCTION_CODES = { FunctionCode.PUT_TX_AFTER_TIMESTAMP_IN_A, FunctionCode.CHECK_A_IS_ZERO,
+			FunctionCode.GET_TYPE_FROM_TX_IN_A, FunctionCode.PUT_ADDRESS_FROM_TX_IN_A_INTO_B, FunctionCode.GET_B1, FunctionCode.GET_B2,
+			FunctionCode.GET_B3, FunctionCode.GET_B4, FunctionCode.PUT_MESSAGE_FROM_TX_IN_A_INTO_B, FunctionCode.SWAP_A_AND_B, FunctionCode.GET_A1,
+			FunctionCode.API_PASSTHROUGH };
+
+	// Previous implementations, for comparison
+
+	private static final Map<Byte, OpCode> opCodeMap = Arrays.stream(OpCode.values()).collect(Collectors.toMap(opcode -> opcode.value, opcode -> opcode));
+
+	private static final Map<Short, FunctionCode> functionCodeMap = Arrays.stream(FunctionCode.values())
+			.collect(Collectors.toMap(functionCode -> functionCode.value, functionCode -> functionCode));
+
+	private static OpCode mapOpCodeValueOf(int value) {
+		return opCodeMap.get((byte) value);
+	}
+
+	private static FunctionCode mapFunctionCodeValueOf(int value) {
+		if (value >= 0x0500 && value <= 0x06ff)
+			return FunctionCode.API_PASSTHROUGH;
+
+		return functionCodeMap.get((short) value);
+	}
+
+	private interface Lookup {
+		Enum<?> valueOf(int value);
+	}
+
+	/** Returns average nanoseconds per lookup, cycling through raw values */
+	private static double measure(Lookup lookup, int[] rawValues) {
+		long totalNanos = 0;
+		int checksum = 0;
+
+		for (int run = 0; run < WARM_UP_RUNS + MEASURED_RUNS; ++run) {
+			long start = System.nanoTime();
+
+			for (int i = 0; i < LOOKUPS_PER_RUN; i += rawValues.length)
+				for (int rawValue : rawValues)
+					checksum += lookup.valueOf(rawValue).ordinal();
+
+			if (run >= WARM_UP_RUNS)
+				totalNanos += System.nanoTime() - start;
+		}
+
+		// Use checksum so lookups can't be optimized away
+		if (checksum == 42)
+			System.out.println();
+
+		int lookupsPerRun = (LOOKUPS_PER_RUN + rawValues.length - 1) / rawValues.length * rawValues.length;
+		return (double) totalNanos / MEASURED_RUNS / lookupsPerRun;
+	}
+
+	private static void compare(String name, Lookup mapLookup, Lookup tableLookup, int[] rawValues) {
+		// Both must agree before timing means anything
+		for (int rawValue : rawValues)
+			if (mapLookup.valueOf(rawValue) != tableLookup.valueOf(rawValue))
+				throw new IllegalStateException("Lookups disagree for value " + rawValue);
+
+		double mapNanos = measure(mapLookup, rawValues);
+		double tableNanos = measure(tableLookup, rawValues);
+
+		System.out.println(String.format("%s:", name));
+		System.out.println(String.format("  %-8s %8.2f ns/lookup", "HashMap", mapNanos));
+		System.out.println(String.format("  %-8s %8.2f ns/lookup", "table", tableNanos));
+		System.out.println(String.format("    speed-up: %.2fx", mapNanos / tableNanos));
+	}
+
+	private static int[] opCodeValues(OpCode[] opCodes) {
+		return Arrays.stream(opCodes).mapToInt(opCode -> opCode.value).toArray();
+	}
+
+	private static int[] functionCodeValues(FunctionCode[] functionCodes) {
+		return Arrays.stream(functionCodes).mapToInt(functionCode -> functionCode.value).toArray();
+	}
+
+	public static void main(String[] args) {
+		compare("OpCode, arithmetic loop mix", ValueLookupBenchmark::mapOpCodeValueOf, OpCode::valueOf, opCodeValues(LOOP_OPCODES));
+		compare("OpCode, ACCT-style mix", ValueLookupBenchmark::mapOpCodeValueOf, OpCode::valueOf, opCodeValues(ACCT_OPCODES));
+		compare("FunctionCode, ACCT-style mix", ValueLookupBenchmark::mapFunctionCodeValueOf, FunctionCode::valueOf,
+				functionCodeValues(ACCT_FUNCTION_CODES));
+	}
+
+}
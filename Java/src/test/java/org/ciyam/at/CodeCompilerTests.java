@@ -0,0 +1,106 @@
+package org.ciyam.at;
+
+import static common.TestUtils.hexToBytes;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import common.TestAPI;
+import common.TestLogger;
+
+/** In package <tt>org.ciyam.at</tt> to simulate Java without hidden classes, which can't be done through public API */
+public class CodeCompilerTests {
+
+	private static final int ROUNDS = 5;
+
+	// version 0002, reserved 0000, code 0200 * 1, data 0020 * 8, call stack 0010 * 4, user stack 0010 * 4, minActivation = 0
+	private static final byte[] HEADER_BYTES = hexToBytes("0200" + "0000" + "0002" + "2000" + "1000" + "1000" + "0000000000000000");
+
+	public TestLogger logger;
+	public boolean wasHiddenClassSupported;
+
+	@Before
+	public void beforeTest() {
+		logger = new TestLogger();
+		wasHiddenClassSupported = CodeCompiler.isHiddenClassSupported;
+	}
+
+	@After
+	public void afterTest() {
+		CodeCompiler.isHiddenClassSupported = wasHiddenClassSupported;
+		logger = null;
+	}
+
+	/** Loop incrementing data[0] by <tt>increment</tt> each round, with enough OpCodes to be worth compiling */
+	private static byte[] buildCode(int increment) {
+		ByteBuffer codeByteBuffer = ByteBuffer.allocate(0x0200).order(ByteOrder.LITTLE_ENDIAN);
+
+		int loopAddress = codeByteBuffer.position();
+		for (int i = 0; i < increment; ++i)
+			codeByteBuffer.put(OpCode.INC_DAT.value).putInt(0);
+		codeByteBuffer.put(OpCode.SLP_IMD.value);
+		codeByteBuffer.put(OpCode.JMP_ADR.value).putInt(loopAddress);
+
+		return codeByteBuffer.array();
+	}
+
+	/** Executes code, using engine, for several rounds, returning final serialized state */
+	private byte[] executeWith(ExecutionEngine engine, CodeSegment codeSegment) {
+		TestAPI api = new TestAPI();
+		MachineState state = new MachineState(api, logger, HEADER_BYTES, codeSegment, new byte[0]);
+		state.setExecutionEngine(engine);
+
+		for (int round = 0; round < ROUNDS; ++round) {
+			state.execute();
+			api.bumpCurrentBlockHeight();
+		}
+
+		return state.toBytes();
+	}
+
+	/** Executes code A, evicting it from registry with code B, then executes code A again, returning number of classes defined */
+	private int executeWithEviction(byte[] expectedStateBytes) {
+		byte[] codeBytesA = buildCode(5);
+		byte[] codeBytesB = buildCode(6);
+
+		// Room for only one code segment
+		CodeSegmentRegistry registry = new CodeSegmentRegistry(codeBytesA.length);
+		int classCount = CodeCompiler.classCount.get();
+
+		assertArrayEquals(expectedStateBytes, executeWith(ExecutionEngine.COMPILED, registry.getCodeSegment(codeBytesA)));
+
+		registry.getCodeSegment(codeBytesB);
+		assertEquals(1, registry.size());
+
+		// Code A is registered, and compiled, again
+		assertArrayEquals(expectedStateBytes, executeWith(ExecutionEngine.COMPILED, registry.getCodeSegment(codeBytesA)));
+
+		return CodeCompiler.classCount.get() - classCount;
+	}
+
+	@Test
+	public void testRecompileAfterEviction() {
+		assertTrue("Hidden classes should be supported by test JVM", CodeCompiler.isHiddenClassSupported);
+
+		byte[] expectedStateBytes = executeWith(ExecutionEngine.OPCODE, new CodeSegment(buildCode(5)));
+
+		// Unloadable hidden classes are defined each time
+		assertEquals(2, executeWithEviction(expectedStateBytes));
+	}
+
+	@Test
+	public void testRecompileAfterEvictionWithoutHiddenClasses() {
+		byte[] expectedStateBytes = executeWith(ExecutionEngine.OPCODE, new CodeSegment(buildCode(5)));
+
+		CodeCompiler.isHiddenClassSupported = false;
+
+		// Classes that couldn't be unloaded are never defined, with code left to interpreter instead
+		assertEquals(0, executeWithEviction(expectedStateBytes));
+	}
+
+}